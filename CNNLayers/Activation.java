@@ -0,0 +1,168 @@
+/**
+ * Activation function of a layer, applied to a run of weighted sums at a time
+ * rather than one sum per call. Each layer is given its own {@code Activation}
+ * when it is constructed, and uses {@code Sigmoid} if none is given.
+ *
+ * <p>
+ * Every method works on the run {@code [offset, offset + length)} of its
+ * arrays, which for a batch is one input's outputs, so that functions that
+ * normalize over a layer's outputs ({@code Softmax}) see exactly one input's
+ * worth at a time. {@code apply} may be given one array as both {@code z}
+ * and {@code a}, activating the sums in place, and {@code derivative} one
+ * array as both {@code z} and {@code out}.
+ *
+ * <p>
+ * Back propagation goes through {@code backward}, which multiplies the loss
+ * with respect to the activated sums by the Jacobian of the activation. For
+ * a function of each sum alone the Jacobian is diagonal, and the default
+ * multiplies by the derivatives; functions whose outputs depend on every sum
+ * of the run ({@code Softmax}) override it with the full product.
+ *
+ * @author Sepehr Hooshiari
+ *
+ */
+public interface Activation {
+
+    /**
+     * Stores the activation of each weighted sum of {@code z} in {@code a}.
+     *
+     * @param z
+     *            the weighted sums
+     * @param a
+     *            the activated sums
+     * @param offset
+     *            where the run starts
+     * @param length
+     *            the length of the run
+     * @replaces a
+     *
+     * @requires <pre> offset + length <= |z| and offset + length <= |a| </pre>
+     */
+    void apply(double[] z, double[] a, int offset, int length);
+
+    /**
+     * Stores the derivative of the activation at each weighted sum of
+     * {@code z} in {@code out}, given the activated sums {@code a} that
+     * {@code apply} computed from {@code z}.
+     *
+     * @param z
+     *            the weighted sums
+     * @param a
+     *            the activated sums
+     * @param out
+     *            the derivatives
+     * @param offset
+     *            where the run starts
+     * @param length
+     *            the length of the run
+     * @replaces out
+     *
+     * @requires <pre> a[offset, offset + length) is the activation of
+     * z[offset, offset + length) </pre>
+     */
+    void derivative(double[] z, double[] a, double[] out, int offset,
+            int length);
+
+    /**
+     * Stores in {@code delta} the loss with respect to each weighted sum,
+     * given the loss {@code g} with respect to each activated sum, the
+     * activated sums {@code a} and the derivatives {@code slopes} that
+     * {@code derivative} computed. {@code delta} may be the same array as
+     * {@code g} or {@code slopes}.
+     *
+     * @param a
+     *            the activated sums
+     * @param slopes
+     *            the derivatives
+     * @param g
+     *            the loss with respect to each activated sum
+     * @param delta
+     *            the loss with respect to each weighted sum
+     * @param offset
+     *            where the run starts
+     * @param length
+     *            the length of the run
+     * @replaces delta
+     *
+     * @requires <pre> slopes[offset, offset + length) is the derivative at the
+     * sums whose activation is a[offset, offset + length) </pre>
+     */
+    default void backward(double[] a, double[] slopes, double[] g,
+            double[] delta, int offset, int length) {
+        for (int k = offset; k < offset + length; k++) {
+            delta[k] = slopes[k] * g[k];
+        }
+    }
+
+    /**
+     * Stores the activation of each weighted sum of {@code z} in {@code a}, in
+     * single precision.
+     *
+     * @param z
+     *            the weighted sums
+     * @param a
+     *            the activated sums
+     * @param offset
+     *            where the run starts
+     * @param length
+     *            the length of the run
+     * @replaces a
+     *
+     * @requires <pre> offset + length <= |z| and offset + length <= |a| </pre>
+     */
+    void apply(float[] z, float[] a, int offset, int length);
+
+    /**
+     * Stores the derivative of the activation at each weighted sum of
+     * {@code z} in {@code out}, given the activated sums {@code a}, in single
+     * precision.
+     *
+     * @param z
+     *            the weighted sums
+     * @param a
+     *            the activated sums
+     * @param out
+     *            the derivatives
+     * @param offset
+     *            where the run starts
+     * @param length
+     *            the length of the run
+     * @replaces out
+     *
+     * @requires <pre> a[offset, offset + length) is the activation of
+     * z[offset, offset + length) </pre>
+     */
+    void derivative(float[] z, float[] a, float[] out, int offset,
+            int length);
+
+    /**
+     * Stores in {@code delta} the loss with respect to each weighted sum,
+     * given the loss {@code g} with respect to each activated sum, in single
+     * precision. {@code delta} may be the same array as {@code g} or
+     * {@code slopes}.
+     *
+     * @param a
+     *            the activated sums
+     * @param slopes
+     *            the derivatives
+     * @param g
+     *            the loss with respect to each activated sum
+     * @param delta
+     *            the loss with respect to each weighted sum
+     * @param offset
+     *            where the run starts
+     * @param length
+     *            the length of the run
+     * @replaces delta
+     *
+     * @requires <pre> slopes[offset, offset + length) is the derivative at the
+     * sums whose activation is a[offset, offset + length) </pre>
+     */
+    default void backward(float[] a, float[] slopes, float[] g, float[] delta,
+            int offset, int length) {
+        for (int k = offset; k < offset + length; k++) {
+            delta[k] = slopes[k] * g[k];
+        }
+    }
+
+}
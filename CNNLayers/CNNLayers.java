@@ -70,6 +70,40 @@ public interface CNNLayers extends CNNLayersKernel {
      */
     void backPropArray(double[] deriv);
 
+    /**
+     * During forward passes between layers, outputs the batch of outputs from
+     * a batch of {@code batch} inputs stored back to back, to be passed onto
+     * the next layer.
+     *
+     * @param input
+     *            the batch of input arrays
+     * @param batch
+     *            the number of inputs in the batch
+     *
+     * @requires <pre> batch > 0 </pre>
+     *
+     * @ensures <pre> input = #input </pre>
+     *
+     * @return the batch of output arrays
+     */
+    double[] outputFromBatch(double[] input, int batch);
+
+    /**
+     * During back propagation between layers, updates weights once per batch
+     * when the current layer's loss with respect to outputs is a batch of
+     * {@code batch} arrays stored back to back.
+     *
+     * @param deriv
+     *            the batch of losses with respect to outputs
+     * @param batch
+     *            the number of inputs in the batch
+     *
+     * @requires <pre> batch is the batch last passed to outputFromBatch </pre>
+     *
+     * @ensures <pre> deriv = #deriv </pre>
+     */
+    void backPropBatch(double[] deriv, int batch);
+
     /**
      * Function for the CNN to make an initial guess of what the image depicts.
      *
@@ -80,4 +114,30 @@ public interface CNNLayers extends CNNLayersKernel {
      */
     int guess(CNNLayers sig);
 
+    /**
+     * Function for the CNN to make an initial guess of what {@code image}
+     * depicts.
+     *
+     * @param image
+     *            the pixels of the image
+     *
+     * @ensures <pre> image = #image </pre>
+     *
+     * @return the initial guess of the image's label
+     */
+    int guess(double[][] image);
+
+    /**
+     * Function for the CNN to make an initial guess of what an image depicts
+     * from its already scaled, flattened pixels.
+     *
+     * @param input
+     *            the scaled pixels of the image in row-major order
+     *
+     * @ensures <pre> input = #input </pre>
+     *
+     * @return the initial guess of the image's label
+     */
+    int guess(double[] input);
+
 }
@@ -1,76 +1,104 @@
-import java.util.ArrayList;
-import java.util.List;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
 import java.util.Random;
 
-import components.simplereader.SimpleReader;
-import components.simplereader.SimpleReader1L;
-
 /**
- * {@code CNNLayers} represented as a {@code double[][]} with implementations of
- * primary methods.
+ * {@code CNNLayers} represented as a {@code double[]} with implementations of
+ * primary methods. The weight matrix is stored flat in row-major order, so row
+ * {@code i} (the weights of input {@code i}) is the contiguous run starting at
+ * {@code i * outLength}, and both passes walk it front to back.
  *
  * @correspondence <pre>
  * this.is_valid = [$this.weights is valid] and
+ *  this.weights[i][j] = $this.weights[i * $this.outLength + j] and
  *  this.weights.length = $this.inLength
  *  this.weights[0].length = $this.outLength and
  *  if $this.next != null then
  *    this = $this.next.previous and
- *  if $this.previous != null then
+ *  if $this.hasPrevious() then
  *    this = $this.previous.next
  * </pre>
  * @convention {@code
  * [$this.weights is not null when the CNN is propagating and
- *  the number of rows in the weight matrix is equal to the layer's input length
- *  and the number of columns in the weight matrix is equal to the layer's
- *  output length. If $this.next exists, this is equal to $this.previous of
- *  $this.next. If $this.previous exists, this is equal to $this.next of
- *  $this.previous]
+ *  |$this.weights| = $this.inLength * $this.outLength. If $this.next
+ *  exists, this is equal to $this.previous of $this.next. If $this.previous
+ *  exists, this is equal to $this.next of $this.previous]
  * }
  *
  * @author Sepehr Hooshiari
  *
  */
-public class CNNLayers1 extends CNNLayersSecondary {
+public class CNNLayers1 extends CNNLayersBase {
 
     /**
-     * Keeps track of next layer.
+     * Input density below which the forward pass and the weight update only
+     * visit the weight rows of non-zero inputs.
      */
-    private CNNLayers next;
+    private static final double SPARSE_DENSITY = 0.5;
 
     /**
-     * Keeps track of previous layer.
+     * Returned by {@code updateArray} when no loss is propagated.
      */
-    private CNNLayers previous;
+    private static final double[] NO_LOSS = {};
 
     /**
-     * Input data corresponding to an image.
+     * Opaque access to single weights, for updates from several threads.
      */
-    private double[][] data;
+    private static final VarHandle WEIGHT = MethodHandles
+            .arrayElementVarHandle(double[].class);
 
     /**
-     * Label of the input data which indicates what number the image represents.
+     * The number of inputs to this layer.
      */
-    private int label;
+    private int inLength;
 
     /**
-     * The number of inputs to this layer.
+     * The inputs, weighted sums, activations and activation derivatives of
+     * the last forward pass or batch.
      */
-    private int inLength;
+    private Tape tape;
 
     /**
-     * The array of inputs to this layer.
+     * The non-zero entries of the inputs, rebuilt by each forward pass.
      */
-    private double[] inputs;
+    private SparseVector sparseInputs;
 
     /**
-     * The number of outputs from this layer.
+     * Whether the last forward pass was sparse enough to use
+     * {@code sparseInputs}.
      */
-    private int outLength;
+    private boolean sparse;
+
+    /**
+     * Work buffer for the weighted sums of a single-input pass.
+     */
+    private double[] workSums;
 
     /**
-     * The array of outputs from this layer.
+     * Work buffer for the activations of a single-input pass.
      */
-    private double[] outputs;
+    private double[] workActivations;
+
+    /**
+     * Work buffer for the activation derivatives of a single-input pass.
+     */
+    private double[] workSlopes;
+
+    /**
+     * Work buffer for the loss with respect to each weighted sum.
+     */
+    private double[] workDelta;
+
+    /**
+     * Work buffer for the loss with respect to each input.
+     */
+    private double[] workLoss;
+
+    /**
+     * The number of outputs from this layer.
+     */
+    private int outLength;
 
     /**
      * Seed to generate matrix of random weights.
@@ -83,14 +111,14 @@ public class CNNLayers1 extends CNNLayersSecondary {
     private double learningRate;
 
     /**
-     * Representation of {@code this}.
+     * Representation of {@code this}: the weight matrix in row-major order.
      */
-    private double[][] weights;
+    private double[] weights;
 
     /**
-     * The number of layers in the CNN.
+     * Activation function applied to the weighted sums.
      */
-    private List<CNNLayers> layers;
+    private Activation activation;
 
     /**
      * Creator of initial representation.
@@ -100,10 +128,13 @@ public class CNNLayers1 extends CNNLayersSecondary {
         this.outLength = 0;
         this.seed = 0;
         this.learningRate = 0;
-        this.weights = new double[0][0];
-        this.layers = new ArrayList<>();
+        this.weights = new double[0];
+        this.activation = new Sigmoid();
+        this.tape = new Tape();
+        this.sparseInputs = new SparseVector(0);
+        this.createNewBase();
         this.setWeights();
-        this.setLayers();
+        this.setBuffers(false);
     }
 
     /**
@@ -113,48 +144,61 @@ public class CNNLayers1 extends CNNLayersSecondary {
     /**
      * Sets the initial weights with a Gaussian distribution around 0.
      *
-     * @ensures <pre> this.weights.length = this.inLength and
-     * this.weights[0].length = this.outLength </pre>
+     * @ensures <pre> |this.weights| = this.inLength * this.outLength </pre>
      */
     private void setWeights() {
         Random rand = new Random(this.seed);
-        for (int i = 0; i < this.inLength; i++) {
-            for (int j = 0; j < this.outLength; j++) {
-                // use nextGaussian so that random weights are distributed
-                // close to 0
-                this.weights[i][j] = rand.nextGaussian();
-            }
+        for (int k = 0; k < this.weights.length; k++) {
+            // use nextGaussian so that random weights are distributed
+            // close to 0
+            this.weights[k] = rand.nextGaussian();
         }
     }
 
-    /**
-     * Uses the Sigmoid function on {@code sum} to activate {@code sum}.
-     *
-     * @param sum
-     *            the weighted sum of weights and their weights
-     *
-     * @return the activated weighted summation of {@code sum}
-     */
-    private double activation(double sum) {
-        return 1 / (1 + Math.pow(Math.E, -sum));
+    @Override
+    protected final void setBuffers(boolean enabled) {
+        int in = 0;
+        int out = 0;
+        if (enabled) {
+            in = this.inLength;
+            out = this.outLength;
+        }
+        this.workSums = new double[out];
+        this.workActivations = new double[out];
+        this.workSlopes = new double[out];
+        this.workDelta = new double[out];
+        this.workLoss = new double[in];
     }
 
     /**
-     * Sets each layer of the CNN with links to previous and next layers.
+     * Activates the {@code batch * outLength} weighted sums {@code sums}, one
+     * input's outputs at a time, and records the step on the tape together
+     * with the derivative of the activation at each sum.
+     *
+     * @param input
+     *            the inputs of the step
+     * @param sums
+     *            the weighted sums
+     * @param batch
+     *            the number of inputs in the step
+     *
+     * @return the activated sums
      */
-    private void setLayers() {
-        if (this.layers.size() > 1) {
-            for (int i = 0; i < this.layers.size(); i++) {
-                if (i == 0) {
-                    this.layers.get(i).setNext(this.layers.get(i + 1));
-                } else if (i == this.layers.size() - 1) {
-                    this.layers.get(i).setPrevious(this.layers.get(i - 1));
-                } else {
-                    this.layers.get(i).setNext(this.layers.get(i + 1));
-                    this.layers.get(i).setPrevious(this.layers.get(i - 1));
-                }
-            }
+    private double[] activate(double[] input, double[] sums, int batch) {
+        double[] activated = this.workActivations;
+        double[] slopes = this.workSlopes;
+        if (!this.isWorkspace() || batch != 1) {
+            activated = new double[batch * this.outLength];
+            slopes = new double[batch * this.outLength];
+        }
+        for (int b = 0; b < batch; b++) {
+            int offset = b * this.outLength;
+            this.activation.apply(sums, activated, offset, this.outLength);
+            this.activation.derivative(sums, activated, slopes, offset,
+                    this.outLength);
         }
+        this.tape.record(input, sums, activated, slopes, batch);
+        return activated;
     }
 
     /**
@@ -182,30 +226,42 @@ public class CNNLayers1 extends CNNLayersSecondary {
      */
     public CNNLayers1(int inLength, int outLength, long seed,
             double learningRate) {
+        this(inLength, outLength, seed, learningRate, new Sigmoid());
+    }
+
+    /**
+     * Constructor for {@code this} with the given activation function.
+     *
+     * @param inLength
+     *            the length of inputs to the layer
+     * @param outLength
+     *            the length of the layer's outputs
+     * @param seed
+     *            seed to generate initially random weights
+     * @param learningRate
+     *            the rate at which the CNN learns
+     * @param activation
+     *            the activation function of the layer
+     */
+    public CNNLayers1(int inLength, int outLength, long seed,
+            double learningRate, Activation activation) {
         this.inLength = inLength;
         this.outLength = outLength;
         this.seed = seed;
         this.learningRate = learningRate;
-        this.weights = new double[inLength][outLength];
-        this.layers = new ArrayList<>();
+        this.weights = new double[inLength * outLength];
+        this.activation = activation;
+        this.tape = new Tape();
+        this.sparseInputs = new SparseVector(inLength);
+        this.createNewBase();
         this.setWeights();
-        this.setLayers();
+        this.setBuffers(false);
     }
 
     /**
      * Standard methods. -------------------------------------------------------
      */
 
-    @Override
-    public final CNNLayers newInstance() {
-        try {
-            return this.getClass().getConstructor().newInstance();
-        } catch (ReflectiveOperationException e) {
-            throw new AssertionError(
-                    "Cannot construct object of type " + this.getClass());
-        }
-    }
-
     @Override
     public final void clear() {
         this.createNewRep();
@@ -223,6 +279,7 @@ public class CNNLayers1 extends CNNLayersSecondary {
          */
         CNNLayers1 localSource = (CNNLayers1) source;
         this.weights = localSource.weights;
+        this.activation = localSource.activation;
         this.inLength = localSource.inLength;
         this.outLength = localSource.outLength;
         this.learningRate = localSource.learningRate;
@@ -234,11 +291,6 @@ public class CNNLayers1 extends CNNLayersSecondary {
      * Kernel methods. -----------------------------------------------
      */
 
-    @Override
-    public final List<CNNLayers> getLayers() {
-        return this.layers;
-    }
-
     @Override
     public final void copyFrom(CNNLayers source) {
         assert source != null : "Violation of: source is not null";
@@ -251,6 +303,7 @@ public class CNNLayers1 extends CNNLayersSecondary {
          */
         CNNLayers1 localSource = (CNNLayers1) source;
         this.weights = localSource.weights;
+        this.activation = localSource.activation;
         this.inLength = localSource.inLength;
         this.outLength = localSource.outLength;
         this.learningRate = localSource.learningRate;
@@ -258,204 +311,390 @@ public class CNNLayers1 extends CNNLayersSecondary {
     }
 
     @Override
-    public final double[][] multiplyMatrix(double[][] x, double scalar) {
-        double[][] output = new double[x.length][x[0].length];
-        for (int i = 0; i < x.length; i++) {
-            for (int j = 0; j < x[0].length; j++) {
-                output[i][j] = x[i][j] * scalar;
-            }
-        }
-        return output;
+    public final int inputLength() {
+        return this.inLength;
     }
 
     @Override
-    public final List<double[][]> analyze(String s) {
-        List<double[][]> images = new ArrayList<>();
-        final int rows = 28;
-        final int columns = 28;
-        try (SimpleReader in = new SimpleReader1L(s)) {
-            String line = "";
-            while (!in.atEOS()) {
-                line = in.nextLine();
-                String[] items = line.split(",");
-                this.data = new double[rows][columns];
-                this.label = Integer.parseInt(items[0]);
-                int i = 1;
-                for (int j = 0; j < rows; j++) {
-                    for (int k = 0; k < columns; k++) {
-                        this.data[j][k] = Double.parseDouble(items[i]);
-                        i++;
-                    }
-                }
-                images.add(this.data);
-            }
-        } catch (Exception e) {
-            throw new AssertionError("Violation of: can read from file");
-        }
-        return images;
+    public final int outputLength() {
+        return this.outLength;
     }
 
     @Override
-    public final void addLayer(CNNLayers layer) {
-        this.layers.add(layer);
-        this.setLayers();
+    public final double[] getInputs() {
+        double[] in = new double[this.inLength];
+        if (this.tape.isRecorded()) {
+            in = this.tape.inputs();
+        }
+        return in;
     }
 
     @Override
-    public final CNNLayers getNext() {
-        CNNLayers nextLayer = new CNNLayers1();
-        if (this.next != null) {
-            nextLayer = this.next;
+    public final double[] getOutputs() {
+        double[] out = new double[this.outLength];
+        if (this.tape.isRecorded()) {
+            out = this.tape.sums();
         }
-        return nextLayer;
+        return out;
     }
 
     @Override
-    public final void setNext(CNNLayers nextLayer) {
-        this.next = new CNNLayers1();
-        this.next.copyFrom(nextLayer);
+    public final double[][] getWeights() {
+        double[][] matrix = new double[this.inLength][this.outLength];
+        for (int i = 0; i < this.inLength; i++) {
+            System.arraycopy(this.weights, i * this.outLength, matrix[i], 0,
+                    this.outLength);
+        }
+        return matrix;
     }
 
     @Override
-    public final CNNLayers getPrevious() {
-        CNNLayers previousLayer = new CNNLayers1();
-        if (this.previous != null) {
-            previousLayer = this.previous;
+    public final void setWeightsIn(double[][] weights) {
+        assert weights.length == this.inLength : ""
+                + "Violation of: |weights| = inputLength";
+        for (int i = 0; i < this.inLength; i++) {
+            assert weights[i].length == this.outLength : ""
+                    + "Violation of: |weights[i]| = outputLength";
+            System.arraycopy(weights[i], 0, this.weights, i * this.outLength,
+                    this.outLength);
         }
-        return previousLayer;
     }
 
     @Override
-    public final void setPrevious(CNNLayers previousLayer) {
-        this.previous = new CNNLayers1();
-        this.previous.copyFrom(previousLayer);
+    public final double getLearnRate() {
+        return this.learningRate;
     }
 
     @Override
-    public final double[][] getData() {
-        this.analyze("data/mnist_test.csv");
-        return this.data;
+    public final boolean isValid() {
+        return this.weights != null;
     }
 
     @Override
-    public final int getLabel() {
-        this.analyze("data/mnist_test.csv");
-        return this.label;
-    }
+    public final double[] forwardPass(double[] input) {
+        double[] sums = this.workSums;
+        if (this.isWorkspace()) {
+            Arrays.fill(sums, 0);
+        } else {
+            sums = new double[this.outLength];
+        }
 
-    @Override
-    public final int inputLength() {
-        return this.inLength;
+        this.sparseInputs.set(input, this.inLength);
+        this.sparse = this.sparseInputs.density() < SPARSE_DENSITY;
+        int rows = this.inLength;
+        if (this.sparse) {
+            rows = this.sparseInputs.size();
+        }
+        double[] target = sums;
+        if (ParallelRange.pays(this.outLength, rows, Double.BYTES)) {
+            // each output neuron only reads its own column of the weights
+            ParallelRange.run(this.outLength, rows, Double.BYTES,
+                    (lo, hi) -> this.sums(input, target, lo, hi));
+        } else if (this.sparse) {
+            // zero inputs add nothing, so only visit rows of non-zero inputs
+            for (int k = 0; k < this.sparseInputs.size(); k++) {
+                double x = this.sparseInputs.value(k);
+                int row = this.sparseInputs.index(k) * this.outLength;
+                Simd.OPS.axpy(x, this.weights, row, sums, 0, this.outLength);
+            }
+        } else {
+            Gemm.multiply(1, this.outLength, this.inLength, 1, input,
+                    this.weights, sums);
+        }
+        return this.activate(input, sums, 1);
     }
 
-    @Override
-    public final int outputLength() {
-        return this.outLength;
+    /**
+     * Adds to {@code sums[lo, hi)} the weighted sums of output neurons
+     * {@code [lo, hi)} for {@code input}, visiting only the non-zero inputs.
+     *
+     * @param input
+     *            the input vector, also held in {@code sparseInputs} if the
+     *            pass is sparse
+     * @param sums
+     *            the weighted sums
+     * @param lo
+     *            the first output neuron
+     * @param hi
+     *            one past the last output neuron
+     * @updates sums
+     */
+    private void sums(double[] input, double[] sums, int lo, int hi) {
+        if (this.sparse) {
+            for (int k = 0; k < this.sparseInputs.size(); k++) {
+                double x = this.sparseInputs.value(k);
+                int row = this.sparseInputs.index(k) * this.outLength;
+                Simd.OPS.axpy(x, this.weights, row + lo, sums, lo, hi - lo);
+            }
+        } else {
+            int row = 0;
+            for (int i = 0; i < this.inLength; i++) {
+                if (input[i] != 0) {
+                    Simd.OPS.axpy(input[i], this.weights, row + lo, sums, lo,
+                            hi - lo);
+                }
+                row += this.outLength;
+            }
+        }
     }
 
-    @Override
-    public final double[] getInputs() {
-        double[] in = new double[this.inLength];
-        if (this.inputs != null) {
-            in = this.inputs;
+    /**
+     * Updates the weights of output neurons {@code [lo, hi)} by inputs times
+     * {@code delta}, visiting only the non-zero inputs.
+     *
+     * @param in
+     *            the inputs of the pass on the tape
+     * @param delta
+     *            the loss with respect to each weighted sum
+     * @param lo
+     *            the first output neuron
+     * @param hi
+     *            one past the last output neuron
+     */
+    private void update(double[] in, double[] delta, int lo, int hi) {
+        double rate = -this.learningRate;
+        if (this.sparse) {
+            for (int k = 0; k < this.sparseInputs.size(); k++) {
+                int row = this.sparseInputs.index(k) * this.outLength;
+                Simd.OPS.axpy(rate * this.sparseInputs.value(k), delta, lo,
+                        this.weights, row + lo, hi - lo);
+            }
+        } else {
+            int row = 0;
+            for (int i = 0; i < this.inLength; i++) {
+                if (in[i] != 0) {
+                    Simd.OPS.axpy(rate * in[i], delta, lo, this.weights,
+                            row + lo, hi - lo);
+                }
+                row += this.outLength;
+            }
         }
-        return in;
     }
 
     @Override
-    public final double[] getOutputs() {
-        double[] out = new double[this.outLength];
-        if (this.outputs != null) {
-            out = this.outputs;
+    public final void infer(double[] input, int inOffset, double[] output,
+            int outOffset) {
+        Arrays.fill(output, outOffset, outOffset + this.outLength, 0);
+        int row = 0;
+        for (int i = 0; i < this.inLength; i++) {
+            double x = input[inOffset + i];
+            if (x != 0) {
+                Simd.OPS.axpy(x, this.weights, row, output, outOffset,
+                        this.outLength);
+            }
+            row += this.outLength;
         }
-        return out;
+        this.activation.apply(output, output, outOffset, this.outLength);
     }
 
     @Override
-    public final double[][] getWeights() {
-        return this.weights;
+    public final void inferBatch(double[] input, int batch, double[] output,
+            double[] slopes) {
+        int length = batch * this.outLength;
+        // the sums are gathered in slopes, which the derivative overwrites
+        Arrays.fill(slopes, 0, length, 0);
+        Gemm.multiply(batch, this.outLength, this.inLength, 1, input,
+                this.weights, slopes);
+        for (int b = 0; b < batch; b++) {
+            int offset = b * this.outLength;
+            this.activation.apply(slopes, output, offset, this.outLength);
+            this.activation.derivative(slopes, output, slopes, offset,
+                    this.outLength);
+        }
     }
 
     @Override
-    public final void setWeightsIn(double[][] weights) {
-        this.weights = weights;
+    public final void deltaBatch(double[] output, double[] slopes,
+            double[] loss, int batch) {
+        for (int b = 0; b < batch; b++) {
+            this.activation.backward(output, slopes, loss, slopes,
+                    b * this.outLength, this.outLength);
+        }
     }
 
     @Override
-    public final double getLearnRate() {
-        return this.learningRate;
+    public final void gradientBatch(double[] input, double[] delta, int batch,
+            double[] gradient, double[] loss) {
+        assert gradient.length == this.weights.length : ""
+                + "Violation of: |gradient| = inputLength * outputLength";
+        if (loss.length != 0) {
+            Arrays.fill(loss, 0, batch * this.inLength, 0);
+            Gemm.multiplyNT(batch, this.inLength, this.outLength, 1, delta,
+                    this.weights, loss);
+        }
+        Gemm.multiplyTN(this.inLength, this.outLength, batch, 1, input, delta,
+                gradient);
     }
 
     @Override
-    public final boolean isValid() {
-        return this.weights != null;
+    public final void applyGradient(double[] gradient, int batch) {
+        assert gradient.length == this.weights.length : ""
+                + "Violation of: |gradient| = inputLength * outputLength";
+        Simd.OPS.axpy(-this.learningRate / batch, gradient, 0, this.weights, 0,
+                this.weights.length);
     }
 
     @Override
-    public final double[] toArray(List<double[][]> input) {
-        int length = input.size();
-        int rows = input.get(0).length;
-        int columns = input.get(0)[0].length;
-
-        double[] arr = new double[length * rows * columns];
-
-        int i = 0;
-        for (int j = 0; j < length; j++) {
-            for (int k = 0; k < rows; k++) {
-                for (int l = 0; l < columns; l++) {
-                    arr[i] = input.get(j)[k][l];
-                    i++;
+    public final void applyUpdate(double[] input, double[] delta,
+            double[] loss, boolean opaque) {
+        boolean propagate = loss.length != 0;
+        double rate = -this.learningRate;
+        int row = 0;
+        for (int i = 0; i < this.inLength; i++) {
+            if (propagate) {
+                loss[i] = Simd.OPS.dot(delta, 0, this.weights, row,
+                        this.outLength);
+            }
+            double x = input[i];
+            if (x != 0 && opaque) {
+                for (int j = 0; j < this.outLength; j++) {
+                    double w = (double) WEIGHT.getOpaque(this.weights, row + j);
+                    WEIGHT.setOpaque(this.weights, row + j,
+                            w + rate * x * delta[j]);
                 }
+            } else if (x != 0) {
+                Simd.OPS.axpy(rate * x, delta, 0, this.weights, row,
+                        this.outLength);
             }
+            row += this.outLength;
         }
-        return arr;
     }
 
-    @Override
-    public final List<double[][]> toMatrix(double[] input, int length, int rows,
-            int columns) {
-        assert input.length == rows * columns
-                * length : "Violation of : length out of bounds";
-        List<double[][]> matrices = new ArrayList<>();
-        int i = 0;
-        for (int j = 0; j < length; j++) {
-            double[][] m = new double[rows][columns];
-            for (int k = 0; k < rows; k++) {
-                for (int l = 0; l < columns; l++) {
-                    m[k][l] = input[i];
-                    i++;
-                }
-            }
-            matrices.add(m);
+    /**
+     * Returns the loss with respect to each weighted sum of the step on the
+     * tape, given the loss with respect to each of its outputs.
+     *
+     * @param deriv
+     *            loss with respect to outputs
+     *
+     * @return loss with respect to weighted sums
+     */
+    private double[] delta(double[] deriv) {
+        double[] slopes = this.tape.slopes();
+        double[] delta = this.workDelta;
+        if (!this.isWorkspace() || this.tape.batch() != 1) {
+            delta = new double[slopes.length];
+        }
+        for (int b = 0; b < this.tape.batch(); b++) {
+            this.activation.backward(this.tape.activations(), slopes, deriv,
+                    delta, b * this.outLength, this.outLength);
         }
-        return matrices;
+        return delta;
     }
 
     @Override
-    public final double[] forwardPass(double[] input) {
-        this.inputs = input;
-        double[] out1 = new double[this.outLength];
-        double[] out2 = new double[this.outLength];
+    public final void backPropArray(double[] deriv) {
+        boolean propagate = this.hasPrevious() && this.inLength != 0;
+        double[] prevLayer = this.updateArray(deriv, propagate);
+        if (propagate) {
+            this.getPrevious().backPropArray(prevLayer);
+        }
+    }
 
-        for (int i = 0; i < this.inLength; i++) {
-            for (int j = 0; j < this.outLength; j++) {
-                out1[j] += input[i] * this.weights[i][j];
+    @Override
+    public final double[] updateArray(double[] deriv, boolean propagate) {
+        double[] prevLayer = NO_LOSS;
+        if (propagate && this.isWorkspace()) {
+            prevLayer = this.workLoss;
+            Arrays.fill(prevLayer, 0);
+        } else if (propagate) {
+            prevLayer = new double[this.inLength];
+        }
+        if (this.tape.isRecorded()) {
+            double[] in = this.tape.inputs();
+            double[] delta = this.delta(deriv);
+            double rate = -this.learningRate;
+            int rows = this.inLength;
+            if (this.sparse) {
+                rows = this.sparseInputs.size();
+            }
+            if (ParallelRange.pays(this.outLength, rows, Double.BYTES)) {
+                /*
+                 * The loss with respect to each input is a dot product with
+                 * its row, so it is split by input and taken first, from the
+                 * weights before the update; the update is split by output.
+                 */
+                double[] loss = prevLayer;
+                if (propagate) {
+                    ParallelRange.run(this.inLength, this.outLength,
+                            Double.BYTES, (lo, hi) -> {
+                                for (int i = lo; i < hi; i++) {
+                                    loss[i] = Simd.OPS.dot(delta, 0,
+                                            this.weights, i * this.outLength,
+                                            this.outLength);
+                                }
+                            });
+                }
+                ParallelRange.run(this.outLength, rows, Double.BYTES,
+                        (lo, hi) -> this.update(in, delta, lo, hi));
+            } else if (this.sparse && !propagate) {
+                /*
+                 * Nothing needs the loss with respect to the inputs, and rows
+                 * of zero inputs do not change, so only visit non-zero inputs.
+                 */
+                for (int k = 0; k < this.sparseInputs.size(); k++) {
+                    int row = this.sparseInputs.index(k) * this.outLength;
+                    Simd.OPS.axpy(rate * this.sparseInputs.value(k), delta, 0,
+                            this.weights, row, this.outLength);
+                }
+            } else {
+                /*
+                 * Rank-1 update of the weights by inputs times delta, each row
+                 * first used for the loss with respect to its input.
+                 */
+                int row = 0;
+                for (int i = 0; i < this.inLength; i++) {
+                    if (propagate) {
+                        prevLayer[i] = Simd.OPS.dot(delta, 0, this.weights,
+                                row, this.outLength);
+                    }
+                    if (in[i] != 0) {
+                        Simd.OPS.axpy(rate * in[i], delta, 0, this.weights,
+                                row, this.outLength);
+                    }
+                    row += this.outLength;
+                }
             }
         }
-        this.outputs = out1;
+        return prevLayer;
+    }
 
-        for (int i = 0; i < this.inLength; i++) {
-            for (int j = 0; j < this.outLength; j++) {
-                out2[j] = this.activation(out1[j]);
-            }
+    @Override
+    public final double[] forwardBatch(double[] input, int batch) {
+        assert batch > 0 : "Violation of: batch > 0";
+        assert input.length >= batch * this.inLength : ""
+                + "Violation of: |input| >= batch * inputLength";
+        double[] sums = new double[batch * this.outLength];
+        Gemm.multiply(batch, this.outLength, this.inLength, 1, input,
+                this.weights, sums);
+        return this.activate(input, sums, batch);
+    }
+
+    @Override
+    public final double[] updateBatch(double[] deriv, int batch) {
+        assert this.tape.batch() == batch : ""
+                + "Violation of: batch is the last forward batch";
+        double[] delta = this.delta(deriv);
+        boolean propagate = this.hasPrevious() && this.inLength != 0;
+        double[] prevLayer = new double[0];
+        if (propagate) {
+            prevLayer = new double[batch * this.inLength];
+            // loss with respect to inputs, from the weights before the update
+            Gemm.multiplyNT(batch, this.inLength, this.outLength, 1, delta,
+                    this.weights, prevLayer);
         }
-        return out2;
+        // the gradients of the whole batch are summed into one update
+        Gemm.multiplyTN(this.inLength, this.outLength, batch,
+                -this.learningRate / batch, this.tape.inputs(), delta,
+                this.weights);
+        return prevLayer;
     }
 
     @Override
     public final double sigmoidPrime(double input) {
         final double leak = 0.01;
-        double out = this.activation(input) * (1 - this.activation(input));
+        double sigmoid = 1 / (1 + Math.exp(-input));
+        double out = sigmoid * (1 - sigmoid);
         if (out == 0) {
             out = leak;
         }
@@ -0,0 +1,922 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * {@code CNNLayers} represented as a {@code float[]} with implementations of
+ * primary methods. This is the single-precision counterpart of
+ * {@code CNNLayers1}: weights, inputs, weighted sums and gradients are all
+ * {@code float}, which halves the memory traffic of every pass and doubles
+ * the number of lanes per vector instruction. The kernel contract is still
+ * in {@code double}, so values are converted where they cross it; callers
+ * that stay in single precision, such as inference over a dataset decoded
+ * with {@code LabeledDataset.copyImage(int, float[], int, float)}, use the
+ * {@code float[]} overloads of {@code forwardPass} and {@code guess} and
+ * never convert at all.
+ * <p>
+ * The batch methods {@code inferBatch} and {@code gradientBatch} take
+ * {@code double} inputs and gradients against {@code float} weights, which
+ * {@code Gemm} has no kernel for, so they loop over the inputs one at a time
+ * instead of blocking the batch the way {@code CNNLayers1} does. On batches
+ * this layer is therefore slower than {@code CNNLayers1}; it is meant for
+ * single-input passes.
+ *
+ * @correspondence <pre>
+ * this.is_valid = [$this.weights is valid] and
+ *  this.weights[i][j] = $this.weights[i * $this.outLength + j] and
+ *  this.weights.length = $this.inLength
+ *  this.weights[0].length = $this.outLength and
+ *  if $this.next != null then
+ *    this = $this.next.previous and
+ *  if $this.hasPrevious() then
+ *    this = $this.previous.next
+ * </pre>
+ * @convention {@code
+ * [$this.weights is not null when the CNN is propagating and
+ *  |$this.weights| = $this.inLength * $this.outLength. If $this.next
+ *  exists, this is equal to $this.previous of $this.next. If $this.previous
+ *  exists, this is equal to $this.next of $this.previous]
+ * }
+ *
+ * @author Sepehr Hooshiari
+ *
+ */
+public class CNNLayers2 extends CNNLayersBase {
+
+    /**
+     * Returned by {@code updateArray} when no loss is propagated.
+     */
+    private static final double[] NO_LOSS = {};
+
+    /**
+     * Opaque access to single weights, for updates from several threads.
+     */
+    private static final VarHandle WEIGHT = MethodHandles
+            .arrayElementVarHandle(float[].class);
+
+    /**
+     * The number of inputs to this layer.
+     */
+    private int inLength;
+
+    /**
+     * The array of inputs to this layer.
+     */
+    private float[] inputs;
+
+    /**
+     * The number of non-zero entries of {@code inputs}, which are the only
+     * weight rows the forward pass and the weight update visit.
+     */
+    private int rows;
+
+    /**
+     * The number of outputs from this layer.
+     */
+    private int outLength;
+
+    /**
+     * The array of weighted sums of this layer, before activation.
+     */
+    private float[] outputs;
+
+    /**
+     * The derivative of the activation at each weighted sum in
+     * {@code outputs}, computed by the forward pass.
+     */
+    private float[] slopes;
+
+    /**
+     * The activated sums of the forward pass, which {@code backward} of the
+     * activation reads.
+     */
+    private float[] activations;
+
+    /**
+     * The batch of inputs last passed to {@code forwardBatch}, back to back.
+     */
+    private float[] batchInputs;
+
+    /**
+     * The batch of weighted sums computed by {@code forwardBatch}, back to
+     * back.
+     */
+    private float[] batchOutputs;
+
+    /**
+     * The derivative of the activation at each weighted sum in
+     * {@code batchOutputs}, computed by {@code forwardBatch}.
+     */
+    private float[] batchSlopes;
+
+    /**
+     * The activated sums computed by {@code forwardBatch}.
+     */
+    private float[] batchActivations;
+
+    /**
+     * Work buffer for a single input, in single precision.
+     */
+    private float[] workInput;
+
+    /**
+     * Work buffer for the weighted sums of a single-input pass.
+     */
+    private float[] workSums;
+
+    /**
+     * Work buffer for the activations of a single-input pass.
+     */
+    private float[] workActivations;
+
+    /**
+     * Work buffer for the activation derivatives of a single-input pass.
+     */
+    private float[] workSlopes;
+
+    /**
+     * Work buffer for the loss with respect to each weighted sum.
+     */
+    private float[] workDelta;
+
+    /**
+     * Work buffer for the activations of a single-input pass, in double
+     * precision.
+     */
+    private double[] workOutput;
+
+    /**
+     * Work buffer for the loss with respect to each input.
+     */
+    private double[] workLoss;
+
+    /**
+     * Seed to generate matrix of random weights.
+     */
+    private long seed;
+
+    /**
+     * Rate at which the CNN should learn.
+     */
+    private float learningRate;
+
+    /**
+     * Representation of {@code this}: the weight matrix in row-major order.
+     */
+    private float[] weights;
+
+    /**
+     * Activation function applied to the weighted sums.
+     */
+    private Activation activation;
+
+    /**
+     * Creator of initial representation.
+     */
+    private void createNewRep() {
+        this.inLength = 0;
+        this.outLength = 0;
+        this.seed = 0;
+        this.learningRate = 0;
+        this.weights = new float[0];
+        this.activation = new Sigmoid();
+        this.createNewBase();
+        this.setWeights();
+        this.setBuffers(false);
+    }
+
+    /**
+     * Private methods. -------------------------------------------------------
+     */
+
+    /**
+     * Sets the initial weights with a Gaussian distribution around 0, drawn
+     * in the same order as {@code CNNLayers1} so both start from the same
+     * weights for the same seed.
+     *
+     * @ensures <pre> |this.weights| = this.inLength * this.outLength </pre>
+     */
+    private void setWeights() {
+        Random rand = new Random(this.seed);
+        for (int k = 0; k < this.weights.length; k++) {
+            this.weights[k] = (float) rand.nextGaussian();
+        }
+    }
+
+    /**
+     * Returns {@code x} in single precision.
+     *
+     * @param x
+     *            the array to convert
+     * @param length
+     *            the number of entries to convert
+     *
+     * @return the first {@code length} entries of {@code x} as {@code float}s
+     */
+    private static float[] toFloat(double[] x, int length) {
+        return toFloat(x, new float[length], length);
+    }
+
+    /**
+     * Stores {@code x} in single precision in {@code y} and returns
+     * {@code y}.
+     *
+     * @param x
+     *            the array to convert
+     * @param y
+     *            the array to store into
+     * @param length
+     *            the number of entries to convert
+     * @replaces y
+     *
+     * @return {@code y}
+     */
+    private static float[] toFloat(double[] x, float[] y, int length) {
+        for (int i = 0; i < length; i++) {
+            y[i] = (float) x[i];
+        }
+        return y;
+    }
+
+    /**
+     * Returns {@code x} in double precision.
+     *
+     * @param x
+     *            the array to convert
+     *
+     * @return the entries of {@code x} as {@code double}s
+     */
+    private static double[] toDouble(float[] x) {
+        return toDouble(x, new double[x.length]);
+    }
+
+    /**
+     * Stores {@code x} in double precision in {@code y} and returns
+     * {@code y}.
+     *
+     * @param x
+     *            the array to convert
+     * @param y
+     *            the array to store into
+     * @replaces y
+     *
+     * @return {@code y}
+     */
+    private static double[] toDouble(float[] x, double[] y) {
+        for (int i = 0; i < x.length; i++) {
+            y[i] = x[i];
+        }
+        return y;
+    }
+
+    @Override
+    protected final void setBuffers(boolean enabled) {
+        int in = 0;
+        int out = 0;
+        if (enabled) {
+            in = this.inLength;
+            out = this.outLength;
+        }
+        this.workInput = new float[in];
+        this.workSums = new float[out];
+        this.workActivations = new float[out];
+        this.workSlopes = new float[out];
+        this.workDelta = new float[out];
+        this.workOutput = new double[out];
+        this.workLoss = new double[in];
+    }
+
+    /**
+     * Constructors. -----------------------------------------------------------
+     */
+
+    /**
+     * No-argument constructor for {@code this}.
+     */
+    public CNNLayers2() {
+        this.createNewRep();
+    }
+
+    /**
+     * Constructor for {@code this}.
+     *
+     * @param inLength
+     *            the length of inputs to the layer
+     * @param outLength
+     *            the length of the layer's outputs
+     * @param seed
+     *            seed to generate initially random weights
+     * @param learningRate
+     *            the rate at which the CNN learns
+     */
+    public CNNLayers2(int inLength, int outLength, long seed,
+            double learningRate) {
+        this(inLength, outLength, seed, learningRate, new Sigmoid());
+    }
+
+    /**
+     * Constructor for {@code this} with the given activation function.
+     *
+     * @param inLength
+     *            the length of inputs to the layer
+     * @param outLength
+     *            the length of the layer's outputs
+     * @param seed
+     *            seed to generate initially random weights
+     * @param learningRate
+     *            the rate at which the CNN learns
+     * @param activation
+     *            the activation function of the layer
+     */
+    public CNNLayers2(int inLength, int outLength, long seed,
+            double learningRate, Activation activation) {
+        this.inLength = inLength;
+        this.outLength = outLength;
+        this.seed = seed;
+        this.learningRate = (float) learningRate;
+        this.weights = new float[inLength * outLength];
+        this.activation = activation;
+        this.createNewBase();
+        this.setWeights();
+        this.setBuffers(false);
+    }
+
+    /**
+     * Standard methods. -------------------------------------------------------
+     */
+
+    @Override
+    public final void clear() {
+        this.createNewRep();
+    }
+
+    @Override
+    public final void transferFrom(CNNLayers source) {
+        assert source != null : "Violation of: source is not null";
+        assert source != this : "Violation of: source is not this";
+        assert source instanceof CNNLayers2 : ""
+                + "Violation of: source is of dynamic type CNNLayers2";
+        /*
+         * This cast cannot fail since the assert above would have stopped
+         * execution in that case.
+         */
+        CNNLayers2 localSource = (CNNLayers2) source;
+        this.weights = localSource.weights;
+        this.activation = localSource.activation;
+        this.inLength = localSource.inLength;
+        this.outLength = localSource.outLength;
+        this.learningRate = localSource.learningRate;
+        this.seed = localSource.seed;
+        localSource.createNewRep();
+    }
+
+    /**
+     * Kernel methods. -----------------------------------------------
+     */
+
+    @Override
+    public final void copyFrom(CNNLayers source) {
+        assert source != null : "Violation of: source is not null";
+        assert source != this : "Violation of: source is not this";
+        assert source instanceof CNNLayers2 : ""
+                + "Violation of: source is of dynamic type CNNLayers2";
+        /*
+         * This cast cannot fail since the assert above would have stopped
+         * execution in that case.
+         */
+        CNNLayers2 localSource = (CNNLayers2) source;
+        this.weights = localSource.weights;
+        this.activation = localSource.activation;
+        this.inLength = localSource.inLength;
+        this.outLength = localSource.outLength;
+        this.learningRate = localSource.learningRate;
+        this.seed = localSource.seed;
+    }
+
+    @Override
+    public final int inputLength() {
+        return this.inLength;
+    }
+
+    @Override
+    public final int outputLength() {
+        return this.outLength;
+    }
+
+    @Override
+    public final double[] getInputs() {
+        double[] in = new double[this.inLength];
+        if (this.inputs != null) {
+            in = toDouble(this.inputs);
+        }
+        return in;
+    }
+
+    @Override
+    public final double[] getOutputs() {
+        double[] out = new double[this.outLength];
+        if (this.outputs != null) {
+            out = toDouble(this.outputs);
+        }
+        return out;
+    }
+
+    @Override
+    public final double[][] getWeights() {
+        double[][] matrix = new double[this.inLength][this.outLength];
+        for (int i = 0; i < this.inLength; i++) {
+            for (int j = 0; j < this.outLength; j++) {
+                matrix[i][j] = this.weights[i * this.outLength + j];
+            }
+        }
+        return matrix;
+    }
+
+    @Override
+    public final void setWeightsIn(double[][] weights) {
+        assert weights.length == this.inLength : ""
+                + "Violation of: |weights| = inputLength";
+        for (int i = 0; i < this.inLength; i++) {
+            assert weights[i].length == this.outLength : ""
+                    + "Violation of: |weights[i]| = outputLength";
+            for (int j = 0; j < this.outLength; j++) {
+                this.weights[i * this.outLength + j] = (float) weights[i][j];
+            }
+        }
+    }
+
+    @Override
+    public final double getLearnRate() {
+        return this.learningRate;
+    }
+
+    @Override
+    public final boolean isValid() {
+        return this.weights != null;
+    }
+
+    /**
+     * Multiplies each input in the fully connected layer by its corresponding
+     * weight and returns the array of activated outputs, entirely in single
+     * precision.
+     *
+     * @param input
+     *            the input vector
+     *
+     * @requires <pre> |input| >= this.inputLength() </pre>
+     *
+     * @ensures <pre> input = #input </pre>
+     *
+     * @return the activated output vector
+     */
+    public final float[] forwardPass(float[] input) {
+        this.inputs = input;
+        float[] sums = this.workSums;
+        if (this.isWorkspace()) {
+            Arrays.fill(sums, 0);
+        } else {
+            sums = new float[this.outLength];
+        }
+        this.rows = 0;
+        for (int i = 0; i < this.inLength; i++) {
+            if (input[i] != 0) {
+                this.rows++;
+            }
+        }
+        if (ParallelRange.pays(this.outLength, this.rows, Float.BYTES)) {
+            float[] target = sums;
+            // each output neuron only reads its own column of the weights
+            ParallelRange.run(this.outLength, this.rows, Float.BYTES,
+                    (lo, hi) -> this.addSums(input, target, lo, hi));
+        } else {
+            this.addSums(input, sums, 0, this.outLength);
+        }
+        this.outputs = sums;
+        this.slopes = this.workSlopes;
+        if (!this.isWorkspace()) {
+            this.slopes = new float[this.outLength];
+        }
+        this.activations = this.activate(sums, this.slopes, 1);
+        return this.activations;
+    }
+
+    /**
+     * Adds to {@code sums[lo, hi)} the weighted sums of output neurons
+     * {@code [lo, hi)} for {@code input}, visiting only the non-zero inputs.
+     *
+     * @param input
+     *            the input vector
+     * @param sums
+     *            the weighted sums
+     * @param lo
+     *            the first output neuron
+     * @param hi
+     *            one past the last output neuron
+     * @updates sums
+     */
+    private void addSums(float[] input, float[] sums, int lo, int hi) {
+        int row = 0;
+        for (int i = 0; i < this.inLength; i++) {
+            float x = input[i];
+            if (x != 0) {
+                Simd.OPS.axpy(x, this.weights, row + lo, sums, lo, hi - lo);
+            }
+            row += this.outLength;
+        }
+    }
+
+    /**
+     * Updates the weights of output neurons {@code [lo, hi)} by inputs times
+     * {@code delta}, visiting only the non-zero inputs.
+     *
+     * @param in
+     *            the inputs of the last forward pass
+     * @param delta
+     *            the loss with respect to each weighted sum
+     * @param lo
+     *            the first output neuron
+     * @param hi
+     *            one past the last output neuron
+     */
+    private void update(float[] in, float[] delta, int lo, int hi) {
+        int row = 0;
+        for (int i = 0; i < this.inLength; i++) {
+            if (in[i] != 0) {
+                Simd.OPS.axpy(-in[i] * this.learningRate, delta, lo,
+                        this.weights, row + lo, hi - lo);
+            }
+            row += this.outLength;
+        }
+    }
+
+    @Override
+    public final double[] forwardPass(double[] input) {
+        double[] out;
+        if (this.isWorkspace()) {
+            float[] in = toFloat(input, this.workInput, this.inLength);
+            out = toDouble(this.forwardPass(in), this.workOutput);
+        } else {
+            out = toDouble(this.forwardPass(toFloat(input, this.inLength)));
+        }
+        return out;
+    }
+
+    /**
+     * Stores the weighted sums for {@code input[inOffset, inOffset +
+     * inLength)} in {@code output[outOffset, outOffset + outLength)}, summed
+     * in double precision from the single-precision weights.
+     *
+     * @param input
+     *            the array holding the input vector
+     * @param inOffset
+     *            where the input vector starts
+     * @param output
+     *            the array to store the sums in
+     * @param outOffset
+     *            where the sums start
+     */
+    private void sums(double[] input, int inOffset, double[] output,
+            int outOffset) {
+        Arrays.fill(output, outOffset, outOffset + this.outLength, 0);
+        int row = 0;
+        for (int i = 0; i < this.inLength; i++) {
+            double x = input[inOffset + i];
+            if (x != 0) {
+                for (int j = 0; j < this.outLength; j++) {
+                    output[outOffset + j] += x * this.weights[row + j];
+                }
+            }
+            row += this.outLength;
+        }
+    }
+
+    @Override
+    public final void infer(double[] input, int inOffset, double[] output,
+            int outOffset) {
+        this.sums(input, inOffset, output, outOffset);
+        this.activation.apply(output, output, outOffset, this.outLength);
+    }
+
+    @Override
+    public final void inferBatch(double[] input, int batch, double[] output,
+            double[] slopes) {
+        for (int b = 0; b < batch; b++) {
+            int offset = b * this.outLength;
+            // the sums are gathered in slopes, which the derivative overwrites
+            this.sums(input, b * this.inLength, slopes, offset);
+            this.activation.apply(slopes, output, offset, this.outLength);
+            this.activation.derivative(slopes, output, slopes, offset,
+                    this.outLength);
+        }
+    }
+
+    @Override
+    public final void deltaBatch(double[] output, double[] slopes,
+            double[] loss, int batch) {
+        for (int b = 0; b < batch; b++) {
+            this.activation.backward(output, slopes, loss, slopes,
+                    b * this.outLength, this.outLength);
+        }
+    }
+
+    @Override
+    public final void gradientBatch(double[] input, double[] delta, int batch,
+            double[] gradient, double[] loss) {
+        assert gradient.length == this.weights.length : ""
+                + "Violation of: |gradient| = inputLength * outputLength";
+        boolean propagate = loss.length != 0;
+        for (int b = 0; b < batch; b++) {
+            int x = b * this.inLength;
+            int d = b * this.outLength;
+            int row = 0;
+            for (int i = 0; i < this.inLength; i++) {
+                double sum = 0;
+                double in = input[x + i];
+                for (int j = 0; j < this.outLength; j++) {
+                    sum += delta[d + j] * this.weights[row + j];
+                    gradient[row + j] += in * delta[d + j];
+                }
+                if (propagate) {
+                    loss[x + i] = sum;
+                }
+                row += this.outLength;
+            }
+        }
+    }
+
+    @Override
+    public final void applyUpdate(double[] input, double[] delta,
+            double[] loss, boolean opaque) {
+        boolean propagate = loss.length != 0;
+        double rate = -this.learningRate;
+        int row = 0;
+        for (int i = 0; i < this.inLength; i++) {
+            double sum = 0;
+            double x = input[i];
+            // rows of zero inputs are only visited for the loss
+            for (int j = 0; (propagate || x != 0) && j < this.outLength; j++) {
+                float w = this.weights[row + j];
+                if (opaque) {
+                    w = (float) WEIGHT.getOpaque(this.weights, row + j);
+                }
+                sum += delta[j] * w;
+                if (x != 0 && opaque) {
+                    WEIGHT.setOpaque(this.weights, row + j,
+                            (float) (w + rate * x * delta[j]));
+                } else if (x != 0) {
+                    this.weights[row + j] = (float) (w + rate * x * delta[j]);
+                }
+            }
+            if (propagate) {
+                loss[i] = sum;
+            }
+            row += this.outLength;
+        }
+    }
+
+    @Override
+    public final void applyGradient(double[] gradient, int batch) {
+        assert gradient.length == this.weights.length : ""
+                + "Violation of: |gradient| = inputLength * outputLength";
+        double step = this.learningRate / batch;
+        for (int k = 0; k < this.weights.length; k++) {
+            this.weights[k] -= (float) (step * gradient[k]);
+        }
+    }
+
+    /**
+     * Returns the activations of {@code batch} runs of weighted sums and
+     * stores the derivative of the activation at each sum in {@code slopes}.
+     *
+     * @param sums
+     *            the weighted sums, back to back
+     * @param slopes
+     *            the derivatives of the activation
+     * @param batch
+     *            the number of runs
+     * @replaces slopes
+     *
+     * @return the activated sums
+     */
+    private float[] activate(float[] sums, float[] slopes, int batch) {
+        float[] out = this.workActivations;
+        if (!this.isWorkspace() || batch != 1) {
+            out = new float[batch * this.outLength];
+        }
+        for (int b = 0; b < batch; b++) {
+            int offset = b * this.outLength;
+            this.activation.apply(sums, out, offset, this.outLength);
+            this.activation.derivative(sums, out, slopes, offset,
+                    this.outLength);
+        }
+        return out;
+    }
+
+    /**
+     * Returns the loss with respect to each weighted sum of the last pass,
+     * given the loss with respect to each output.
+     *
+     * @param deriv
+     *            loss with respect to outputs
+     * @param activated
+     *            the activated sums of the pass
+     * @param slopes
+     *            the derivatives of the activation recorded by the pass
+     * @param buffer
+     *            where to store the losses, or null to allocate them
+     *
+     * @return loss with respect to weighted sums
+     */
+    private float[] delta(double[] deriv, float[] activated, float[] slopes,
+            float[] buffer) {
+        float[] delta = buffer;
+        if (delta == null) {
+            delta = new float[slopes.length];
+        }
+        for (int k = 0; k < delta.length; k++) {
+            delta[k] = (float) deriv[k];
+        }
+        for (int offset = 0; offset < delta.length; offset += this.outLength) {
+            this.activation.backward(activated, slopes, delta, delta, offset,
+                    this.outLength);
+        }
+        return delta;
+    }
+
+    @Override
+    public final void backPropArray(double[] deriv) {
+        boolean propagate = this.hasPrevious() && this.inLength != 0;
+        double[] prevLayer = this.updateArray(deriv, propagate);
+        if (propagate) {
+            this.getPrevious().backPropArray(prevLayer);
+        }
+    }
+
+    @Override
+    public final double[] updateArray(double[] deriv, boolean propagate) {
+        float[] in = this.inputs;
+        float[] slopes = this.slopes;
+        float[] activated = this.activations;
+        int nonZero = this.rows;
+        if (in == null) {
+            in = new float[this.inLength];
+            slopes = new float[this.outLength];
+            activated = new float[this.outLength];
+            nonZero = 0;
+        }
+        float[] delta;
+        double[] prevLayer = NO_LOSS;
+        if (this.isWorkspace()) {
+            delta = this.delta(deriv, activated, slopes, this.workDelta);
+            if (propagate) {
+                prevLayer = this.workLoss;
+            }
+        } else {
+            delta = this.delta(deriv, activated, slopes, null);
+            if (propagate) {
+                prevLayer = new double[this.inLength];
+            }
+        }
+        if (ParallelRange.pays(this.outLength, nonZero, Float.BYTES)) {
+            /*
+             * The loss with respect to each input is a dot product with its
+             * row, so it is split by input and taken first, from the weights
+             * before the update; the update is split by output.
+             */
+            double[] loss = prevLayer;
+            float[] inputs = in;
+            if (propagate) {
+                ParallelRange.run(this.inLength, this.outLength, Double.BYTES,
+                        (lo, hi) -> {
+                            for (int i = lo; i < hi; i++) {
+                                loss[i] = Simd.OPS.dot(delta, 0, this.weights,
+                                        i * this.outLength, this.outLength);
+                            }
+                        });
+            }
+            ParallelRange.run(this.outLength, nonZero, Float.BYTES,
+                    (lo, hi) -> this.update(inputs, delta, lo, hi));
+        } else {
+            int row = 0;
+            for (int i = 0; i < this.inLength; i++) {
+                if (propagate) {
+                    prevLayer[i] = Simd.OPS.dot(delta, 0, this.weights, row,
+                            this.outLength);
+                }
+                if (in[i] != 0) {
+                    Simd.OPS.axpy(-in[i] * this.learningRate, delta, 0,
+                            this.weights, row, this.outLength);
+                }
+                row += this.outLength;
+            }
+        }
+        return prevLayer;
+    }
+
+    @Override
+    public final double[] forwardBatch(double[] input, int batch) {
+        assert batch > 0 : "Violation of: batch > 0";
+        assert input.length >= batch * this.inLength : ""
+                + "Violation of: |input| >= batch * inputLength";
+        float[] in = toFloat(input, batch * this.inLength);
+        float[] sums = new float[batch * this.outLength];
+        /*
+         * Each weight row is read once and applied to every input of the
+         * batch while it is still in cache.
+         */
+        int row = 0;
+        for (int i = 0; i < this.inLength; i++) {
+            for (int b = 0; b < batch; b++) {
+                float x = in[b * this.inLength + i];
+                if (x != 0) {
+                    Simd.OPS.axpy(x, this.weights, row, sums,
+                            b * this.outLength, this.outLength);
+                }
+            }
+            row += this.outLength;
+        }
+        this.batchInputs = in;
+        this.batchOutputs = sums;
+        this.batchSlopes = new float[sums.length];
+        this.batchActivations = this.activate(sums, this.batchSlopes, batch);
+        return toDouble(this.batchActivations);
+    }
+
+    @Override
+    public final double[] updateBatch(double[] deriv, int batch) {
+        assert this.batchOutputs != null
+                && this.batchOutputs.length == batch * this.outLength : ""
+                        + "Violation of: batch is the last forward batch";
+        float[] delta = this.delta(deriv, this.batchActivations,
+                this.batchSlopes, null);
+        boolean propagate = this.hasPrevious() && this.inLength != 0;
+        double[] prevLayer = new double[0];
+        if (propagate) {
+            prevLayer = new double[batch * this.inLength];
+        }
+        float step = this.learningRate / batch;
+        int row = 0;
+        for (int i = 0; i < this.inLength; i++) {
+            for (int b = 0; b < batch; b++) {
+                int d = b * this.outLength;
+                if (propagate) {
+                    // from the weights before the update
+                    prevLayer[b * this.inLength + i] = Simd.OPS.dot(delta, d,
+                            this.weights, row, this.outLength);
+                }
+            }
+            for (int b = 0; b < batch; b++) {
+                float x = this.batchInputs[b * this.inLength + i];
+                if (x != 0) {
+                    Simd.OPS.axpy(-x * step, delta, b * this.outLength,
+                            this.weights, row, this.outLength);
+                }
+            }
+            row += this.outLength;
+        }
+        return prevLayer;
+    }
+
+    @Override
+    public final double sigmoidPrime(double input) {
+        final double leak = 0.01;
+        double sigmoid = 1 / (1 + Math.exp(-input));
+        double out = sigmoid * (1 - sigmoid);
+        if (out == 0) {
+            out = leak;
+        }
+        return out;
+    }
+
+    /**
+     * Function for the CNN to guess what an image depicts from its already
+     * scaled, flattened pixels, entirely in single precision. Layers are
+     * followed through {@code getNext} while they are {@code CNNLayers2}.
+     *
+     * @param input
+     *            the scaled pixels of the image in row-major order
+     *
+     * @ensures <pre> input = #input </pre>
+     *
+     * @return the guess of the image's label
+     */
+    public final int guess(float[] input) {
+        int max = 0;
+        if (this.getLayers().size() > 0) {
+            CNNLayers layer = this.getLayers().get(0);
+            float[] pass = input;
+            while (layer instanceof CNNLayers2 && layer.inputLength() != 0) {
+                pass = ((CNNLayers2) layer).forwardPass(pass);
+                layer = layer.getNext();
+            }
+            for (int k = 1; k < pass.length; k++) {
+                if (pass[k] > pass[max]) {
+                    max = k;
+                }
+            }
+        }
+        return max;
+    }
+
+}
@@ -0,0 +1,385 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The parts of a {@code CNNLayers} implementation that do not depend on the
+ * precision of its weights: the analyzed dataset, the list of layers added
+ * with {@code addLayer}, the links to the next and previous layers, and
+ * workspace mode. {@code CNNLayers1} and {@code CNNLayers2} extend it with
+ * their weights and the passes over them.
+ *
+ * @author Sepehr Hooshiari
+ *
+ */
+public abstract class CNNLayersBase extends CNNLayersSecondary {
+
+    /**
+     * File loaded when data is requested before anything has been analyzed.
+     */
+    private static final String DEFAULT_DATA = "data/mnist_test.csv";
+
+    /**
+     * Name suffix of an MNIST IDX images file (e.g.
+     * {@code train-images-idx3-ubyte}), which {@code analyze} maps instead of
+     * parsing.
+     */
+    private static final String IDX_IMAGES = "images-idx3-ubyte";
+
+    /**
+     * Name suffix of the IDX labels file that goes with an images file.
+     */
+    private static final String IDX_LABELS = "labels-idx1-ubyte";
+
+    /**
+     * Number of rows in each analyzed image.
+     */
+    private static final int ROWS = 28;
+
+    /**
+     * Number of columns in each analyzed image.
+     */
+    private static final int COLUMNS = 28;
+
+    /**
+     * Keeps track of next layer.
+     */
+    private CNNLayers next;
+
+    /**
+     * Keeps track of previous layer.
+     */
+    private CNNLayers previous;
+
+    /**
+     * Input data corresponding to an image.
+     */
+    private double[][] data;
+
+    /**
+     * Label of the input data which indicates what number the image represents.
+     */
+    private int label;
+
+    /**
+     * Every labeled image read by the most recent call to {@code analyze}.
+     */
+    private LabeledDataset dataset;
+
+    /**
+     * The number of layers in the CNN.
+     */
+    private List<CNNLayers> layers;
+
+    /**
+     * Whether single-input passes reuse preallocated work buffers.
+     */
+    private boolean workspace;
+
+    /**
+     * Empty layer that stands in for a missing next or previous layer in
+     * workspace mode, constructed on first use.
+     */
+    private CNNLayers none;
+
+    /**
+     * The {@code layers} compiled for {@code guess}, or null until the next
+     * guess after they change.
+     */
+    private NetworkPlan plan;
+
+    /**
+     * Outputs of the last guess through {@code plan}.
+     */
+    private double[] planOutput;
+
+    /**
+     * Intermediate activations of the last guess through {@code plan}.
+     */
+    private double[] planArena;
+
+    /**
+     * Creator of the initial representation of the precision-independent
+     * parts: no layers, and not in workspace mode. Called by the
+     * {@code createNewRep} of each subclass.
+     */
+    protected final void createNewBase() {
+        this.layers = new ArrayList<>();
+        this.workspace = false;
+        this.none = null;
+        this.plan = null;
+    }
+
+    /**
+     * Sizes the work buffers for single-input passes, or releases them.
+     *
+     * @param enabled
+     *            whether {@code this} is in workspace mode
+     */
+    protected abstract void setBuffers(boolean enabled);
+
+    /**
+     * Returns whether {@code this} is in workspace mode.
+     *
+     * @return whether single-input passes reuse the work buffers
+     */
+    protected final boolean isWorkspace() {
+        return this.workspace;
+    }
+
+    /**
+     * Returns whether a previous layer has been set.
+     *
+     * @return whether {@code setPrevious} has been called
+     */
+    protected final boolean hasPrevious() {
+        return this.previous != null;
+    }
+
+    /**
+     * Returns an empty layer to stand in for a missing neighbour: the cached
+     * one in workspace mode, otherwise a new one.
+     *
+     * @return an empty layer
+     */
+    private CNNLayers none() {
+        CNNLayers empty;
+        if (this.workspace) {
+            if (this.none == null) {
+                this.none = this.newInstance();
+                this.none.setWorkspace(true);
+            }
+            empty = this.none;
+        } else {
+            empty = this.newInstance();
+        }
+        return empty;
+    }
+
+    /**
+     * Keeps {@code store} as the dataset of {@code this}, with its last image
+     * as the data and label, and returns a view of its images that decodes
+     * each one only when it is read.
+     *
+     * @param store
+     *            the newly read dataset
+     *
+     * @return the {@code List} of images in {@code store}
+     */
+    private List<double[][]> keep(LabeledDataset store) {
+        this.dataset = store;
+        int size = store.size();
+        if (size > 0) {
+            // data and label describe the last image, as they always have
+            this.data = store.image(size - 1);
+            this.label = store.label(size - 1);
+        }
+        return new DatasetImages(store);
+    }
+
+    /**
+     * Sets each layer of the CNN with links to previous and next layers.
+     */
+    private void setLayers() {
+        if (this.layers.size() > 1) {
+            for (int i = 0; i < this.layers.size(); i++) {
+                if (i == 0) {
+                    this.layers.get(i).setNext(this.layers.get(i + 1));
+                } else if (i == this.layers.size() - 1) {
+                    this.layers.get(i).setPrevious(this.layers.get(i - 1));
+                } else {
+                    this.layers.get(i).setNext(this.layers.get(i + 1));
+                    this.layers.get(i).setPrevious(this.layers.get(i - 1));
+                }
+            }
+        }
+    }
+
+    /**
+     * Standard methods. -------------------------------------------------------
+     */
+
+    @Override
+    public final CNNLayers newInstance() {
+        try {
+            return this.getClass().getConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(
+                    "Cannot construct object of type " + this.getClass());
+        }
+    }
+
+    /**
+     * Kernel methods. -----------------------------------------------
+     */
+
+    @Override
+    public final List<CNNLayers> getLayers() {
+        return this.layers;
+    }
+
+    @Override
+    public final double[][] multiplyMatrix(double[][] x, double scalar) {
+        double[][] output = new double[x.length][x[0].length];
+        for (int i = 0; i < x.length; i++) {
+            Simd.OPS.scale(scalar, x[i], 0, output[i], 0, x[0].length);
+        }
+        return output;
+    }
+
+    @Override
+    public final List<double[][]> analyze(String s) {
+        LabeledDataset store;
+        if (s.endsWith(IDX_IMAGES)) {
+            String prefix = s.substring(0, s.length() - IDX_IMAGES.length());
+            store = new LabeledDataset2(s, prefix + IDX_LABELS);
+        } else if (s.endsWith(LabeledDataset4.SUFFIX)) {
+            store = LabeledDataset4.map(s);
+        } else {
+            store = DatasetCache.load(s, ROWS, COLUMNS);
+        }
+        return this.keep(store);
+    }
+
+    @Override
+    public final List<double[][]> analyze(List<String> shards) {
+        return this.keep(ParallelCsvReader.read(shards, ROWS, COLUMNS));
+    }
+
+    @Override
+    public final void addLayer(CNNLayers layer) {
+        this.layers.add(layer);
+        this.setLayers();
+        this.plan = null;
+    }
+
+    @Override
+    public final CNNLayers getNext() {
+        CNNLayers nextLayer = this.none();
+        if (this.next != null) {
+            nextLayer = this.next;
+        }
+        return nextLayer;
+    }
+
+    @Override
+    public final void setNext(CNNLayers nextLayer) {
+        this.next = this.newInstance();
+        this.next.copyFrom(nextLayer);
+    }
+
+    @Override
+    public final CNNLayers getPrevious() {
+        CNNLayers previousLayer = this.none();
+        if (this.previous != null) {
+            previousLayer = this.previous;
+        }
+        return previousLayer;
+    }
+
+    @Override
+    public final void setPrevious(CNNLayers previousLayer) {
+        this.previous = this.newInstance();
+        this.previous.copyFrom(previousLayer);
+    }
+
+    @Override
+    public final double[][] getData() {
+        this.getDataset();
+        return this.data;
+    }
+
+    @Override
+    public final int getLabel() {
+        this.getDataset();
+        return this.label;
+    }
+
+    @Override
+    public final LabeledDataset getDataset() {
+        if (this.dataset == null) {
+            this.analyze(DEFAULT_DATA);
+        }
+        return this.dataset;
+    }
+
+    @Override
+    public final double[] toArray(List<double[][]> input) {
+        int length = input.size();
+        int rows = input.get(0).length;
+        int columns = input.get(0)[0].length;
+
+        double[] arr = new double[length * rows * columns];
+
+        if (input instanceof DatasetImages) {
+            // a view decodes on every get, so copy straight from its dataset
+            DatasetImages images = (DatasetImages) input;
+            for (int j = 0; j < length; j++) {
+                images.copyImage(j, arr, j * rows * columns);
+            }
+        } else {
+            int i = 0;
+            for (int j = 0; j < length; j++) {
+                double[][] m = input.get(j);
+                for (int k = 0; k < rows; k++) {
+                    for (int l = 0; l < columns; l++) {
+                        arr[i] = m[k][l];
+                        i++;
+                    }
+                }
+            }
+        }
+        return arr;
+    }
+
+    @Override
+    public final List<double[][]> toMatrix(double[] input, int length, int rows,
+            int columns) {
+        assert input.length == rows * columns
+                * length : "Violation of : length out of bounds";
+        List<double[][]> matrices = new ArrayList<>();
+        int i = 0;
+        for (int j = 0; j < length; j++) {
+            double[][] m = new double[rows][columns];
+            for (int k = 0; k < rows; k++) {
+                for (int l = 0; l < columns; l++) {
+                    m[k][l] = input[i];
+                    i++;
+                }
+            }
+            matrices.add(m);
+        }
+        return matrices;
+    }
+
+    @Override
+    public final int guess(double[] input) {
+        int index = 0;
+        if (this.layers.size() > 0) {
+            /*
+             * The plan, its outputs and its arena are built on the first
+             * guess after addLayer and reused by every guess until the next
+             */
+            if (this.plan == null) {
+                this.plan = NetworkPlan.compile(this);
+                this.planOutput = new double[this.plan.outputLength()];
+                this.planArena = new double[this.plan.arenaLength()];
+            }
+            index = this.plan.guess(input, this.planOutput, this.planArena);
+        }
+        return index;
+    }
+
+    @Override
+    public final void setWorkspace(boolean enabled) {
+        this.workspace = enabled;
+        this.none = null;
+        this.setBuffers(enabled);
+        if (this.next != null) {
+            this.next.setWorkspace(enabled);
+        }
+        if (this.previous != null) {
+            this.previous.setWorkspace(enabled);
+        }
+    }
+
+}
@@ -75,6 +75,14 @@ public interface CNNLayersKernel extends Standard<CNNLayers> {
      */
     int getLabel();
 
+    /**
+     * Returns the dataset most recently stored by {@code analyze}, loading the
+     * test data first if nothing has been analyzed yet.
+     *
+     * @return the labeled dataset
+     */
+    LabeledDataset getDataset();
+
     /**
      * Returns the {@code List} of layers that the CNN should have.
      *
@@ -106,15 +114,43 @@ public interface CNNLayersKernel extends Standard<CNNLayers> {
 
     /**
      * Stores the data from the given file into the data of {@code this} and the
-     * data's corresponding label is stored as well.
+     * data's corresponding label is stored as well. The whole file is kept as
+     * the dataset of {@code this}, so it is only parsed once. A name ending in
+     * {@code images-idx3-ubyte} is read as an MNIST IDX images file, paired
+     * with the {@code labels-idx1-ubyte} file beside it, and is memory-mapped
+     * instead of parsed. A name ending in {@code .sparse} is read as a dataset
+     * compressed by {@code LabeledDataset4} and is memory-mapped as well. Any
+     * other file is parsed as CSV on every available
+     * core the first time it is seen and then cached in a binary sidecar
+     * beside it, which later calls map until the CSV file changes. The images
+     * are returned as a read-only view that decodes each one when it is read,
+     * so a mapped file is never copied onto the heap as a whole.
      *
      * @param s
      *            the name of the input file
      *
      * @return the {@code List} of translated images
+     *
+     * @ensures <pre> analyze cannot be modified, and each get of analyze
+     * returns a new copy of the image </pre>
      */
     List<double[][]> analyze(String s);
 
+    /**
+     * Stores the data from the given CSV shards, read concurrently and kept in
+     * the order given, into the data of {@code this} as {@code analyze(String)}
+     * does for a single file.
+     *
+     * @param shards
+     *            the names of the input files
+     *
+     * @return the {@code List} of translated images
+     *
+     * @ensures <pre> analyze cannot be modified, and each get of analyze
+     * returns a new copy of the image </pre>
+     */
+    List<double[][]> analyze(List<String> shards);
+
     /**
      * Adds the input {@code layer} to {@code this}.
      *
@@ -154,15 +190,16 @@ public interface CNNLayersKernel extends Standard<CNNLayers> {
     double[] getOutputs();
 
     /**
-     * Returns the matrix of weights which correspond to the inputs of this
-     * layer.
+     * Returns a copy of the matrix of weights which correspond to the inputs
+     * of this layer. Changing the copy does not change {@code this}.
      *
      * @return matrix of weights
      */
     double[][] getWeights();
 
     /**
-     * Updates the weights of {@code this} manually.
+     * Updates the weights of {@code this} manually by copying in
+     * {@code weights}.
      *
      * @ensures <pre> this.weights.length = this.inLength and
      * this.weights[0].length = this.outLength </pre>
@@ -236,6 +273,243 @@ public interface CNNLayersKernel extends Standard<CNNLayers> {
      */
     double[] forwardPass(double[] input);
 
+    /**
+     * Stores the activated outputs of the fully connected layer for
+     * {@code input[inOffset, inOffset + inputLength())} in
+     * {@code output[outOffset, outOffset + outputLength())}. Nothing is kept
+     * for back propagation and {@code this} is not changed, so inference may
+     * run on several threads at once.
+     *
+     * @param input
+     *            the array holding the input vector
+     * @param inOffset
+     *            where the input vector starts
+     * @param output
+     *            the array to store the outputs in
+     * @param outOffset
+     *            where the outputs start
+     *
+     * @requires <pre> inOffset + inputLength() <= |input| and
+     * outOffset + outputLength() <= |output| and the two runs do not overlap
+     * </pre>
+     *
+     * @ensures <pre> input = #input </pre>
+     */
+    void infer(double[] input, int inOffset, double[] output, int outOffset);
+
+    /**
+     * Stores the activated outputs of the fully connected layer for a batch of
+     * {@code batch} inputs in {@code output}, and the derivative of the
+     * activation at each weighted sum in {@code slopes}. Inputs and outputs
+     * are stored back to back, as for {@code forwardBatch}. Nothing is kept
+     * for back propagation and {@code this} is not changed, so several
+     * threads may each pass their own batch at once.
+     *
+     * @param input
+     *            the batch of input vectors
+     * @param batch
+     *            the number of inputs in the batch
+     * @param output
+     *            the array to store the outputs in
+     * @param slopes
+     *            the array to store the derivatives in
+     * @replaces output, slopes
+     *
+     * @requires <pre> |input| >= batch * inputLength() and
+     * |output| >= batch * outputLength() and |slopes| >= batch * outputLength()
+     * </pre>
+     *
+     * @ensures <pre> input = #input </pre>
+     */
+    void inferBatch(double[] input, int batch, double[] output,
+            double[] slopes);
+
+    /**
+     * Turns the derivatives {@code slopes} that {@code inferBatch} stored for
+     * a batch of {@code batch} inputs into the losses with respect to the
+     * weighted sums, given the outputs {@code output} it stored and the loss
+     * {@code loss} with respect to each output. {@code this} is not changed,
+     * so several threads may each pass their own batch at once.
+     *
+     * @param output
+     *            the batch of outputs stored by {@code inferBatch}
+     * @param slopes
+     *            the batch of derivatives stored by {@code inferBatch}, and
+     *            then the losses with respect to the weighted sums
+     * @param loss
+     *            the batch of losses with respect to the outputs
+     * @param batch
+     *            the number of inputs in the batch
+     * @updates slopes
+     *
+     * @requires <pre> |output|, |slopes| and |loss| >= batch * outputLength()
+     * </pre>
+     *
+     * @ensures <pre> output = #output and loss = #loss </pre>
+     */
+    void deltaBatch(double[] output, double[] slopes, double[] loss,
+            int batch);
+
+    /**
+     * Adds the loss with respect to each weight of {@code this}, summed over a
+     * batch of {@code batch} inputs, to {@code gradient}, stored in the
+     * row-major order of the weights, and stores the batch of losses with
+     * respect to the inputs in {@code loss} unless it is empty. The weights
+     * are only read, so several threads may each pass their own batch at
+     * once.
+     *
+     * @param input
+     *            the batch of input vectors
+     * @param delta
+     *            the batch of losses with respect to the weighted sums
+     * @param batch
+     *            the number of inputs in the batch
+     * @param gradient
+     *            the sum of the losses with respect to the weights
+     * @param loss
+     *            the array to store the losses with respect to the inputs in,
+     *            or an empty array
+     * @updates gradient
+     * @replaces loss
+     *
+     * @requires <pre> |input| >= batch * inputLength() and
+     * |delta| >= batch * outputLength() and
+     * |gradient| = inputLength() * outputLength() and
+     * (|loss| = 0 or |loss| >= batch * inputLength()) </pre>
+     *
+     * @ensures <pre> input = #input and delta = #delta </pre>
+     */
+    void gradientBatch(double[] input, double[] delta, int batch,
+            double[] gradient, double[] loss);
+
+    /**
+     * Updates the weights of {@code this} once by the mean of a summed
+     * {@code gradient} over {@code batch} inputs, scaled by the learning
+     * rate.
+     *
+     * @param gradient
+     *            the sum of the losses with respect to the weights, in
+     *            row-major order
+     * @param batch
+     *            the number of inputs summed in {@code gradient}
+     *
+     * @requires <pre> |gradient| = inputLength() * outputLength() and
+     * batch > 0 </pre>
+     *
+     * @ensures <pre> gradient = #gradient </pre>
+     */
+    void applyGradient(double[] gradient, int batch);
+
+    /**
+     * Updates the weights of {@code this} straight away by the loss with
+     * respect to each weight for one input, without locks, and stores the
+     * loss with respect to each input in {@code loss} unless it is empty.
+     * Only the weight rows of non-zero inputs change, so threads passing
+     * sparse inputs at once seldom touch the same weights; when they do, an
+     * update may be lost. Each row is read for {@code loss} just before it is
+     * updated.
+     *
+     * @param input
+     *            the input vector
+     * @param delta
+     *            the loss with respect to each weighted sum
+     * @param loss
+     *            the array to store the losses with respect to the inputs in,
+     *            or an empty array
+     * @param opaque
+     *            whether each weight is read and written with opaque access,
+     *            so that other threads see it promptly, rather than plain
+     *            access
+     * @replaces loss
+     *
+     * @requires <pre> |input| >= inputLength() and
+     * |delta| >= outputLength() and
+     * (|loss| = 0 or |loss| >= inputLength()) </pre>
+     *
+     * @ensures <pre> input = #input and delta = #delta </pre>
+     */
+    void applyUpdate(double[] input, double[] delta, double[] loss,
+            boolean opaque);
+
+    /**
+     * Updates the weights of {@code this} by the loss with respect to each
+     * weight for the input last passed to {@code forwardPass}, and returns the
+     * loss with respect to each input, computed with the weights before the
+     * update. Unlike {@code backPropArray}, the loss is not passed on to the
+     * previous layer.
+     *
+     * @param deriv
+     *            loss with respect to outputs
+     * @param propagate
+     *            whether the loss with respect to inputs is needed
+     *
+     * @requires <pre> |deriv| >= outputLength() </pre>
+     *
+     * @ensures <pre> deriv = #deriv </pre>
+     *
+     * @return the loss with respect to inputs, or an empty array if
+     *         {@code propagate} is false
+     */
+    double[] updateArray(double[] deriv, boolean propagate);
+
+    /**
+     * Passes a batch of {@code batch} inputs through the fully connected layer
+     * at once and returns the batch of activated outputs. The inputs are
+     * stored back to back, {@code inputLength()} entries each, and so are the
+     * outputs, {@code outputLength()} entries each. Every weight is read once
+     * for the whole batch instead of once per input.
+     *
+     * @param input
+     *            the batch of input vectors
+     * @param batch
+     *            the number of inputs in the batch
+     *
+     * @requires <pre> batch > 0 and |input| >= batch * inputLength() </pre>
+     *
+     * @ensures <pre> input = #input </pre>
+     *
+     * @return the batch of activated output vectors
+     */
+    double[] forwardBatch(double[] input, int batch);
+
+    /**
+     * Updates the weights of {@code this} once, by the mean over the batch
+     * last passed to {@code forwardBatch} of the loss with respect to each
+     * weight, and returns the batch of losses with respect to the inputs,
+     * computed with the weights before the update.
+     *
+     * @param deriv
+     *            the batch of losses with respect to outputs, stored back to
+     *            back, {@code outputLength()} entries each
+     * @param batch
+     *            the number of inputs in the batch
+     *
+     * @requires <pre> batch is the batch last passed to forwardBatch and
+     * |deriv| >= batch * outputLength() </pre>
+     *
+     * @ensures <pre> deriv = #deriv </pre>
+     *
+     * @return the batch of losses with respect to inputs, or an empty array if
+     *         there is no previous layer to pass them to
+     */
+    double[] updateBatch(double[] deriv, int batch);
+
+    /**
+     * Sets whether {@code this} and the layers linked to it run in workspace
+     * mode. In workspace mode every buffer of {@code forwardPass} and
+     * {@code backPropArray} is sized once, here, and reused by each pass, and
+     * a missing next or previous layer is stood in for by one cached empty
+     * layer, so a steady stream of single inputs allocates nothing. The array
+     * returned by {@code forwardPass} then belongs to {@code this} and is
+     * overwritten by its next pass. Batches still allocate.
+     *
+     * @param enabled
+     *            whether to reuse buffers
+     *
+     * @ensures <pre> this = #this </pre>
+     */
+    void setWorkspace(boolean enabled);
+
     /**
      * Returns the derivative of the {@code double} input.
      *
@@ -1,4 +1,3 @@
-import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -60,10 +59,9 @@ public abstract class CNNLayersSecondary implements CNNLayers {
     // CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
     @Override
     public double[] outputFromArray(double[] input) {
-        this.setNext(this.getNext());
         double[] pass = this.forwardPass(input);
         if (this.getNext().inputLength() != 0) {
-            pass = this.outputFromArray(pass);
+            pass = this.getNext().outputFromArray(pass);
         }
         return pass;
     }
@@ -78,24 +76,22 @@ public abstract class CNNLayersSecondary implements CNNLayers {
     // CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
     @Override
     public void backPropArray(double[] deriv) {
-        double sigDeriv;
-        double weightDeriv;
-        double outWeight;
-        double loss;
+        int outLength = this.outputLength();
+        double[] outputs = this.getOutputs();
+        double[] inputs = this.getInputs();
         double[] prevLayer = new double[this.inputLength()];
         double[][] optWeights = this.getWeights();
 
+        // loss with respect to each weighted sum, the same for every row
+        double[] delta = new double[outLength];
+        for (int j = 0; j < outLength; j++) {
+            delta[j] = deriv[j] * this.sigmoidPrime(outputs[j]);
+        }
         for (int i = 0; i < this.inputLength(); i++) {
-            double prevSum = 0;
-            for (int j = 0; j < this.outputLength(); j++) {
-                sigDeriv = this.sigmoidPrime(this.getOutputs()[j]);
-                weightDeriv = this.getInputs()[i];
-                outWeight = this.getWeights()[i][j];
-                loss = deriv[j] * sigDeriv * weightDeriv;
-                optWeights[i][j] -= loss * this.getLearnRate();
-                prevSum += deriv[j] * sigDeriv * outWeight;
-            }
-            prevLayer[i] = prevSum;
+            double[] row = optWeights[i];
+            prevLayer[i] = Simd.OPS.dot(delta, 0, row, 0, outLength);
+            Simd.OPS.axpy(-inputs[i] * this.getLearnRate(), delta, 0, row, 0,
+                    outLength);
         }
         this.setWeightsIn(optWeights);
 
@@ -104,23 +100,53 @@ public abstract class CNNLayersSecondary implements CNNLayers {
         }
     }
 
+    // CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public double[] outputFromBatch(double[] input, int batch) {
+        double[] pass = this.forwardBatch(input, batch);
+        if (this.getNext().inputLength() != 0) {
+            pass = this.getNext().outputFromBatch(pass, batch);
+        }
+        return pass;
+    }
+
+    // CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public void backPropBatch(double[] deriv, int batch) {
+        double[] prevLayer = this.updateBatch(deriv, batch);
+        if (prevLayer.length != 0) {
+            this.getPrevious().backPropBatch(prevLayer, batch);
+        }
+    }
+
     // CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
     @Override
     public int guess(CNNLayers sig) {
-        int index = 0;
+        return this.guess(sig.getData());
+    }
+
+    // CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public int guess(double[][] image) {
         final double scalar = 200 * 100;
-        List<double[][]> inputs = new ArrayList<>();
-        inputs.add(this.multiplyMatrix(sig.getData(), (1.0 / scalar)));
-        if (this.getLayers().size() > 0) {
-            double[] out = this.getLayers().get(0).outputFromList(inputs);
-            double max = 0;
-            for (int i = 0; i < out.length; i++) {
-                if (out[i] >= max) {
-                    max = out[i];
-                    index = i;
-                }
+        double[] input = new double[image.length * image[0].length];
+        int p = 0;
+        for (int i = 0; i < image.length; i++) {
+            for (int j = 0; j < image[0].length; j++) {
+                input[p] = image[i][j] * (1.0 / scalar);
+                p++;
             }
         }
+        return this.guess(input);
+    }
+
+    // CHECKSTYLE: ALLOW THIS METHOD TO BE OVERRIDDEN
+    @Override
+    public int guess(double[] input) {
+        int index = 0;
+        if (this.getLayers().size() > 0) {
+            index = NetworkPlan.compile(this).guess(input);
+        }
         return index;
     }
 
@@ -0,0 +1,190 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterator over a CSV file of labeled images that reads the file in bounded
+ * chunks instead of materializing it. Each call to {@code next} returns the
+ * whole lines found in the next block of at most {@code chunkBytes} bytes as
+ * a {@code LabeledDataset}, so a file of any size is processed in memory
+ * proportional to one chunk. Each chunk is parsed in parallel by
+ * {@code ParallelCsvReader}.
+ *
+ * <p>
+ * The next chunk is read as soon as the current one is returned, so
+ * {@code hasNext} never blocks on I/O.
+ *
+ * @author Sepehr Hooshiari
+ *
+ */
+public class CsvDatasetStream
+        implements Iterator<LabeledDataset>, AutoCloseable {
+
+    /**
+     * Default number of bytes read per chunk, a few thousand MNIST images.
+     */
+    public static final int DEFAULT_CHUNK_BYTES = 8 << 20;
+
+    /**
+     * The file being read.
+     */
+    private final FileChannel channel;
+
+    /**
+     * Bytes read but not yet parsed, in write mode from index 0.
+     */
+    private ByteBuffer pending;
+
+    /**
+     * Whether the whole file has been read into {@code pending}.
+     */
+    private boolean eof;
+
+    /**
+     * The chunk to return from the next call to {@code next}, or null at the
+     * end of the file.
+     */
+    private LabeledDataset ahead;
+
+    /**
+     * Number of rows in each image.
+     */
+    private final int rows;
+
+    /**
+     * Number of columns in each image.
+     */
+    private final int columns;
+
+    /**
+     * Constructor for {@code this} with chunks of
+     * {@code DEFAULT_CHUNK_BYTES} bytes.
+     *
+     * @param file
+     *            the name of the input file
+     * @param rows
+     *            number of rows in each image
+     * @param columns
+     *            number of columns in each image
+     */
+    public CsvDatasetStream(String file, int rows, int columns) {
+        this(file, rows, columns, DEFAULT_CHUNK_BYTES);
+    }
+
+    /**
+     * Constructor for {@code this}.
+     *
+     * @param file
+     *            the name of the input file
+     * @param rows
+     *            number of rows in each image
+     * @param columns
+     *            number of columns in each image
+     * @param chunkBytes
+     *            the number of bytes to read per chunk
+     *
+     * @requires <pre> chunkBytes > 0 </pre>
+     */
+    public CsvDatasetStream(String file, int rows, int columns,
+            int chunkBytes) {
+        assert chunkBytes > 0 : "Violation of: chunkBytes > 0";
+        try {
+            this.channel = FileChannel.open(Paths.get(file),
+                    StandardOpenOption.READ);
+        } catch (IOException e) {
+            throw new AssertionError("Violation of: can read from file");
+        }
+        this.rows = rows;
+        this.columns = columns;
+        this.pending = ByteBuffer.allocate(chunkBytes);
+        this.eof = false;
+        try {
+            this.ahead = this.readChunk();
+        } catch (RuntimeException | Error e) {
+            // nothing can close a stream that was never constructed
+            try {
+                this.channel.close();
+            } catch (IOException closing) {
+                e.addSuppressed(closing);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the images in the next chunk of the file, or null once the
+     * file has been read.
+     *
+     * @return the next chunk of images
+     */
+    private LabeledDataset readChunk() {
+        LabeledDataset chunk = null;
+        while (chunk == null && (!this.eof || this.pending.position() > 0)) {
+            try {
+                while (!this.eof && this.pending.hasRemaining()) {
+                    this.eof = this.channel.read(this.pending) < 0;
+                }
+            } catch (IOException e) {
+                throw new AssertionError("Violation of: can read from file");
+            }
+            int cut = this.pending.position();
+            if (!this.eof) {
+                while (cut > 0 && this.pending.get(cut - 1) != '\n') {
+                    cut--;
+                }
+            }
+            if (cut == 0) {
+                /*
+                 * A single line is longer than the buffer, so grow it.
+                 */
+                ByteBuffer larger = ByteBuffer
+                        .allocate(2 * this.pending.capacity());
+                this.pending.flip();
+                larger.put(this.pending);
+                this.pending = larger;
+            } else {
+                ByteBuffer lines = this.pending.duplicate();
+                lines.position(0);
+                lines.limit(cut);
+                LabeledDataset parsed = ParallelCsvReader.read(lines.slice(),
+                        this.rows, this.columns);
+                this.pending.flip();
+                this.pending.position(cut);
+                this.pending.compact();
+                if (parsed.size() > 0) {
+                    chunk = parsed;
+                }
+            }
+        }
+        return chunk;
+    }
+
+    @Override
+    public final boolean hasNext() {
+        return this.ahead != null;
+    }
+
+    @Override
+    public final LabeledDataset next() {
+        if (this.ahead == null) {
+            throw new NoSuchElementException();
+        }
+        LabeledDataset chunk = this.ahead;
+        this.ahead = this.readChunk();
+        return chunk;
+    }
+
+    @Override
+    public final void close() {
+        try {
+            this.channel.close();
+        } catch (IOException e) {
+            throw new AssertionError("Violation of: can close file");
+        }
+    }
+
+}
@@ -0,0 +1,350 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Trains the layers of a {@code NetworkPlan} on several cores at once, one
+ * mini-batch at a time. Each mini-batch is split into one contiguous slice
+ * per worker, and every worker runs the forward and backward passes over its
+ * slice with its own activations, derivatives and gradient sums, only ever
+ * reading the shared weights. The workers' gradients are then summed by a
+ * fixed binary tree, worker {@code w + s} into worker {@code w} for
+ * {@code s = 1, 2, 4, ...}, and the weights of each layer are updated once by
+ * the mean, as {@code updateBatch} would for the whole mini-batch.
+ *
+ * <p>
+ * Every weight's gradient is added up along the same tree whichever thread
+ * does the adding, so a run depends only on the weights' seeds, the order of
+ * the images, the batch size and the number of workers, never on
+ * scheduling. Each worker adds up its own share of the weights, so the
+ * reduction runs on every core as well.
+ *
+ * @author Sepehr Hooshiari
+ *
+ */
+public final class DataParallelTrainer implements AutoCloseable {
+
+    /**
+     * Passed as the loss with respect to the inputs of the first layer, which
+     * nothing needs.
+     */
+    private static final double[] NO_LOSS = {};
+
+    /**
+     * The layers being trained.
+     */
+    private final NetworkPlan plan;
+
+    /**
+     * In case input values become too large.
+     */
+    private final double scalar;
+
+    /**
+     * The workers, one per thread.
+     */
+    private final Worker[] workers;
+
+    /**
+     * The threads the workers run on.
+     */
+    private final ForkJoinPool pool;
+
+    /**
+     * The images being trained on.
+     */
+    private LabeledDataset images;
+
+    /**
+     * Indices into {@code images} in the order they are visited.
+     */
+    private int[] order;
+
+    /**
+     * The activations, derivatives and gradient sums of one worker.
+     */
+    private final class Worker {
+
+        /**
+         * Position of {@code this} among the workers.
+         */
+        private final int id;
+
+        /**
+         * Gradient sums of each layer, in the row-major order of its weights.
+         */
+        private final double[][] gradients;
+
+        /**
+         * Scaled input images of the slice, back to back.
+         */
+        private double[] input;
+
+        /**
+         * Label of each image of the slice.
+         */
+        private int[] labels;
+
+        /**
+         * Activations of each layer over the slice.
+         */
+        private double[][] outputs;
+
+        /**
+         * Activation derivatives of each layer over the slice, turned into the
+         * losses with respect to the weighted sums on the way back.
+         */
+        private double[][] deltas;
+
+        /**
+         * Losses with respect to the inputs of the layer being updated.
+         */
+        private double[] loss;
+
+        /**
+         * Number of images the buffers are sized for.
+         */
+        private int capacity;
+
+        /**
+         * Position in the order of the first image of the slice.
+         */
+        private int from;
+
+        /**
+         * Number of images in the slice.
+         */
+        private int size;
+
+        /**
+         * Constructor for {@code this}.
+         *
+         * @param id
+         *            the position of the worker
+         */
+        Worker(int id) {
+            NetworkPlan layers = DataParallelTrainer.this.plan;
+            this.id = id;
+            this.gradients = new double[layers.size()][];
+            for (int k = 0; k < layers.size(); k++) {
+                this.gradients[k] = new double[layers.width(k)
+                        * layers.width(k + 1)];
+            }
+            this.reserve(0);
+        }
+
+        /**
+         * Sizes the buffers for slices of up to {@code images} images.
+         *
+         * @param images
+         *            the most images in a slice
+         */
+        void reserve(int images) {
+            NetworkPlan layers = DataParallelTrainer.this.plan;
+            this.capacity = images;
+            this.input = new double[images * layers.inputLength()];
+            this.labels = new int[images];
+            this.outputs = new double[layers.size()][];
+            this.deltas = new double[layers.size()][];
+            for (int k = 0; k < layers.size(); k++) {
+                this.outputs[k] = new double[images * layers.width(k + 1)];
+                this.deltas[k] = new double[images * layers.width(k + 1)];
+            }
+            this.loss = new double[images * layers.widest(0, layers.size())];
+        }
+
+        /**
+         * Runs the forward and backward passes over the slice, leaving its
+         * gradient sums in {@code gradients}.
+         */
+        void compute() {
+            for (double[] gradient : this.gradients) {
+                Arrays.fill(gradient, 0);
+            }
+            if (this.size > 0 && this.gradients.length > 0) {
+                this.step();
+            }
+        }
+
+        /**
+         * Runs the forward and backward passes over a slice of at least one
+         * image, through at least one layer.
+         */
+        private void step() {
+            NetworkPlan layers = DataParallelTrainer.this.plan;
+            LabeledDataset data = DataParallelTrainer.this.images;
+            int[] visit = DataParallelTrainer.this.order;
+            int n = this.size;
+            int last = layers.size() - 1;
+            int in = layers.inputLength();
+            for (int b = 0; b < n; b++) {
+                int i = visit[this.from + b];
+                data.copyImage(i, this.input, b * in,
+                        1.0 / DataParallelTrainer.this.scalar);
+                this.labels[b] = data.label(i);
+            }
+            layers.forwardBatch(0, layers.size(), this.input, n, this.outputs,
+                    this.deltas);
+            layers.errorBatch(this.outputs[last], this.deltas[last],
+                    this.labels, n, this.loss);
+            layers.backwardBatch(0, layers.size(), this.input, n, this.outputs,
+                    this.deltas, this.gradients, this.loss, NO_LOSS);
+        }
+
+        /**
+         * Adds up this worker's share of every layer's weights across all the
+         * workers, along the tree, into the gradients of worker 0.
+         */
+        void reduce() {
+            Worker[] all = DataParallelTrainer.this.workers;
+            int count = all.length;
+            for (int k = 0; k < this.gradients.length; k++) {
+                int length = this.gradients[k].length;
+                int lo = (int) ((long) length * this.id / count);
+                int hi = (int) ((long) length * (this.id + 1) / count);
+                for (int s = 1; s < count; s *= 2) {
+                    for (int w = 0; w + s < count; w += 2 * s) {
+                        Simd.OPS.axpy(1, all[w + s].gradients[k], lo,
+                                all[w].gradients[k], lo, hi - lo);
+                    }
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Runs one phase of every worker in {@code [lo, hi)} on the pool.
+     */
+    private final class Phase extends RecursiveAction {
+
+        /**
+         * Generated serial version ID.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * First worker of the run.
+         */
+        private final int lo;
+
+        /**
+         * One past the last worker of the run.
+         */
+        private final int hi;
+
+        /**
+         * Whether to reduce rather than compute.
+         */
+        private final boolean reduce;
+
+        /**
+         * Constructor for {@code this}.
+         *
+         * @param lo
+         *            first worker of the run
+         * @param hi
+         *            one past the last worker of the run
+         * @param reduce
+         *            whether to reduce rather than compute
+         */
+        Phase(int lo, int hi, boolean reduce) {
+            this.lo = lo;
+            this.hi = hi;
+            this.reduce = reduce;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.hi - this.lo > 1) {
+                int mid = (this.lo + this.hi) >>> 1;
+                invokeAll(new Phase(this.lo, mid, this.reduce),
+                        new Phase(mid, this.hi, this.reduce));
+            } else if (this.hi > this.lo) {
+                Worker worker = DataParallelTrainer.this.workers[this.lo];
+                if (this.reduce) {
+                    worker.reduce();
+                } else {
+                    worker.compute();
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Constructor for {@code this}.
+     *
+     * @param plan
+     *            the layers to train
+     * @param scalar
+     *            the factor the pixels are divided by
+     * @param threads
+     *            the number of workers
+     *
+     * @requires <pre> threads > 0 </pre>
+     */
+    public DataParallelTrainer(NetworkPlan plan, double scalar, int threads) {
+        assert threads > 0 : "Violation of: threads > 0";
+        this.plan = plan;
+        this.scalar = scalar;
+        this.workers = new Worker[threads];
+        for (int w = 0; w < threads; w++) {
+            this.workers[w] = new Worker(w);
+        }
+        this.pool = new ForkJoinPool(threads);
+    }
+
+    /**
+     * Trains the layers to reduce margin of error, visiting the images in the
+     * given order {@code batch} at a time, and updating the weights once per
+     * batch by the mean of the batch's gradients.
+     *
+     * @param images
+     *            the training images
+     * @param order
+     *            indices into {@code images}
+     * @param batch
+     *            the number of images per weight update
+     *
+     * @requires <pre> batch > 0 and the image size of images is the input
+     * length of the plan </pre>
+     */
+    public void train(LabeledDataset images, int[] order, int batch) {
+        assert batch > 0 : "Violation of: batch > 0";
+        assert images.rows() * images.columns() == this.plan.inputLength() : ""
+                + "Violation of: images fit the first layer";
+        this.images = images;
+        this.order = order;
+        int threads = this.workers.length;
+        int slice = (batch + threads - 1) / threads;
+        for (Worker worker : this.workers) {
+            if (worker.capacity < slice) {
+                worker.reserve(slice);
+            }
+        }
+        for (int start = 0; start < order.length; start += batch) {
+            int count = Math.min(batch, order.length - start);
+            for (int w = 0; w < threads; w++) {
+                int from = start + (int) ((long) count * w / threads);
+                int to = start + (int) ((long) count * (w + 1) / threads);
+                this.workers[w].from = from;
+                this.workers[w].size = to - from;
+            }
+            this.pool.invoke(new Phase(0, threads, false));
+            this.pool.invoke(new Phase(0, threads, true));
+            double[][] sums = this.workers[0].gradients;
+            for (int k = 0; k < this.plan.size(); k++) {
+                this.plan.layer(k).applyGradient(sums[k], count);
+            }
+        }
+        this.images = null;
+        this.order = null;
+    }
+
+    @Override
+    public void close() {
+        this.pool.shutdown();
+    }
+
+}
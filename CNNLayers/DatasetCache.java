@@ -0,0 +1,234 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Binary sidecar cache for CSV datasets. The first time a CSV file is loaded
+ * it is parsed and, if its labels and pixels all fit in unsigned bytes, written
+ * next to it as {@code <file>.bin}. Later loads map the sidecar instead of
+ * parsing, until the size or modification time of the CSV file no longer
+ * matches the one recorded in the sidecar, at which point it is rebuilt.
+ * Since {@code analyze} only views the images it keeps, a load that maps the
+ * sidecar saves the heap of the parsed dataset as well as the parsing.
+ *
+ * <p>
+ * Sidecar layout, big-endian: magic, version, image count, rows and columns
+ * as {@code int}s; size and modification time of the CSV file as
+ * {@code long}s; then one byte per label and one byte per pixel.
+ *
+ * @author Sepehr Hooshiari
+ *
+ */
+public final class DatasetCache {
+
+    /**
+     * Suffix added to the name of a CSV file to name its sidecar.
+     */
+    public static final String SUFFIX = ".bin";
+
+    /**
+     * Magic number that starts every sidecar.
+     */
+    private static final int MAGIC = 0x434E4E44;
+
+    /**
+     * Version of the sidecar layout.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * Length of the sidecar header in bytes.
+     */
+    private static final int HEADER = 5 * Integer.BYTES + 2 * Long.BYTES;
+
+    /**
+     * Largest value that can be stored in one unsigned byte.
+     */
+    private static final int MAX_BYTE = 255;
+
+    /**
+     * Number of images written per block of the sidecar.
+     */
+    private static final int BLOCK = 1024;
+
+    /**
+     * No argument constructor--private to prevent instantiation.
+     */
+    private DatasetCache() {
+    }
+
+    /**
+     * Returns the labeled images in the CSV file {@code file}, mapped from its
+     * sidecar when the sidecar is up to date, and otherwise parsed and written
+     * to a new sidecar.
+     *
+     * @param file
+     *            the name of the CSV file
+     * @param rows
+     *            number of rows in each image
+     * @param columns
+     *            number of columns in each image
+     *
+     * @return the labeled images in the file
+     */
+    public static LabeledDataset load(String file, int rows, int columns) {
+        Path source = Paths.get(file);
+        Path sidecar = Paths.get(file + SUFFIX);
+        long size;
+        long modified;
+        try {
+            size = Files.size(source);
+            modified = Files.getLastModifiedTime(source).toMillis();
+        } catch (IOException e) {
+            throw new AssertionError("Violation of: can read from file");
+        }
+        LabeledDataset data = map(sidecar, size, modified, rows, columns);
+        if (data == null) {
+            data = ParallelCsvReader.read(file, rows, columns);
+            write(data, source, sidecar, size, modified);
+        }
+        return data;
+    }
+
+    /**
+     * Maps {@code sidecar} if it exists and matches the given source file and
+     * image shape.
+     *
+     * @param sidecar
+     *            the sidecar file
+     * @param size
+     *            the size of the CSV file
+     * @param modified
+     *            the modification time of the CSV file
+     * @param rows
+     *            number of rows in each image
+     * @param columns
+     *            number of columns in each image
+     *
+     * @return the mapped dataset, or null if the sidecar is missing or stale
+     */
+    private static LabeledDataset map(Path sidecar, long size, long modified,
+            int rows, int columns) {
+        LabeledDataset data = null;
+        if (Files.isRegularFile(sidecar)) {
+            try (FileChannel channel = FileChannel.open(sidecar,
+                    StandardOpenOption.READ)) {
+                if (channel.size() >= HEADER) {
+                    ByteBuffer bytes = channel
+                            .map(FileChannel.MapMode.READ_ONLY, 0,
+                                    channel.size());
+                    int magic = bytes.getInt();
+                    int version = bytes.getInt();
+                    int count = bytes.getInt();
+                    int r = bytes.getInt();
+                    int c = bytes.getInt();
+                    long s = bytes.getLong();
+                    long m = bytes.getLong();
+                    long expected = HEADER + (long) count * (1 + r * c);
+                    if (magic == MAGIC && version == VERSION && r == rows
+                            && c == columns && s == size && m == modified
+                            && channel.size() == expected) {
+                        ByteBuffer labels = bytes.duplicate();
+                        labels.limit(HEADER + count);
+                        ByteBuffer pixels = bytes.duplicate();
+                        pixels.position(HEADER + count);
+                        data = new LabeledDataset2(pixels, labels, rows,
+                                columns);
+                    }
+                }
+            } catch (IOException e) {
+                /*
+                 * An unreadable sidecar is treated as missing and rebuilt.
+                 */
+                data = null;
+            }
+        }
+        return data;
+    }
+
+    /**
+     * Writes {@code data} to {@code sidecar}, unless some label or pixel does
+     * not fit in an unsigned byte. The sidecar is written to a temporary file
+     * and then renamed, so concurrent readers never see half of it.
+     *
+     * @param data
+     *            the parsed dataset
+     * @param source
+     *            the CSV file, whose permissions the sidecar copies
+     * @param sidecar
+     *            the sidecar file
+     * @param size
+     *            the size of the CSV file
+     * @param modified
+     *            the modification time of the CSV file
+     */
+    private static void write(LabeledDataset data, Path source, Path sidecar,
+            long size, long modified) {
+        int count = data.size();
+        int length = data.rows() * data.columns();
+        ByteBuffer header = ByteBuffer.allocate(HEADER + count);
+        header.putInt(MAGIC).putInt(VERSION).putInt(count).putInt(data.rows())
+                .putInt(data.columns()).putLong(size).putLong(modified);
+        boolean fits = true;
+        for (int i = 0; i < count && fits; i++) {
+            int label = data.label(i);
+            fits = label >= 0 && label <= MAX_BYTE;
+            header.put((byte) label);
+        }
+        header.flip();
+
+        Path temporary = null;
+        try {
+            temporary = Files.createTempFile(sidecar.toAbsolutePath()
+                    .getParent(), sidecar.getFileName().toString(), ".tmp");
+            try (FileChannel out = FileChannel.open(temporary,
+                    StandardOpenOption.WRITE)) {
+                out.write(header);
+                double[] image = new double[BLOCK * length];
+                ByteBuffer block = ByteBuffer.allocateDirect(BLOCK * length);
+                for (int i = 0; i < count && fits; i += BLOCK) {
+                    int n = Math.min(BLOCK, count - i);
+                    block.clear();
+                    for (int k = 0; k < n; k++) {
+                        data.copyImage(i + k, image, k * length, 1);
+                    }
+                    for (int p = 0; p < n * length && fits; p++) {
+                        int v = (int) image[p];
+                        fits = v == image[p] && v >= 0 && v <= MAX_BYTE;
+                        block.put((byte) v);
+                    }
+                    block.flip();
+                    while (block.hasRemaining()) {
+                        out.write(block);
+                    }
+                }
+            }
+            if (fits) {
+                if (source.getFileSystem().supportedFileAttributeViews()
+                        .contains("posix")) {
+                    Files.setPosixFilePermissions(temporary,
+                            Files.getPosixFilePermissions(source));
+                }
+                Files.move(temporary, sidecar,
+                        StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } else {
+                Files.delete(temporary);
+            }
+        } catch (IOException e) {
+            /*
+             * The cache only saves time, so a directory that cannot be
+             * written to just means the CSV file is parsed again next time.
+             */
+            if (temporary != null) {
+                temporary.toFile().delete();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,64 @@
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * Read-only {@code List} view of the images of a {@code LabeledDataset}.
+ * Nothing is decoded up front: each {@code get} decodes one image into a new
+ * matrix, so viewing a memory-mapped dataset costs no heap until images are
+ * actually read.
+ *
+ * @author Sepehr Hooshiari
+ *
+ */
+public final class DatasetImages extends AbstractList<double[][]>
+        implements RandomAccess {
+
+    /**
+     * The dataset being viewed.
+     */
+    private final LabeledDataset store;
+
+    /**
+     * Constructor for {@code this}.
+     *
+     * @param store
+     *            the dataset to view
+     */
+    public DatasetImages(LabeledDataset store) {
+        this.store = store;
+    }
+
+    @Override
+    public double[][] get(int index) {
+        assert 0 <= index && index < this.store.size() : ""
+                + "Violation of: 0 <= index < |this|";
+        return this.store.image(index);
+    }
+
+    /**
+     * Copies image {@code index}, flattened in row-major order, into
+     * {@code target} starting at {@code offset}, without building a matrix.
+     *
+     * @param index
+     *            the position of the image
+     * @param target
+     *            the array to copy into
+     * @param offset
+     *            where the image starts in {@code target}
+     * @updates target
+     *
+     * @requires <pre> 0 <= index < |this| and
+     * offset + rows * columns <= |target| </pre>
+     */
+    public void copyImage(int index, double[] target, int offset) {
+        assert 0 <= index && index < this.store.size() : ""
+                + "Violation of: 0 <= index < |this|";
+        this.store.copyImage(index, target, offset, 1);
+    }
+
+    @Override
+    public int size() {
+        return this.store.size();
+    }
+
+}
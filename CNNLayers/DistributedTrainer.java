@@ -0,0 +1,633 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Trains the layer list of a network in one of several processes, possibly
+ * on different hosts, each on its own shard of the images. After every
+ * mini-batch the processes add up their gradients with a ring all-reduce:
+ * each process sends to the next one on the ring and receives from the one
+ * before, over NIO socket channels and direct byte buffers, first passing
+ * partial sums of one slice of the weights around the ring until every slice
+ * is complete at some process, then passing the complete slices around until
+ * every process has all of them. The weights are then updated by the mean,
+ * as {@code updateBatch} would for the images of all the shards' batches
+ * together, so every process keeps the same weights.
+ *
+ * <p>
+ * The all-reduce runs on a thread of its own. Each layer's gradient is handed
+ * to it as soon as the backward pass has computed it, so the gradient of
+ * layer {@code k} travels around the ring while the backward pass computes
+ * that of layer {@code k - 1}.
+ *
+ * @author Sepehr Hooshiari
+ *
+ */
+public final class DistributedTrainer implements AutoCloseable {
+
+    /**
+     * Passed as the loss with respect to the inputs of the first layer, which
+     * nothing needs.
+     */
+    private static final double[] NO_LOSS = {};
+
+    /**
+     * Number of spins before a thread waiting on the other starts yielding.
+     */
+    private static final int SPINS = 100;
+
+    /**
+     * Milliseconds between attempts to connect to a process that is not
+     * listening yet.
+     */
+    private static final long RETRY_MILLIS = 10;
+
+    /**
+     * Milliseconds to keep trying to connect to the next process, and to wait
+     * for the process before to connect.
+     */
+    private static final long CONNECT_MILLIS = 60000;
+
+    /**
+     * Milliseconds the all-reduce thread waits on the ring before checking
+     * whether {@code close} has stopped it.
+     */
+    private static final long SELECT_MILLIS = 100;
+
+    /**
+     * The layers being trained.
+     */
+    private final NetworkPlan plan;
+
+    /**
+     * In case input values become too large.
+     */
+    private final double scalar;
+
+    /**
+     * Position of this process on the ring.
+     */
+    private final int rank;
+
+    /**
+     * Number of processes on the ring.
+     */
+    private final int ranks;
+
+    /**
+     * Channel to the next process on the ring, or null if this is the only
+     * one.
+     */
+    private final SocketChannel next;
+
+    /**
+     * Channel from the process before on the ring, or null if this is the
+     * only one.
+     */
+    private final SocketChannel previous;
+
+    /**
+     * Waits until {@code next} can be written or {@code previous} read.
+     */
+    private final Selector selector;
+
+    /**
+     * Slice of a gradient on its way to the next process.
+     */
+    private final ByteBuffer outgoing;
+
+    /**
+     * Slice of a gradient on its way from the process before.
+     */
+    private final ByteBuffer incoming;
+
+    /**
+     * Gradient sums of each layer, in the row-major order of its weights.
+     */
+    private final double[][] gradients;
+
+    /**
+     * Number of images of the mini-batch, added up along with the gradients.
+     */
+    private final double[] count;
+
+    /**
+     * Gradients waiting to be added up across the ring. The all-reduce thread
+     * blocks on it between batches, rather than spinning.
+     */
+    private final BlockingQueue<double[]> pending;
+
+    /**
+     * Gradients added up across the ring.
+     */
+    private final SpscQueue<double[]> reduced;
+
+    /**
+     * The thread running the all-reduce.
+     */
+    private final Thread communicator;
+
+    /**
+     * What the all-reduce thread failed with, or null while it has not.
+     */
+    private volatile Throwable failure;
+
+    /**
+     * Scaled input images of the batch, back to back.
+     */
+    private double[] input;
+
+    /**
+     * Label of each image of the batch.
+     */
+    private int[] labels;
+
+    /**
+     * Activations of each layer over the batch.
+     */
+    private double[][] outputs;
+
+    /**
+     * Activation derivatives of each layer over the batch, turned into the
+     * losses with respect to the weighted sums on the way back.
+     */
+    private double[][] deltas;
+
+    /**
+     * Losses with respect to the inputs of the layer being updated.
+     */
+    private double[] loss;
+
+    /**
+     * Number of images the buffers are sized for.
+     */
+    private int capacity;
+
+    /**
+     * Constructor for {@code this}. Listens on {@code ring[rank]} and
+     * connects to the next address on {@code ring}, waiting for it to start
+     * listening if it has not yet, and returns once the process before has
+     * connected too.
+     *
+     * @param network
+     *            the network whose layer list is trained
+     * @param scalar
+     *            the factor the pixels are divided by
+     * @param rank
+     *            the position of this process on the ring
+     * @param ring
+     *            the address of every process, in ring order
+     *
+     * @requires <pre> 0 <= rank < |ring| and every process is given the same
+     * ring and a network of the same shape and weights </pre>
+     */
+    public DistributedTrainer(CNNLayers network, double scalar, int rank,
+            InetSocketAddress[] ring) {
+        assert 0 <= rank && rank < ring.length : ""
+                + "Violation of: 0 <= rank < |ring|";
+        this.plan = NetworkPlan.compile(network);
+        this.scalar = scalar;
+        this.rank = rank;
+        this.ranks = ring.length;
+        this.gradients = new double[this.plan.size()][];
+        int longest = 1;
+        for (int k = 0; k < this.plan.size(); k++) {
+            this.gradients[k] = new double[this.plan.width(k)
+                    * this.plan.width(k + 1)];
+            longest = Math.max(longest, this.gradients[k].length);
+        }
+        this.count = new double[1];
+        int slice = (longest + this.ranks - 1) / this.ranks;
+        this.outgoing = ByteBuffer.allocateDirect(slice * Double.BYTES);
+        this.incoming = ByteBuffer.allocateDirect(slice * Double.BYTES);
+
+        SocketChannel to = null;
+        SocketChannel from = null;
+        Selector ready = null;
+        if (this.ranks > 1) {
+            // whatever was opened is closed again if the ring cannot form
+            try (ServerSocketChannel server = ServerSocketChannel.open()) {
+                server.bind(ring[rank]);
+                to = connect(ring[(rank + 1) % this.ranks]);
+                from = accept(server);
+                ready = Selector.open();
+                for (SocketChannel channel : new SocketChannel[] { to,
+                        from }) {
+                    channel.setOption(StandardSocketOptions.TCP_NODELAY,
+                            true);
+                    channel.configureBlocking(false);
+                }
+                to.register(ready, 0);
+                from.register(ready, 0);
+            } catch (IOException e) {
+                release(e, to, from, ready);
+                throw new AssertionError(
+                        "Violation of: can connect to the ring", e);
+            } catch (AssertionError e) {
+                release(e, to, from, ready);
+                throw e;
+            }
+        }
+        this.next = to;
+        this.previous = from;
+        this.selector = ready;
+
+        this.pending = new ArrayBlockingQueue<>(this.gradients.length + 1);
+        this.reduced = new SpscQueue<>(this.gradients.length + 1);
+        this.communicator = new Thread(this::communicate,
+                "all-reduce " + rank);
+        this.communicator.setDaemon(true);
+        this.communicator.setUncaughtExceptionHandler((thread, e) -> {
+            this.failure = e;
+        });
+        this.communicator.start();
+        this.reserve(0);
+    }
+
+    /**
+     * Connects to {@code address}, trying again until it is listening.
+     *
+     * @param address
+     *            the address to connect to
+     *
+     * @return the channel
+     */
+    private static SocketChannel connect(InetSocketAddress address) {
+        long deadline = System.currentTimeMillis() + CONNECT_MILLIS;
+        SocketChannel channel = null;
+        while (channel == null) {
+            try {
+                channel = SocketChannel.open(address);
+            } catch (IOException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw new AssertionError(
+                            "Violation of: the next process is listening", e);
+                }
+                pause();
+            }
+        }
+        return channel;
+    }
+
+    /**
+     * Accepts the connection from the process before, waiting until it
+     * connects.
+     *
+     * @param server
+     *            the channel listening at the address of this process
+     *
+     * @return the channel
+     *
+     * @throws IOException
+     *             if {@code server} cannot accept
+     */
+    private static SocketChannel accept(ServerSocketChannel server)
+            throws IOException {
+        long deadline = System.currentTimeMillis() + CONNECT_MILLIS;
+        server.configureBlocking(false);
+        SocketChannel channel = server.accept();
+        while (channel == null) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new AssertionError(
+                        "Violation of: the process before connects");
+            }
+            pause();
+            channel = server.accept();
+        }
+        return channel;
+    }
+
+    /**
+     * Closes every one of {@code resources} that is not null, recording any
+     * failure to close as suppressed by {@code cause}.
+     *
+     * @param cause
+     *            why the resources are given up
+     * @param resources
+     *            the resources to close
+     * @updates cause
+     */
+    private static void release(Throwable cause, Closeable... resources) {
+        for (Closeable resource : resources) {
+            if (resource != null) {
+                try {
+                    resource.close();
+                } catch (IOException e) {
+                    cause.addSuppressed(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sleeps between two attempts to reach a neighbor in the ring.
+     */
+    private static void pause() {
+        try {
+            Thread.sleep(RETRY_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AssertionError("Violation of: not interrupted", e);
+        }
+    }
+
+    /**
+     * Returns the layers being trained.
+     *
+     * @return the plan of the network's layer list
+     */
+    public NetworkPlan plan() {
+        return this.plan;
+    }
+
+    /**
+     * Sizes the buffers for batches of up to {@code images} images.
+     *
+     * @param images
+     *            the most images in a batch
+     */
+    private void reserve(int images) {
+        NetworkPlan layers = this.plan;
+        this.capacity = images;
+        this.input = new double[images * layers.inputLength()];
+        this.labels = new int[images];
+        this.outputs = new double[layers.size()][];
+        this.deltas = new double[layers.size()][];
+        for (int k = 0; k < layers.size(); k++) {
+            this.outputs[k] = new double[images * layers.width(k + 1)];
+            this.deltas[k] = new double[images * layers.width(k + 1)];
+        }
+        this.loss = new double[images * layers.widest(0, layers.size())];
+    }
+
+    /**
+     * Adds up every array handed over through {@code pending} across the
+     * ring and hands it back through {@code reduced}, until interrupted by
+     * {@code close}.
+     */
+    private void communicate() {
+        try {
+            while (true) {
+                double[] x = this.pending.take();
+                this.allReduce(x);
+                this.reduced.put(x);
+            }
+        } catch (InterruptedException e) {
+            // close interrupts the thread while it waits for the next array
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns the first position of slice {@code c} of an array of
+     * {@code length} elements, or {@code length} for {@code c = ranks}.
+     *
+     * @param length
+     *            the length of the array
+     * @param c
+     *            the slice
+     *
+     * @requires <pre> 0 <= c <= ranks </pre>
+     *
+     * @return the first position of the slice
+     */
+    private int start(int length, int c) {
+        return (int) ((long) length * c / this.ranks);
+    }
+
+    /**
+     * Replaces every element of {@code x} by its sum across the ring.
+     *
+     * @param x
+     *            the array to add up
+     * @updates x
+     */
+    private void allReduce(double[] x) {
+        // after step t, slice rank - t - 1 holds the sum over t + 2 processes
+        for (int t = 0; t < this.ranks - 1; t++) {
+            this.exchange(x, this.rank - t, this.rank - t - 1, true);
+        }
+        // slice rank + 1 is complete here, and is passed around the ring
+        for (int t = 0; t < this.ranks - 1; t++) {
+            this.exchange(x, this.rank - t + 1, this.rank - t, false);
+        }
+    }
+
+    /**
+     * Sends slice {@code send} of {@code x} to the next process while
+     * receiving slice {@code receive} from the process before, and adds it
+     * into {@code x} or copies it over.
+     *
+     * @param x
+     *            the array being added up
+     * @param send
+     *            the slice to send, counted around the ring
+     * @param receive
+     *            the slice to receive, counted around the ring
+     * @param add
+     *            whether to add the slice received rather than copy it
+     * @updates x
+     */
+    private void exchange(double[] x, int send, int receive, boolean add) {
+        int slice = Math.floorMod(send, this.ranks);
+        int lo = this.start(x.length, slice);
+        int hi = this.start(x.length, slice + 1);
+        this.outgoing.clear();
+        for (int e = lo; e < hi; e++) {
+            this.outgoing.putDouble(x[e]);
+        }
+        this.outgoing.flip();
+        slice = Math.floorMod(receive, this.ranks);
+        lo = this.start(x.length, slice);
+        hi = this.start(x.length, slice + 1);
+        this.incoming.clear();
+        this.incoming.limit((hi - lo) * Double.BYTES);
+
+        SelectionKey write = this.next.keyFor(this.selector);
+        SelectionKey read = this.previous.keyFor(this.selector);
+        try {
+            while (this.outgoing.hasRemaining()
+                    || this.incoming.hasRemaining()) {
+                int writeOps = 0;
+                if (this.outgoing.hasRemaining()) {
+                    writeOps = SelectionKey.OP_WRITE;
+                }
+                int readOps = 0;
+                if (this.incoming.hasRemaining()) {
+                    readOps = SelectionKey.OP_READ;
+                }
+                write.interestOps(writeOps);
+                read.interestOps(readOps);
+                this.selector.select(SELECT_MILLIS);
+                this.selector.selectedKeys().clear();
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new AssertionError("Violation of: not interrupted");
+                }
+                if (this.outgoing.hasRemaining()) {
+                    this.next.write(this.outgoing);
+                }
+                if (this.incoming.hasRemaining()
+                        && this.previous.read(this.incoming) < 0) {
+                    throw new AssertionError(
+                            "Violation of: the process before is running");
+                }
+            }
+        } catch (IOException e) {
+            throw new AssertionError("Violation of: can talk to the ring",
+                    e);
+        }
+
+        this.incoming.flip();
+        for (int e = lo; e < hi; e++) {
+            double value = this.incoming.getDouble();
+            if (add) {
+                x[e] += value;
+            } else {
+                x[e] = value;
+            }
+        }
+    }
+
+    /**
+     * Waits for the all-reduce thread to hand back the next array, as long
+     * as it has not failed.
+     *
+     * @return the array
+     */
+    private double[] awaitReduced() {
+        double[] x = this.reduced.poll();
+        int spins = 0;
+        while (x == null) {
+            if (this.failure != null) {
+                throw new AssertionError(
+                        "Violation of: the all-reduce succeeds",
+                        this.failure);
+            }
+            if (spins < SPINS) {
+                Thread.onSpinWait();
+            } else {
+                Thread.yield();
+            }
+            spins++;
+            x = this.reduced.poll();
+        }
+        return x;
+    }
+
+    /**
+     * Runs the forward and backward passes over the first {@code n} images
+     * from {@code from} in {@code order}, handing each layer's gradient sums
+     * to the all-reduce thread as soon as they are done.
+     *
+     * @param images
+     *            the training images
+     * @param order
+     *            indices into {@code images}
+     * @param from
+     *            the position in {@code order} of the first image
+     * @param n
+     *            the number of images
+     */
+    private void step(LabeledDataset images, int[] order, int from, int n) {
+        NetworkPlan layers = this.plan;
+        int last = layers.size() - 1;
+        int in = layers.inputLength();
+        for (int b = 0; b < n; b++) {
+            int i = order[from + b];
+            images.copyImage(i, this.input, b * in, 1.0 / this.scalar);
+            this.labels[b] = images.label(i);
+        }
+        layers.forwardBatch(0, layers.size(), this.input, n, this.outputs,
+                this.deltas);
+        layers.errorBatch(this.outputs[last], this.deltas[last], this.labels,
+                n, this.loss);
+        layers.backwardBatch(0, layers.size(), this.input, n, this.outputs,
+                this.deltas, this.gradients, this.loss, NO_LOSS, k -> {
+                    this.pending.add(this.gradients[k]);
+                });
+    }
+
+    /**
+     * Trains the layers to reduce margin of error, visiting this process's
+     * shard of the images in the given order {@code batch} at a time, and
+     * updating the weights once per batch by the mean of the gradients of
+     * the batches of every process.
+     *
+     * @param images
+     *            the training images
+     * @param order
+     *            indices into {@code images} of this process's shard
+     * @param batch
+     *            the number of images per weight update in each process
+     *
+     * @requires <pre> batch > 0 and the image size of images is the input
+     * length of the plan and every process makes the call with the same
+     * batch and an order of as many batches </pre>
+     */
+    public void train(LabeledDataset images, int[] order, int batch) {
+        assert batch > 0 : "Violation of: batch > 0";
+        assert images.rows() * images.columns() == this.plan.inputLength() : ""
+                + "Violation of: images fit the first layer";
+        if (this.capacity < batch) {
+            this.reserve(batch);
+        }
+        for (int start = 0; start < order.length; start += batch) {
+            int n = Math.min(batch, order.length - start);
+            for (double[] gradient : this.gradients) {
+                Arrays.fill(gradient, 0);
+            }
+            if (this.gradients.length > 0) {
+                this.step(images, order, start, n);
+            }
+            this.count[0] = n;
+            this.pending.add(this.count);
+            for (int k = 0; k <= this.gradients.length; k++) {
+                this.awaitReduced();
+            }
+            for (int k = 0; k < this.plan.size(); k++) {
+                this.plan.layer(k).applyGradient(this.gradients[k],
+                        (int) this.count[0]);
+            }
+        }
+    }
+
+    /**
+     * Stops the all-reduce thread, giving up on any all-reduce still waiting
+     * on the ring, waits for it to end, and closes the channels to the ring.
+     */
+    @Override
+    public void close() {
+        this.communicator.interrupt();
+        boolean interrupted = false;
+        while (this.communicator.isAlive()) {
+            try {
+                this.communicator.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (this.selector != null) {
+            try {
+                this.selector.close();
+                this.next.close();
+                this.previous.close();
+            } catch (IOException e) {
+                throw new AssertionError("Violation of: can close the ring",
+                        e);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,109 @@
+import java.net.InetSocketAddress;
+
+import components.simplewriter.SimpleWriter;
+import components.simplewriter.SimpleWriter1L;
+
+/**
+ * Runs one process of a {@code DistributedTrainer} ring. Every process is
+ * started with its own rank, the same number of epochs and the same list of
+ * addresses, e.g. on one host:
+ *
+ * <pre>
+ * java DistributedTraining 0 3 localhost:5000 localhost:5001
+ * java DistributedTraining 1 3 localhost:5000 localhost:5001
+ * </pre>
+ *
+ * Each epoch every process shuffles the training images the same way and
+ * trains on every {@code ranks}-th of them starting at its rank, then reports
+ * its test accuracy, which is the same in every process.
+ *
+ * @author Sepehr Hooshiari
+ *
+ */
+public final class DistributedTraining {
+
+    /**
+     * No argument constructor--private to prevent instantiation.
+     */
+    private DistributedTraining() {
+    }
+
+    /**
+     * Returns a network of two layers, 784 to 32 to 10.
+     *
+     * @return the network
+     */
+    private static CNNLayers network() {
+        final int in = 784;
+        final int hidden = 32;
+        final int out = 10;
+        final double rate = 0.1;
+        CNNLayers network = new CNNLayers1();
+        network.addLayer(new CNNLayers1(in, hidden, 1, rate));
+        network.addLayer(new CNNLayers1(hidden, out, 2, rate));
+        return network;
+    }
+
+    /**
+     * Returns the address written as {@code host:port}.
+     *
+     * @param address
+     *            the address
+     *
+     * @return the address
+     */
+    private static InetSocketAddress address(String address) {
+        int colon = address.lastIndexOf(':');
+        assert colon > 0 : "Violation of: address is host:port";
+        return new InetSocketAddress(address.substring(0, colon),
+                Integer.parseInt(address.substring(colon + 1)));
+    }
+
+    /**
+     * Main method.
+     *
+     * @param args
+     *            the rank, the number of epochs, and the address of every
+     *            process in ring order
+     */
+    public static void main(String[] args) {
+        final double scalar = 255;
+        final int batch = 32;
+        final long seed = 123;
+        int rank = Integer.parseInt(args[0]);
+        int epochs = Integer.parseInt(args[1]);
+        InetSocketAddress[] ring = new InetSocketAddress[args.length - 2];
+        for (int r = 0; r < ring.length; r++) {
+            ring[r] = address(args[r + 2]);
+        }
+        SimpleWriter out = new SimpleWriter1L();
+        CNNLayers layers = new CNNLayers1();
+        layers.analyze("data/mnist_test.csv");
+        LabeledDataset tests = layers.getDataset();
+        layers.analyze("data/mnist_train.csv");
+        LabeledDataset train = layers.getDataset();
+        NetLink1 builder = new NetLink1(new CNNLayers1(), scalar);
+        EpochSampler sampler = new EpochSampler(train, seed);
+
+        // every shard gets as many images, so every process makes as many
+        // updates
+        int[] shard = new int[train.size() / ring.length];
+        try (DistributedTrainer trainer = new DistributedTrainer(network(),
+                scalar, rank, ring)) {
+            for (int epoch = 0; epoch < epochs; epoch++) {
+                int[] order = sampler.uniform(epoch);
+                for (int i = 0; i < shard.length; i++) {
+                    shard[i] = order[rank + i * ring.length];
+                }
+                trainer.train(train, shard, batch);
+                out.println("rank " + rank + ": epoch " + (epoch + 1)
+                        + ", accuracy " + builder.test(trainer.plan(), tests));
+            }
+        }
+
+        /*
+         * Close output stream
+         */
+        out.close();
+    }
+}
@@ -0,0 +1,213 @@
+import java.util.Random;
+
+/**
+ * Produces the order in which each epoch visits a dataset, as a permutation of
+ * image indices, so the images themselves never move. Every order is
+ * determined by the sampler's seed and the epoch number alone, the same way
+ * {@code CNNLayers1} derives its initial weights from its seed.
+ *
+ * <p>
+ * Three orders are offered: a uniform shuffle; a stratified shuffle, in which
+ * every stretch of the order holds the labels in about the same proportions as
+ * the whole dataset; and a block shuffle, which shuffles runs of consecutive
+ * images but keeps each run together so that reads stay sequential in memory
+ * and on disk.
+ *
+ * @author Sepehr Hooshiari
+ *
+ */
+public class EpochSampler {
+
+    /**
+     * Odd constant used to spread epoch numbers across seeds.
+     */
+    private static final long GOLDEN = 0x9E3779B97F4A7C15L;
+
+    /**
+     * Label of every image.
+     */
+    private final int[] labels;
+
+    /**
+     * Number of distinct label values, i.e. one more than the largest label.
+     */
+    private final int classes;
+
+    /**
+     * Seed from which every order is derived.
+     */
+    private final long seed;
+
+    /**
+     * Constructor for {@code this}.
+     *
+     * @param images
+     *            the dataset to sample
+     * @param seed
+     *            the seed from which every order is derived
+     *
+     * @requires <pre> every label of images >= 0 </pre>
+     */
+    public EpochSampler(LabeledDataset images, long seed) {
+        this.labels = new int[images.size()];
+        int max = -1;
+        for (int i = 0; i < this.labels.length; i++) {
+            this.labels[i] = images.label(i);
+            assert this.labels[i] >= 0 : "Violation of: labels are >= 0";
+            max = Math.max(max, this.labels[i]);
+        }
+        this.classes = max + 1;
+        this.seed = seed;
+    }
+
+    /**
+     * Returns the random number generator for {@code epoch}.
+     *
+     * @param epoch
+     *            the epoch number
+     *
+     * @return a generator seeded from {@code this.seed} and {@code epoch}
+     */
+    private Random random(int epoch) {
+        return new Random(this.seed ^ (epoch * GOLDEN));
+    }
+
+    /**
+     * Shuffles {@code a[lo, hi)} in place.
+     *
+     * @param a
+     *            the array
+     * @param lo
+     *            first index of the part to shuffle
+     * @param hi
+     *            one past the last index of the part to shuffle
+     * @param rand
+     *            the source of randomness
+     * @updates a
+     */
+    private static void shuffle(int[] a, int lo, int hi, Random rand) {
+        for (int i = hi - 1; i > lo; i--) {
+            int j = lo + rand.nextInt(i - lo + 1);
+            int t = a[i];
+            a[i] = a[j];
+            a[j] = t;
+        }
+    }
+
+    /**
+     * Returns the number of images in the dataset.
+     *
+     * @return the number of images
+     */
+    public final int size() {
+        return this.labels.length;
+    }
+
+    /**
+     * Returns a uniformly shuffled order of every image for {@code epoch}.
+     *
+     * @param epoch
+     *            the epoch number
+     *
+     * @return a permutation of {@code 0..size()-1}
+     */
+    public final int[] uniform(int epoch) {
+        int[] order = new int[this.labels.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        shuffle(order, 0, order.length, this.random(epoch));
+        return order;
+    }
+
+    /**
+     * Returns a shuffled order of every image for {@code epoch} in which the
+     * labels are spread evenly: each label appears at about the same rate
+     * throughout the order as it does in the whole dataset.
+     *
+     * @param epoch
+     *            the epoch number
+     *
+     * @return a permutation of {@code 0..size()-1}
+     */
+    public final int[] stratified(int epoch) {
+        Random rand = this.random(epoch);
+        /*
+         * Group the indices by label, shuffle each group, then deal from the
+         * group that is furthest behind its share.
+         */
+        int[] start = new int[this.classes + 1];
+        for (int label : this.labels) {
+            start[label + 1]++;
+        }
+        for (int c = 0; c < this.classes; c++) {
+            start[c + 1] += start[c];
+        }
+        int[] grouped = new int[this.labels.length];
+        int[] fill = new int[this.classes];
+        for (int i = 0; i < this.labels.length; i++) {
+            int c = this.labels[i];
+            grouped[start[c] + fill[c]] = i;
+            fill[c]++;
+        }
+        for (int c = 0; c < this.classes; c++) {
+            shuffle(grouped, start[c], start[c + 1], rand);
+        }
+
+        int[] order = new int[this.labels.length];
+        int[] taken = new int[this.classes];
+        for (int t = 0; t < order.length; t++) {
+            int best = -1;
+            double bestShare = Double.MAX_VALUE;
+            for (int c = 0; c < this.classes; c++) {
+                int count = start[c + 1] - start[c];
+                if (taken[c] < count) {
+                    double share = (taken[c] + 0.5) / count;
+                    if (share < bestShare) {
+                        bestShare = share;
+                        best = c;
+                    }
+                }
+            }
+            order[t] = grouped[start[best] + taken[best]];
+            taken[best]++;
+        }
+        return order;
+    }
+
+    /**
+     * Returns an order of every image for {@code epoch} that shuffles runs of
+     * {@code blockSize} consecutive images but keeps each run together and in
+     * its original order.
+     *
+     * @param epoch
+     *            the epoch number
+     * @param blockSize
+     *            the number of consecutive images per run
+     *
+     * @requires <pre> blockSize > 0 </pre>
+     *
+     * @return a permutation of {@code 0..size()-1}
+     */
+    public final int[] blocks(int epoch, int blockSize) {
+        assert blockSize > 0 : "Violation of: blockSize > 0";
+        int n = this.labels.length;
+        int count = (n + blockSize - 1) / blockSize;
+        int[] blocks = new int[count];
+        for (int b = 0; b < count; b++) {
+            blocks[b] = b;
+        }
+        shuffle(blocks, 0, count, this.random(epoch));
+        int[] order = new int[n];
+        int t = 0;
+        for (int b : blocks) {
+            int end = Math.min(n, (b + 1) * blockSize);
+            for (int i = b * blockSize; i < end; i++) {
+                order[t] = i;
+                t++;
+            }
+        }
+        return order;
+    }
+
+}
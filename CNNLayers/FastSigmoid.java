@@ -0,0 +1,106 @@
+/**
+ * The logistic function with {@code e^x} replaced by a branch-free
+ * approximation: {@code x} is split into {@code k ln 2 + t} with
+ * {@code |t| <= ln 2 / 2}, {@code e^t} is computed with a degree-6
+ * polynomial, and the result is scaled by {@code 2^k} by writing the exponent
+ * bits directly. The relative error of {@code exp} is below {@code 2e-7}, so
+ * the activation is within {@code 1e-7} of the exact Sigmoid. The derivative
+ * is that of {@code Sigmoid}, including its leak.
+ *
+ * @author Sepehr Hooshiari
+ *
+ */
+public class FastSigmoid implements Activation {
+
+    /**
+     * Derivative used in place of an exact zero.
+     */
+    private static final double LEAK = 0.01;
+
+    /**
+     * {@code 1 / ln 2}.
+     */
+    private static final double LOG2E = 1.4426950408889634;
+
+    /**
+     * {@code ln 2}.
+     */
+    private static final double LN2 = 0.6931471805599453;
+
+    /**
+     * Largest magnitude of argument for which the exponent bits stay normal.
+     */
+    private static final double LIMIT = 708;
+
+    /**
+     * Bias of the exponent field of a {@code double}.
+     */
+    private static final long BIAS = 1023;
+
+    /**
+     * Position of the exponent field of a {@code double}.
+     */
+    private static final int MANTISSA = 52;
+
+    /**
+     * Returns an approximation of {@code e^x} with relative error below
+     * {@code 2e-7}. Arguments beyond {@code +-708} are clamped.
+     *
+     * @param x
+     *            the exponent
+     *
+     * @return approximately {@code e^x}
+     */
+    public static double exp(double x) {
+        final double c2 = 1.0 / 2;
+        final double c3 = 1.0 / 6;
+        final double c4 = 1.0 / 24;
+        final double c5 = 1.0 / 120;
+        final double c6 = 1.0 / 720;
+        double y = Math.max(-LIMIT, Math.min(LIMIT, x));
+        long k = Math.round(y * LOG2E);
+        double t = y - k * LN2;
+        double p = 1 + t * (1 + t * (c2 + t * (c3 + t * (c4 + t * (c5
+                + t * c6)))));
+        return p * Double.longBitsToDouble((k + BIAS) << MANTISSA);
+    }
+
+    @Override
+    public final void apply(double[] z, double[] a, int offset, int length) {
+        for (int k = offset; k < offset + length; k++) {
+            a[k] = 1 / (1 + exp(-z[k]));
+        }
+    }
+
+    @Override
+    public final void derivative(double[] z, double[] a, double[] out,
+            int offset, int length) {
+        for (int k = offset; k < offset + length; k++) {
+            double d = a[k] * (1 - a[k]);
+            if (d == 0) {
+                d = LEAK;
+            }
+            out[k] = d;
+        }
+    }
+
+    @Override
+    public final void apply(float[] z, float[] a, int offset, int length) {
+        for (int k = offset; k < offset + length; k++) {
+            a[k] = (float) (1 / (1 + exp(-z[k])));
+        }
+    }
+
+    @Override
+    public final void derivative(float[] z, float[] a, float[] out,
+            int offset, int length) {
+        for (int k = offset; k < offset + length; k++) {
+            float d = a[k] * (1 - a[k]);
+            if (d == 0) {
+                d = (float) LEAK;
+            }
+            out[k] = d;
+        }
+    }
+
+}
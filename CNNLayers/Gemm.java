@@ -0,0 +1,480 @@
+/**
+ * General matrix multiplication for the dense layers, {@code C += alpha *
+ * op(A) * op(B)} over row-major {@code double[]} matrices, where each of
+ * {@code A} and {@code B} may be read as stored or transposed.
+ *
+ * <p>
+ * The product is computed in blocks sized for the caches: a {@code KC} by
+ * {@code NC} panel of {@code B} and an {@code MC} by {@code KC} panel of
+ * {@code A} are copied ("packed") into contiguous buffers laid out in the
+ * exact order the inner kernel reads them, and the inner kernel then computes
+ * an {@code MR} by {@code NR} tile of {@code C} in local variables, which the
+ * JIT keeps in registers. Transposition only changes how the panels are
+ * packed, so all three variants share the same kernel. Products too small to
+ * repay the packing, such as a single input vector times a weight matrix,
+ * are computed with plain loops instead.
+ *
+ * @author Sepehr Hooshiari
+ *
+ */
+public final class Gemm {
+
+    /**
+     * Rows of {@code C} computed by one call of the inner kernel.
+     */
+    private static final int MR = 4;
+
+    /**
+     * Columns of {@code C} computed by one call of the inner kernel.
+     */
+    private static final int NR = 4;
+
+    /**
+     * Rows of {@code A} per packed panel, sized so the panel stays in L2.
+     */
+    private static final int MC = 64;
+
+    /**
+     * Depth of each packed panel, sized so one row of micro-panels stays in
+     * L1.
+     */
+    private static final int KC = 256;
+
+    /**
+     * Columns of {@code B} per packed panel, sized so the panel stays in L3.
+     */
+    private static final int NC = 512;
+
+    /**
+     * Number of multiply-adds below which a product is not worth packing.
+     */
+    private static final long SMALL = (long) MR * NR * KC;
+
+    /**
+     * Packing buffers of each thread, reused across calls.
+     */
+    private static final ThreadLocal<double[][]> BUFFERS = ThreadLocal
+            .withInitial(() -> new double[][] { new double[MC * KC],
+                    new double[KC * NC], new double[MR * NR] });
+
+    /**
+     * No argument constructor--private to prevent instantiation.
+     */
+    private Gemm() {
+    }
+
+    /**
+     * Computes {@code C += alpha * A * B}.
+     *
+     * @param m
+     *            rows of {@code C}
+     * @param n
+     *            columns of {@code C}
+     * @param k
+     *            columns of {@code A} and rows of {@code B}
+     * @param alpha
+     *            the factor applied to the product
+     * @param a
+     *            {@code A}, {@code m} by {@code k}
+     * @param b
+     *            {@code B}, {@code k} by {@code n}
+     * @param c
+     *            {@code C}, {@code m} by {@code n}
+     * @updates c
+     *
+     * @requires <pre> |a| >= m * k and |b| >= k * n and |c| >= m * n </pre>
+     */
+    public static void multiply(int m, int n, int k, double alpha, double[] a,
+            double[] b, double[] c) {
+        gemm(m, n, k, alpha, a, k, 1, b, n, 1, c);
+    }
+
+    /**
+     * Computes {@code C += alpha * A^T * B}.
+     *
+     * @param m
+     *            rows of {@code C}
+     * @param n
+     *            columns of {@code C}
+     * @param k
+     *            rows of {@code A} and {@code B}
+     * @param alpha
+     *            the factor applied to the product
+     * @param a
+     *            {@code A}, {@code k} by {@code m}
+     * @param b
+     *            {@code B}, {@code k} by {@code n}
+     * @param c
+     *            {@code C}, {@code m} by {@code n}
+     * @updates c
+     *
+     * @requires <pre> |a| >= k * m and |b| >= k * n and |c| >= m * n </pre>
+     */
+    public static void multiplyTN(int m, int n, int k, double alpha,
+            double[] a, double[] b, double[] c) {
+        gemm(m, n, k, alpha, a, 1, m, b, n, 1, c);
+    }
+
+    /**
+     * Computes {@code C += alpha * A * B^T}.
+     *
+     * @param m
+     *            rows of {@code C}
+     * @param n
+     *            columns of {@code C}
+     * @param k
+     *            columns of {@code A} and {@code B}
+     * @param alpha
+     *            the factor applied to the product
+     * @param a
+     *            {@code A}, {@code m} by {@code k}
+     * @param b
+     *            {@code B}, {@code n} by {@code k}
+     * @param c
+     *            {@code C}, {@code m} by {@code n}
+     * @updates c
+     *
+     * @requires <pre> |a| >= m * k and |b| >= n * k and |c| >= m * n </pre>
+     */
+    public static void multiplyNT(int m, int n, int k, double alpha,
+            double[] a, double[] b, double[] c) {
+        gemm(m, n, k, alpha, a, k, 1, b, 1, k, c);
+    }
+
+    /**
+     * Computes {@code C += alpha * A * B}, where entry {@code (i, p)} of
+     * {@code A} is {@code a[i * ars + p * acs]} and entry {@code (p, j)} of
+     * {@code B} is {@code b[p * brs + j * bcs]}.
+     *
+     * @param m
+     *            rows of {@code C}
+     * @param n
+     *            columns of {@code C}
+     * @param k
+     *            the shared dimension
+     * @param alpha
+     *            the factor applied to the product
+     * @param a
+     *            the entries of {@code A}
+     * @param ars
+     *            the distance between rows of {@code A}
+     * @param acs
+     *            the distance between columns of {@code A}
+     * @param b
+     *            the entries of {@code B}
+     * @param brs
+     *            the distance between rows of {@code B}
+     * @param bcs
+     *            the distance between columns of {@code B}
+     * @param c
+     *            the entries of {@code C}, row-major
+     * @updates c
+     */
+    private static void gemm(int m, int n, int k, double alpha, double[] a,
+            int ars, int acs, double[] b, int brs, int bcs, double[] c) {
+        if ((long) m * n * k < SMALL || m < MR || n < NR) {
+            small(m, n, k, alpha, a, ars, acs, b, brs, bcs, c);
+        } else {
+            double[][] buffers = BUFFERS.get();
+            double[] packedA = buffers[0];
+            double[] packedB = buffers[1];
+            double[] tile = buffers[2];
+            for (int jc = 0; jc < n; jc += NC) {
+                int nc = Math.min(NC, n - jc);
+                for (int pc = 0; pc < k; pc += KC) {
+                    int kc = Math.min(KC, k - pc);
+                    packB(b, brs, bcs, pc, jc, kc, nc, packedB);
+                    for (int ic = 0; ic < m; ic += MC) {
+                        int mc = Math.min(MC, m - ic);
+                        packA(a, ars, acs, ic, pc, mc, kc, packedA);
+                        for (int jr = 0; jr < nc; jr += NR) {
+                            int nr = Math.min(NR, nc - jr);
+                            for (int ir = 0; ir < mc; ir += MR) {
+                                int mr = Math.min(MR, mc - ir);
+                                kernel(kc, alpha, packedA, ir * kc, packedB,
+                                        jr * kc, c, (ic + ir) * n + jc + jr,
+                                        n, mr, nr, tile);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes {@code C += alpha * A * B} with plain loops, for products too
+     * small to pack. Arguments are as for {@code gemm}.
+     *
+     * @param m
+     *            rows of {@code C}
+     * @param n
+     *            columns of {@code C}
+     * @param k
+     *            the shared dimension
+     * @param alpha
+     *            the factor applied to the product
+     * @param a
+     *            the entries of {@code A}
+     * @param ars
+     *            the distance between rows of {@code A}
+     * @param acs
+     *            the distance between columns of {@code A}
+     * @param b
+     *            the entries of {@code B}
+     * @param brs
+     *            the distance between rows of {@code B}
+     * @param bcs
+     *            the distance between columns of {@code B}
+     * @param c
+     *            the entries of {@code C}, row-major
+     * @updates c
+     */
+    private static void small(int m, int n, int k, double alpha, double[] a,
+            int ars, int acs, double[] b, int brs, int bcs, double[] c) {
+        if (bcs == 1) {
+            // rows of B are contiguous, so add a multiple of each to C
+            for (int i = 0; i < m; i++) {
+                int ci = i * n;
+                for (int p = 0; p < k; p++) {
+                    double x = alpha * a[i * ars + p * acs];
+                    if (x != 0) {
+                        Simd.OPS.axpy(x, b, p * brs, c, ci, n);
+                    }
+                }
+            }
+        } else {
+            // columns of B are contiguous, so take dot products
+            for (int i = 0; i < m; i++) {
+                int ci = i * n;
+                for (int j = 0; j < n; j++) {
+                    int bj = j * bcs;
+                    double sum = 0;
+                    if (acs == 1 && brs == 1) {
+                        sum = Simd.OPS.dot(a, i * ars, b, bj, k);
+                    } else {
+                        for (int p = 0; p < k; p++) {
+                            sum += a[i * ars + p * acs] * b[bj + p * brs];
+                        }
+                    }
+                    c[ci + j] += alpha * sum;
+                }
+            }
+        }
+    }
+
+    /**
+     * Packs rows {@code [ic, ic + mc)} and columns {@code [pc, pc + kc)} of
+     * {@code A} into {@code packed} as consecutive {@code MR}-row
+     * micro-panels, each stored column by column and padded with zeros.
+     *
+     * @param a
+     *            the entries of {@code A}
+     * @param ars
+     *            the distance between rows of {@code A}
+     * @param acs
+     *            the distance between columns of {@code A}
+     * @param ic
+     *            the first row
+     * @param pc
+     *            the first column
+     * @param mc
+     *            the number of rows
+     * @param kc
+     *            the number of columns
+     * @param packed
+     *            the packing buffer
+     * @replaces packed
+     */
+    private static void packA(double[] a, int ars, int acs, int ic, int pc,
+            int mc, int kc, double[] packed) {
+        int t = 0;
+        for (int ir = 0; ir < mc; ir += MR) {
+            int mr = Math.min(MR, mc - ir);
+            for (int p = 0; p < kc; p++) {
+                int col = (pc + p) * acs;
+                for (int r = 0; r < MR; r++) {
+                    double v = 0;
+                    if (r < mr) {
+                        v = a[(ic + ir + r) * ars + col];
+                    }
+                    packed[t] = v;
+                    t++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Packs rows {@code [pc, pc + kc)} and columns {@code [jc, jc + nc)} of
+     * {@code B} into {@code packed} as consecutive {@code NR}-column
+     * micro-panels, each stored row by row and padded with zeros.
+     *
+     * @param b
+     *            the entries of {@code B}
+     * @param brs
+     *            the distance between rows of {@code B}
+     * @param bcs
+     *            the distance between columns of {@code B}
+     * @param pc
+     *            the first row
+     * @param jc
+     *            the first column
+     * @param kc
+     *            the number of rows
+     * @param nc
+     *            the number of columns
+     * @param packed
+     *            the packing buffer
+     * @replaces packed
+     */
+    private static void packB(double[] b, int brs, int bcs, int pc, int jc,
+            int kc, int nc, double[] packed) {
+        int t = 0;
+        for (int jr = 0; jr < nc; jr += NR) {
+            int nr = Math.min(NR, nc - jr);
+            for (int p = 0; p < kc; p++) {
+                int row = (pc + p) * brs;
+                for (int s = 0; s < NR; s++) {
+                    double v = 0;
+                    if (s < nr) {
+                        v = b[row + (jc + jr + s) * bcs];
+                    }
+                    packed[t] = v;
+                    t++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds {@code alpha} times the product of one packed micro-panel of
+     * {@code A} and one of {@code B} to the {@code mr} by {@code nr} tile of
+     * {@code C} at {@code ci}. The whole {@code MR} by {@code NR} tile is
+     * accumulated in local variables.
+     *
+     * @param kc
+     *            the depth of the micro-panels
+     * @param alpha
+     *            the factor applied to the product
+     * @param pa
+     *            the packed panel of {@code A}
+     * @param ai
+     *            the start of the micro-panel of {@code A}
+     * @param pb
+     *            the packed panel of {@code B}
+     * @param bi
+     *            the start of the micro-panel of {@code B}
+     * @param c
+     *            the entries of {@code C}
+     * @param ci
+     *            the index of the top left entry of the tile
+     * @param ldc
+     *            the distance between rows of {@code C}
+     * @param mr
+     *            the number of rows of the tile inside {@code C}
+     * @param nr
+     *            the number of columns of the tile inside {@code C}
+     * @param tile
+     *            scratch space for a partial tile
+     * @updates c
+     */
+    private static void kernel(int kc, double alpha, double[] pa, int ai,
+            double[] pb, int bi, double[] c, int ci, int ldc, int mr, int nr,
+            double[] tile) {
+        final int two = 2;
+        final int three = 3;
+        double c00 = 0;
+        double c01 = 0;
+        double c02 = 0;
+        double c03 = 0;
+        double c10 = 0;
+        double c11 = 0;
+        double c12 = 0;
+        double c13 = 0;
+        double c20 = 0;
+        double c21 = 0;
+        double c22 = 0;
+        double c23 = 0;
+        double c30 = 0;
+        double c31 = 0;
+        double c32 = 0;
+        double c33 = 0;
+        int x = ai;
+        int y = bi;
+        for (int p = 0; p < kc; p++) {
+            double a0 = pa[x];
+            double a1 = pa[x + 1];
+            double a2 = pa[x + two];
+            double a3 = pa[x + three];
+            double b0 = pb[y];
+            double b1 = pb[y + 1];
+            double b2 = pb[y + two];
+            double b3 = pb[y + three];
+            c00 += a0 * b0;
+            c01 += a0 * b1;
+            c02 += a0 * b2;
+            c03 += a0 * b3;
+            c10 += a1 * b0;
+            c11 += a1 * b1;
+            c12 += a1 * b2;
+            c13 += a1 * b3;
+            c20 += a2 * b0;
+            c21 += a2 * b1;
+            c22 += a2 * b2;
+            c23 += a2 * b3;
+            c30 += a3 * b0;
+            c31 += a3 * b1;
+            c32 += a3 * b2;
+            c33 += a3 * b3;
+            x += MR;
+            y += NR;
+        }
+        if (mr == MR && nr == NR) {
+            int r0 = ci;
+            int r1 = r0 + ldc;
+            int r2 = r1 + ldc;
+            int r3 = r2 + ldc;
+            c[r0] += alpha * c00;
+            c[r0 + 1] += alpha * c01;
+            c[r0 + two] += alpha * c02;
+            c[r0 + three] += alpha * c03;
+            c[r1] += alpha * c10;
+            c[r1 + 1] += alpha * c11;
+            c[r1 + two] += alpha * c12;
+            c[r1 + three] += alpha * c13;
+            c[r2] += alpha * c20;
+            c[r2 + 1] += alpha * c21;
+            c[r2 + two] += alpha * c22;
+            c[r2 + three] += alpha * c23;
+            c[r3] += alpha * c30;
+            c[r3 + 1] += alpha * c31;
+            c[r3 + two] += alpha * c32;
+            c[r3 + three] += alpha * c33;
+        } else {
+            // an edge tile: only part of it lies inside C
+            tile[0] = c00;
+            tile[1] = c01;
+            tile[two] = c02;
+            tile[three] = c03;
+            tile[MR] = c10;
+            tile[MR + 1] = c11;
+            tile[MR + two] = c12;
+            tile[MR + three] = c13;
+            tile[two * MR] = c20;
+            tile[two * MR + 1] = c21;
+            tile[two * MR + two] = c22;
+            tile[two * MR + three] = c23;
+            tile[three * MR] = c30;
+            tile[three * MR + 1] = c31;
+            tile[three * MR + two] = c32;
+            tile[three * MR + three] = c33;
+            for (int r = 0; r < mr; r++) {
+                for (int s = 0; s < nr; s++) {
+                    c[ci + r * ldc + s] += alpha * tile[r * NR + s];
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,125 @@
+import components.simplewriter.SimpleWriter;
+import components.simplewriter.SimpleWriter1L;
+
+/**
+ * Compares the time it takes to reach a test accuracy when training one
+ * image at a time on one thread, with {@code NetLink1.train}, and on every
+ * core with {@code HogwildTrainer}, with plain and with opaque weight
+ * access. Every run starts from the same weights and visits the same epoch
+ * orders; only training time is counted, not testing.
+ *
+ * @author Sepehr Hooshiari
+ *
+ */
+public final class HogwildBenchmark {
+
+    /**
+     * No argument constructor--private to prevent instantiation.
+     */
+    private HogwildBenchmark() {
+    }
+
+    /**
+     * Returns a network of two layers, 784 to 32 to 10, compiled into a plan.
+     *
+     * @return the plan
+     */
+    private static NetworkPlan network() {
+        final int in = 784;
+        final int hidden = 32;
+        final int out = 10;
+        final double rate = 0.1;
+        CNNLayers network = new CNNLayers1();
+        network.addLayer(new CNNLayers1(in, hidden, 1, rate));
+        network.addLayer(new CNNLayers1(hidden, out, 2, rate));
+        return NetworkPlan.compile(network);
+    }
+
+    /**
+     * Trains a fresh network epoch by epoch until it reaches {@code target}
+     * accuracy on {@code tests} or has run {@code epochs} epochs, and reports
+     * each epoch and the training time to {@code out}.
+     *
+     * @param name
+     *            the name of the run
+     * @param threads
+     *            the number of Hogwild workers, or 0 to train with
+     *            {@code NetLink1.train}
+     * @param opaque
+     *            whether the workers use opaque weight access
+     * @param train
+     *            the training images
+     * @param tests
+     *            the test images
+     * @param out
+     *            the output stream
+     */
+    private static void run(String name, int threads, boolean opaque,
+            LabeledDataset train, LabeledDataset tests, SimpleWriter out) {
+        final double scalar = 255;
+        final double target = 0.9;
+        final int epochs = 10;
+        final long seed = 123;
+        final double nanosPerMilli = 1e6;
+        NetworkPlan plan = network();
+        NetLink1 builder = new NetLink1(new CNNLayers1(), scalar);
+        EpochSampler sampler = new EpochSampler(train, seed);
+        HogwildTrainer trainer = null;
+        if (threads > 0) {
+            trainer = new HogwildTrainer(plan, scalar, threads, opaque);
+        }
+        long nanos = 0;
+        float accuracy = 0;
+        int epoch = 0;
+        while (epoch < epochs && accuracy < target) {
+            int[] order = sampler.uniform(epoch);
+            long start = System.nanoTime();
+            if (trainer == null) {
+                builder.train(plan, train, order);
+            } else {
+                trainer.train(train, order);
+            }
+            nanos += System.nanoTime() - start;
+            accuracy = builder.test(plan, tests);
+            epoch++;
+            out.println(name + ": epoch " + epoch + ", accuracy " + accuracy
+                    + ", " + Math.round(nanos / nanosPerMilli) + " ms");
+        }
+        if (trainer != null) {
+            trainer.close();
+        }
+        if (accuracy >= target) {
+            out.println(name + ": reached " + target + " in "
+                    + Math.round(nanos / nanosPerMilli) + " ms");
+        } else {
+            out.println(name + ": did not reach " + target + " in " + epochs
+                    + " epochs");
+        }
+    }
+
+    /**
+     * Main method.
+     *
+     * @param args
+     */
+    public static void main(String[] args) {
+        SimpleWriter out = new SimpleWriter1L();
+        CNNLayers layers = new CNNLayers1();
+        layers.analyze("data/mnist_test.csv");
+        LabeledDataset tests = layers.getDataset();
+        layers.analyze("data/mnist_train.csv");
+        LabeledDataset train = layers.getDataset();
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        out.println("Training images size: " + train.size());
+        out.println("Threads: " + threads);
+        run("NetLink1.train", 0, false, train, tests, out);
+        run("Hogwild, plain", threads, false, train, tests, out);
+        run("Hogwild, opaque", threads, true, train, tests, out);
+
+        /*
+         * Close output stream
+         */
+        out.close();
+    }
+}
@@ -0,0 +1,268 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Trains the layers of a {@code NetworkPlan} on several cores at once without
+ * batches or locks, after the Hogwild! scheme of Niu, Recht, Re and Wright.
+ * Every worker repeatedly takes the next image of a shared order, passes it
+ * forward and backward with its own activations and derivatives, and applies
+ * the update to the shared weights straight away through
+ * {@code applyUpdate}.
+ *
+ * <p>
+ * With sparse inputs such as MNIST, an update only changes the rows of the
+ * first layer's weights whose pixels are non-zero, so two workers seldom
+ * write the same weight, and when they do the cost is one lost update rather
+ * than a wait. Unlike {@code DataParallelTrainer}, runs with more than one
+ * worker are not reproducible.
+ *
+ * @author Sepehr Hooshiari
+ *
+ */
+public final class HogwildTrainer implements AutoCloseable {
+
+    /**
+     * Passed as the loss with respect to the inputs of the first layer, which
+     * nothing needs.
+     */
+    private static final double[] NO_LOSS = {};
+
+    /**
+     * The layers being trained.
+     */
+    private final NetworkPlan plan;
+
+    /**
+     * In case input values become too large.
+     */
+    private final double scalar;
+
+    /**
+     * Whether weights are read and written with opaque rather than plain
+     * access.
+     */
+    private final boolean opaque;
+
+    /**
+     * The workers, one per thread.
+     */
+    private final Worker[] workers;
+
+    /**
+     * The threads the workers run on.
+     */
+    private final ForkJoinPool pool;
+
+    /**
+     * Position in {@code order} of the next image to take.
+     */
+    private final AtomicInteger next;
+
+    /**
+     * The images being trained on.
+     */
+    private LabeledDataset images;
+
+    /**
+     * Indices into {@code images} in the order they are taken.
+     */
+    private int[] order;
+
+    /**
+     * The activations and derivatives of one worker.
+     */
+    private final class Worker {
+
+        /**
+         * Scaled input image.
+         */
+        private final double[] input;
+
+        /**
+         * Label of the image.
+         */
+        private final int[] label;
+
+        /**
+         * Activations of each layer.
+         */
+        private final double[][] outputs;
+
+        /**
+         * Activation derivatives of each layer, turned into the losses with
+         * respect to the weighted sums on the way back.
+         */
+        private final double[][] deltas;
+
+        /**
+         * Losses with respect to the inputs of the layer being updated.
+         */
+        private final double[] loss;
+
+        /**
+         * Constructor for {@code this}.
+         */
+        Worker() {
+            NetworkPlan layers = HogwildTrainer.this.plan;
+            this.input = new double[layers.inputLength()];
+            this.label = new int[1];
+            this.outputs = new double[layers.size()][];
+            this.deltas = new double[layers.size()][];
+            for (int k = 0; k < layers.size(); k++) {
+                this.outputs[k] = new double[layers.width(k + 1)];
+                this.deltas[k] = new double[layers.width(k + 1)];
+            }
+            this.loss = new double[layers.widest(0, layers.size())];
+        }
+
+        /**
+         * Trains on images from the shared order until none are left.
+         */
+        void run() {
+            int[] visit = HogwildTrainer.this.order;
+            int p = HogwildTrainer.this.next.getAndIncrement();
+            while (p < visit.length) {
+                this.step(visit[p]);
+                p = HogwildTrainer.this.next.getAndIncrement();
+            }
+        }
+
+        /**
+         * Passes image {@code i} forward and backward, updating the shared
+         * weights.
+         *
+         * @param i
+         *            the index of the image
+         */
+        private void step(int i) {
+            NetworkPlan layers = HogwildTrainer.this.plan;
+            LabeledDataset data = HogwildTrainer.this.images;
+            int last = layers.size() - 1;
+            data.copyImage(i, this.input, 0, 1.0 / HogwildTrainer.this.scalar);
+            this.label[0] = data.label(i);
+            layers.forwardBatch(0, layers.size(), this.input, 1, this.outputs,
+                    this.deltas);
+            layers.errorBatch(this.outputs[last], this.deltas[last],
+                    this.label, 1, this.loss);
+
+            // the same as backwardBatch, but updating the weights in place
+            boolean opaque = HogwildTrainer.this.opaque;
+            for (int k = last; k > 0; k--) {
+                layers.layer(k).applyUpdate(this.outputs[k - 1],
+                        this.deltas[k], this.loss, opaque);
+                layers.layer(k - 1).deltaBatch(this.outputs[k - 1],
+                        this.deltas[k - 1], this.loss, 1);
+            }
+            layers.layer(0).applyUpdate(this.input, this.deltas[0], NO_LOSS,
+                    opaque);
+        }
+
+    }
+
+    /**
+     * Runs every worker in {@code [lo, hi)} on the pool.
+     */
+    private final class Run extends RecursiveAction {
+
+        /**
+         * Generated serial version ID.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * First worker of the run.
+         */
+        private final int lo;
+
+        /**
+         * One past the last worker of the run.
+         */
+        private final int hi;
+
+        /**
+         * Constructor for {@code this}.
+         *
+         * @param lo
+         *            first worker of the run
+         * @param hi
+         *            one past the last worker of the run
+         */
+        Run(int lo, int hi) {
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.hi - this.lo > 1) {
+                int mid = (this.lo + this.hi) >>> 1;
+                invokeAll(new Run(this.lo, mid), new Run(mid, this.hi));
+            } else if (this.hi > this.lo) {
+                HogwildTrainer.this.workers[this.lo].run();
+            }
+        }
+
+    }
+
+    /**
+     * Constructor for {@code this}.
+     *
+     * @param plan
+     *            the layers to train
+     * @param scalar
+     *            the factor the pixels are divided by
+     * @param threads
+     *            the number of workers
+     * @param opaque
+     *            whether weights are read and written with opaque rather than
+     *            plain access
+     *
+     * @requires <pre> threads > 0 and plan.size() > 0 </pre>
+     */
+    public HogwildTrainer(NetworkPlan plan, double scalar, int threads,
+            boolean opaque) {
+        assert threads > 0 : "Violation of: threads > 0";
+        assert plan.size() > 0 : "Violation of: plan.size() > 0";
+        this.plan = plan;
+        this.scalar = scalar;
+        this.opaque = opaque;
+        this.workers = new Worker[threads];
+        for (int w = 0; w < threads; w++) {
+            this.workers[w] = new Worker();
+        }
+        this.pool = new ForkJoinPool(threads);
+        this.next = new AtomicInteger();
+    }
+
+    /**
+     * Trains the layers to reduce margin of error on every image of
+     * {@code order} once, updating the weights after each image. The images
+     * are handed out in the given order but, with more than one worker,
+     * finish in no fixed order.
+     *
+     * @param images
+     *            the training images
+     * @param order
+     *            indices into {@code images}
+     *
+     * @requires <pre> the image size of images is the input length of the
+     * plan </pre>
+     */
+    public void train(LabeledDataset images, int[] order) {
+        assert images.rows() * images.columns() == this.plan.inputLength() : ""
+                + "Violation of: images fit the first layer";
+        this.images = images;
+        this.order = order;
+        this.next.set(0);
+        this.pool.invoke(new Run(0, this.workers.length));
+        this.images = null;
+        this.order = null;
+    }
+
+    @Override
+    public void close() {
+        this.pool.shutdown();
+    }
+
+}
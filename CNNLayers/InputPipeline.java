@@ -0,0 +1,227 @@
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Background input stage for training. A producer thread walks a dataset in
+ * a given order and scales and flattens each run of {@code batch} images into
+ * one of {@code depth} reusable slots, while the consumer trains on slots that
+ * are already full. Full slots are handed over through a bounded ring, and the
+ * consumer hands each slot back once it is done with it, so after construction
+ * neither side allocates and data preparation overlaps compute.
+ *
+ * @author Sepehr Hooshiari
+ *
+ */
+public class InputPipeline implements AutoCloseable {
+
+    /**
+     * Reusable buffer for one batch of scaled, flattened images.
+     */
+    public static final class Slot {
+
+        /**
+         * Scaled pixels of every image in the batch, back to back.
+         */
+        private final double[] inputs;
+
+        /**
+         * Label of every image in the batch.
+         */
+        private final int[] labels;
+
+        /**
+         * Number of images currently in the batch.
+         */
+        private int size;
+
+        /**
+         * Constructor for {@code this}.
+         *
+         * @param batch
+         *            the most images the slot holds
+         * @param length
+         *            the number of pixels in each image
+         */
+        Slot(int batch, int length) {
+            this.inputs = new double[batch * length];
+            this.labels = new int[batch];
+            this.size = 0;
+        }
+
+        /**
+         * Returns the scaled pixels of every image in {@code this}, back to
+         * back in row-major order. Only the first {@code size()} images are
+         * meaningful.
+         *
+         * @return the scaled pixels
+         */
+        public double[] inputs() {
+            return this.inputs;
+        }
+
+        /**
+         * Returns the label of image {@code k} of {@code this}.
+         *
+         * @param k
+         *            the index of the image in the batch
+         *
+         * @requires <pre> 0 <= k < this.size() </pre>
+         *
+         * @return the label
+         */
+        public int label(int k) {
+            return this.labels[k];
+        }
+
+        /**
+         * Returns the number of images in {@code this}.
+         *
+         * @return the number of images
+         */
+        public int size() {
+            return this.size;
+        }
+
+    }
+
+    /**
+     * Marker handed to the consumer once every image has been produced.
+     */
+    private static final Slot END = new Slot(0, 0);
+
+    /**
+     * Slots waiting to be filled.
+     */
+    private final BlockingQueue<Slot> free;
+
+    /**
+     * Slots waiting to be trained on, in order.
+     */
+    private final BlockingQueue<Slot> full;
+
+    /**
+     * The producer thread.
+     */
+    private final Thread producer;
+
+    /**
+     * Failure of the producer, rethrown to the consumer as the cause of an
+     * {@code AssertionError}.
+     */
+    private volatile Throwable failure;
+
+    /**
+     * Whether the consumer has seen {@code END}.
+     */
+    private boolean done;
+
+    /**
+     * Constructor for {@code this}; starts the producer thread.
+     *
+     * @param images
+     *            the images to produce
+     * @param order
+     *            indices into {@code images}, in the order to produce them
+     * @param scale
+     *            the factor every pixel is multiplied by
+     * @param depth
+     *            the number of slots, i.e. how far the producer may run ahead
+     * @param batch
+     *            the most images per slot
+     *
+     * @requires <pre> depth > 0 and batch > 0 </pre>
+     */
+    public InputPipeline(LabeledDataset images, int[] order, double scale,
+            int depth, int batch) {
+        assert depth > 0 : "Violation of: depth > 0";
+        assert batch > 0 : "Violation of: batch > 0";
+        final int length = images.rows() * images.columns();
+        this.free = new ArrayBlockingQueue<>(depth);
+        this.full = new ArrayBlockingQueue<>(depth + 1);
+        for (int i = 0; i < depth; i++) {
+            this.free.add(new Slot(batch, length));
+        }
+        this.done = false;
+        this.producer = new Thread(() -> {
+            try {
+                int next = 0;
+                while (next < order.length) {
+                    Slot slot = this.free.take();
+                    int n = Math.min(batch, order.length - next);
+                    for (int k = 0; k < n; k++) {
+                        int i = order[next + k];
+                        images.copyImage(i, slot.inputs, k * length, scale);
+                        slot.labels[k] = images.label(i);
+                    }
+                    slot.size = n;
+                    next += n;
+                    this.full.put(slot);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException | Error e) {
+                // e.g. a violated precondition of copyImage under -ea
+                this.failure = e;
+            } finally {
+                // full has one more place than there are slots, so never blocks
+                this.full.offer(END);
+            }
+        }, "input-pipeline");
+        this.producer.setDaemon(true);
+        this.producer.start();
+    }
+
+    /**
+     * Returns the next full slot, waiting for the producer if it is behind,
+     * or null once every image has been produced. If the producer failed, its
+     * failure is thrown as the cause of an {@code AssertionError} in place of
+     * the end.
+     *
+     * @return the next slot, or null at the end
+     */
+    public final Slot take() {
+        Slot slot = null;
+        if (!this.done) {
+            try {
+                slot = this.full.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new AssertionError("Violation of: not interrupted");
+            }
+            if (slot == END) {
+                this.done = true;
+                slot = null;
+                if (this.failure != null) {
+                    throw new AssertionError(
+                            "Violation of: every image can be produced",
+                            this.failure);
+                }
+            }
+        }
+        return slot;
+    }
+
+    /**
+     * Hands {@code slot} back to the producer to be refilled.
+     *
+     * @param slot
+     *            a slot returned by {@code take}
+     *
+     * @requires <pre> slot was returned by this.take() and is not in use
+     * </pre>
+     */
+    public final void release(Slot slot) {
+        this.free.add(slot);
+    }
+
+    @Override
+    public final void close() {
+        this.producer.interrupt();
+        try {
+            this.producer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -0,0 +1,103 @@
+/**
+ * Labeled image dataset that is loaded once and then read by index. (Note: by
+ * package-wide convention, all references are non-null.)
+ *
+ * @author Sepehr Hooshiari
+ *
+ * @mathsubtypes <pre>
+ * LABELED_IMAGE is (
+ *   label: integer,
+ *   pixels: matrix of doubles
+ *  )
+ * </pre>
+ * @mathmodel type LabeledDataset is modeled by string of LABELED_IMAGE
+ */
+public interface LabeledDataset {
+
+    /**
+     * Returns the number of images in {@code this}.
+     *
+     * @return the number of images
+     */
+    int size();
+
+    /**
+     * Returns the number of rows in each image.
+     *
+     * @return rows per image
+     */
+    int rows();
+
+    /**
+     * Returns the number of columns in each image.
+     *
+     * @return columns per image
+     */
+    int columns();
+
+    /**
+     * Returns the label of image {@code i}.
+     *
+     * @param i
+     *            the index of the image
+     *
+     * @requires <pre> 0 <= i < this.size() </pre>
+     *
+     * @return the label of image {@code i}
+     */
+    int label(int i);
+
+    /**
+     * Returns a new matrix holding the pixels of image {@code i}.
+     *
+     * @param i
+     *            the index of the image
+     *
+     * @requires <pre> 0 <= i < this.size() </pre>
+     *
+     * @return the pixels of image {@code i}
+     */
+    double[][] image(int i);
+
+    /**
+     * Copies the pixels of image {@code i}, each multiplied by {@code scale},
+     * into {@code target} in row-major order starting at {@code offset}. No
+     * intermediate matrix is allocated, so this is how images should be fed
+     * to the first layer.
+     *
+     * @param i
+     *            the index of the image
+     * @param target
+     *            the array to copy into
+     * @param offset
+     *            where the first pixel goes in {@code target}
+     * @param scale
+     *            the factor every pixel is multiplied by
+     * @updates target
+     *
+     * @requires <pre> 0 <= i < this.size() and
+     * offset + this.rows() * this.columns() <= target.length </pre>
+     */
+    void copyImage(int i, double[] target, int offset, double scale);
+
+    /**
+     * Copies the pixels of image {@code i}, each multiplied by {@code scale},
+     * into the single-precision array {@code target} in row-major order
+     * starting at {@code offset}.
+     *
+     * @param i
+     *            the index of the image
+     * @param target
+     *            the array to copy into
+     * @param offset
+     *            where the first pixel goes in {@code target}
+     * @param scale
+     *            the factor every pixel is multiplied by
+     * @updates target
+     *
+     * @requires <pre> 0 <= i < this.size() and
+     * offset + this.rows() * this.columns() <= target.length </pre>
+     */
+    void copyImage(int i, float[] target, int offset, float scale);
+
+}
@@ -0,0 +1,174 @@
+import java.util.Arrays;
+
+/**
+ * {@code LabeledDataset} represented as one contiguous {@code double[]} of
+ * pixels and a parallel {@code int[]} of labels.
+ *
+ * @correspondence <pre>
+ * this = [image i has label $this.labels[i] and the pixels
+ *  $this.pixels[i * rows * columns, (i + 1) * rows * columns)
+ *  in row-major order, for 0 <= i < $this.size]
+ * </pre>
+ * @convention {@code
+ * [$this.size <= $this.labels.length and
+ *  $this.pixels.length = $this.labels.length * $this.rows * $this.columns]
+ * }
+ *
+ * @author Sepehr Hooshiari
+ *
+ */
+public class LabeledDataset1 implements LabeledDataset {
+
+    /**
+     * Initial number of images the store can hold before growing.
+     */
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /**
+     * Pixels of every image, stored back to back in row-major order.
+     */
+    private double[] pixels;
+
+    /**
+     * Label of every image.
+     */
+    private int[] labels;
+
+    /**
+     * Number of images stored.
+     */
+    private int size;
+
+    /**
+     * Number of rows in each image.
+     */
+    private final int rows;
+
+    /**
+     * Number of columns in each image.
+     */
+    private final int columns;
+
+    /**
+     * Constructor for an empty {@code this}.
+     *
+     * @param rows
+     *            number of rows in each image
+     * @param columns
+     *            number of columns in each image
+     */
+    public LabeledDataset1(int rows, int columns) {
+        this.rows = rows;
+        this.columns = columns;
+        this.size = 0;
+        this.labels = new int[INITIAL_CAPACITY];
+        this.pixels = new double[INITIAL_CAPACITY * rows * columns];
+    }
+
+    /**
+     * Constructor for {@code this} over already decoded storage. The arrays
+     * are used directly, not copied.
+     *
+     * @param pixels
+     *            pixels of every image, back to back in row-major order
+     * @param labels
+     *            label of every image
+     * @param rows
+     *            number of rows in each image
+     * @param columns
+     *            number of columns in each image
+     *
+     * @requires <pre> pixels.length = labels.length * rows * columns </pre>
+     */
+    public LabeledDataset1(double[] pixels, int[] labels, int rows,
+            int columns) {
+        assert pixels.length == labels.length * rows
+                * columns : "Violation of: pixels match labels";
+        this.rows = rows;
+        this.columns = columns;
+        this.size = labels.length;
+        this.labels = labels;
+        this.pixels = pixels;
+    }
+
+    /**
+     * Appends an image to the end of {@code this}.
+     *
+     * @param label
+     *            the label of the image
+     * @param image
+     *            the pixels of the image in row-major order
+     *
+     * @requires <pre> image.length = this.rows() * this.columns() </pre>
+     */
+    public final void add(int label, double[] image) {
+        assert image.length == this.rows
+                * this.columns : "Violation of: image has rows * columns pixels";
+        if (this.size == this.labels.length) {
+            int capacity = 2 * this.labels.length;
+            this.labels = Arrays.copyOf(this.labels, capacity);
+            this.pixels = Arrays.copyOf(this.pixels,
+                    capacity * this.rows * this.columns);
+        }
+        this.labels[this.size] = label;
+        System.arraycopy(image, 0, this.pixels,
+                this.size * this.rows * this.columns, image.length);
+        this.size++;
+    }
+
+    @Override
+    public final int size() {
+        return this.size;
+    }
+
+    @Override
+    public final int rows() {
+        return this.rows;
+    }
+
+    @Override
+    public final int columns() {
+        return this.columns;
+    }
+
+    @Override
+    public final int label(int i) {
+        assert 0 <= i && i < this.size : "Violation of: 0 <= i < |this|";
+        return this.labels[i];
+    }
+
+    @Override
+    public final double[][] image(int i) {
+        assert 0 <= i && i < this.size : "Violation of: 0 <= i < |this|";
+        double[][] m = new double[this.rows][this.columns];
+        int p = i * this.rows * this.columns;
+        for (int k = 0; k < this.rows; k++) {
+            System.arraycopy(this.pixels, p, m[k], 0, this.columns);
+            p += this.columns;
+        }
+        return m;
+    }
+
+    @Override
+    public final void copyImage(int i, double[] target, int offset,
+            double scale) {
+        assert 0 <= i && i < this.size : "Violation of: 0 <= i < |this|";
+        int length = this.rows * this.columns;
+        int p = i * length;
+        for (int k = 0; k < length; k++) {
+            target[offset + k] = this.pixels[p + k] * scale;
+        }
+    }
+
+    @Override
+    public final void copyImage(int i, float[] target, int offset,
+            float scale) {
+        assert 0 <= i && i < this.size : "Violation of: 0 <= i < |this|";
+        int length = this.rows * this.columns;
+        int p = i * length;
+        for (int k = 0; k < length; k++) {
+            target[offset + k] = (float) (this.pixels[p + k] * scale);
+        }
+    }
+
+}
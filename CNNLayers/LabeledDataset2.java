@@ -0,0 +1,280 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * {@code LabeledDataset} backed by memory-mapped MNIST IDX files, or by any
+ * other mapped regions of unsigned bytes such as a {@code DatasetCache} file.
+ * Pixels and labels stay in the mapped files as unsigned bytes and are only
+ * decoded when read, so loading costs a few system calls and the page cache
+ * is shared by every process that maps the same files.
+ *
+ * @correspondence <pre>
+ * this = [image i has label $this.labels[i] and the pixels
+ *  $this.pixels[i * rows * columns, (i + 1) * rows * columns)
+ *  read as unsigned bytes in row-major order, for 0 <= i < $this.size]
+ * </pre>
+ * @convention {@code
+ * [$this.labels.limit() = $this.size and
+ *  $this.pixels.limit() = $this.size * $this.rows * $this.columns]
+ * }
+ *
+ * @author Sepehr Hooshiari
+ *
+ */
+public class LabeledDataset2 implements LabeledDataset {
+
+    /**
+     * Magic number that starts an IDX file of unsigned byte images.
+     */
+    private static final int IMAGES_MAGIC = 0x00000803;
+
+    /**
+     * Magic number that starts an IDX file of unsigned byte labels.
+     */
+    private static final int LABELS_MAGIC = 0x00000801;
+
+    /**
+     * Header length of an IDX images file: magic, count, rows, columns.
+     */
+    private static final int IMAGES_HEADER = 16;
+
+    /**
+     * Header length of an IDX labels file: magic, count.
+     */
+    private static final int LABELS_HEADER = 8;
+
+    /**
+     * Mask that reads a {@code byte} as an unsigned value.
+     */
+    private static final int UNSIGNED = 0xFF;
+
+    /**
+     * Pixels of every image as unsigned bytes.
+     */
+    private final ByteBuffer pixels;
+
+    /**
+     * Label of every image as an unsigned byte.
+     */
+    private final ByteBuffer labels;
+
+    /**
+     * Number of images.
+     */
+    private final int size;
+
+    /**
+     * Number of rows in each image.
+     */
+    private final int rows;
+
+    /**
+     * Number of columns in each image.
+     */
+    private final int columns;
+
+    /**
+     * Maps the whole of {@code file} read-only.
+     *
+     * @param file
+     *            the name of the file
+     *
+     * @return the mapped contents of {@code file}
+     */
+    private static MappedByteBuffer map(String file) {
+        try (FileChannel channel = FileChannel.open(Paths.get(file),
+                StandardOpenOption.READ)) {
+            /*
+             * The mapping stays valid after the channel is closed.
+             */
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+        } catch (IOException e) {
+            throw new AssertionError("Violation of: can read from file");
+        }
+    }
+
+    /**
+     * Returns the region of {@code buffer} starting at {@code offset} and
+     * holding {@code length} bytes.
+     *
+     * @param buffer
+     *            the whole buffer
+     * @param offset
+     *            where the region starts
+     * @param length
+     *            number of bytes in the region
+     *
+     * @return a read-only view of the region
+     */
+    private static ByteBuffer region(ByteBuffer buffer, int offset,
+            int length) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.limit(offset + length);
+        return view.slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Constructor for {@code this} over the given IDX files.
+     *
+     * @param imagesFile
+     *            the name of the IDX file of images (e.g.
+     *            {@code train-images-idx3-ubyte})
+     * @param labelsFile
+     *            the name of the IDX file of labels (e.g.
+     *            {@code train-labels-idx1-ubyte})
+     */
+    public LabeledDataset2(String imagesFile, String labelsFile) {
+        this(map(imagesFile), map(labelsFile));
+    }
+
+    /**
+     * Constructor for {@code this} over IDX contents that are already in
+     * memory or mapped.
+     *
+     * @param imagesFile
+     *            the whole IDX images file
+     * @param labelsFile
+     *            the whole IDX labels file
+     */
+    public LabeledDataset2(ByteBuffer imagesFile, ByteBuffer labelsFile) {
+        // IDX headers are big-endian whatever order the caller's buffer uses
+        ByteBuffer images = imagesFile.duplicate().order(ByteOrder.BIG_ENDIAN);
+        ByteBuffer labels = labelsFile.duplicate().order(ByteOrder.BIG_ENDIAN);
+        if (images.getInt(0) != IMAGES_MAGIC
+                || labels.getInt(0) != LABELS_MAGIC) {
+            throw new AssertionError("Violation of: files are in IDX format");
+        }
+        final int rowsAt = 8;
+        final int columnsAt = 12;
+        this.size = images.getInt(4);
+        this.rows = images.getInt(rowsAt);
+        this.columns = images.getInt(columnsAt);
+        if (labels.getInt(4) != this.size) {
+            throw new AssertionError(
+                    "Violation of: one label for every image");
+        }
+        this.pixels = region(images, IMAGES_HEADER,
+                this.size * this.rows * this.columns);
+        this.labels = region(labels, LABELS_HEADER, this.size);
+    }
+
+    /**
+     * Constructor for {@code this} over bare regions of unsigned bytes, such
+     * as those of a mapped dataset cache. The regions are viewed, not copied.
+     *
+     * @param pixels
+     *            pixels of every image, back to back in row-major order, from
+     *            the position to the limit
+     * @param labels
+     *            label of every image, from the position to the limit
+     * @param rows
+     *            number of rows in each image
+     * @param columns
+     *            number of columns in each image
+     *
+     * @requires <pre> pixels.remaining() =
+     *  labels.remaining() * rows * columns </pre>
+     */
+    public LabeledDataset2(ByteBuffer pixels, ByteBuffer labels, int rows,
+            int columns) {
+        assert pixels.remaining() == labels.remaining() * rows
+                * columns : "Violation of: pixels match labels";
+        this.size = labels.remaining();
+        this.rows = rows;
+        this.columns = columns;
+        this.pixels = pixels.slice().asReadOnlyBuffer();
+        this.labels = labels.slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns the pixels of every image as a read-only view of unsigned
+     * bytes, back to back in row-major order. No pixels are copied.
+     *
+     * @return the pixels of {@code this}
+     */
+    public final ByteBuffer pixels() {
+        return this.pixels.duplicate();
+    }
+
+    /**
+     * Returns pixel {@code p} of image {@code i} as a value in [0, 255].
+     *
+     * @param i
+     *            the index of the image
+     * @param p
+     *            the row-major index of the pixel
+     *
+     * @requires <pre> 0 <= i < this.size() and
+     * 0 <= p < this.rows() * this.columns() </pre>
+     *
+     * @return the pixel value
+     */
+    public final int pixel(int i, int p) {
+        return this.pixels.get(i * this.rows * this.columns + p) & UNSIGNED;
+    }
+
+    @Override
+    public final int size() {
+        return this.size;
+    }
+
+    @Override
+    public final int rows() {
+        return this.rows;
+    }
+
+    @Override
+    public final int columns() {
+        return this.columns;
+    }
+
+    @Override
+    public final int label(int i) {
+        assert 0 <= i && i < this.size : "Violation of: 0 <= i < |this|";
+        return this.labels.get(i) & UNSIGNED;
+    }
+
+    @Override
+    public final double[][] image(int i) {
+        assert 0 <= i && i < this.size : "Violation of: 0 <= i < |this|";
+        double[][] m = new double[this.rows][this.columns];
+        int p = i * this.rows * this.columns;
+        for (int k = 0; k < this.rows; k++) {
+            for (int l = 0; l < this.columns; l++) {
+                m[k][l] = this.pixels.get(p) & UNSIGNED;
+                p++;
+            }
+        }
+        return m;
+    }
+
+    @Override
+    public final void copyImage(int i, double[] target, int offset,
+            double scale) {
+        assert 0 <= i && i < this.size : "Violation of: 0 <= i < |this|";
+        int length = this.rows * this.columns;
+        int p = i * length;
+        for (int k = 0; k < length; k++) {
+            target[offset + k] = (this.pixels.get(p + k) & UNSIGNED) * scale;
+        }
+    }
+
+    @Override
+    public final void copyImage(int i, float[] target, int offset,
+            float scale) {
+        assert 0 <= i && i < this.size : "Violation of: 0 <= i < |this|";
+        int length = this.rows * this.columns;
+        int p = i * length;
+        for (int k = 0; k < length; k++) {
+            target[offset + k] = (this.pixels.get(p + k) & UNSIGNED) * scale;
+        }
+    }
+
+}
@@ -0,0 +1,133 @@
+/**
+ * {@code LabeledDataset} represented as one contiguous {@code byte[]} of
+ * pixels, one unsigned byte per pixel, and a parallel {@code int[]} of labels.
+ * This takes an eighth of the memory of {@code LabeledDataset1} and suits any
+ * data whose pixels are whole numbers in [0, 255], such as MNIST.
+ *
+ * @correspondence <pre>
+ * this = [image i has label $this.labels[i] and the pixels
+ *  $this.pixels[i * rows * columns, (i + 1) * rows * columns)
+ *  read as unsigned bytes in row-major order, for 0 <= i < |$this.labels|]
+ * </pre>
+ * @convention {@code
+ * [$this.pixels.length = $this.labels.length * $this.rows * $this.columns]
+ * }
+ *
+ * @author Sepehr Hooshiari
+ *
+ */
+public class LabeledDataset3 implements LabeledDataset {
+
+    /**
+     * Mask that reads a {@code byte} as an unsigned value.
+     */
+    private static final int UNSIGNED = 0xFF;
+
+    /**
+     * Pixels of every image, stored back to back in row-major order.
+     */
+    private final byte[] pixels;
+
+    /**
+     * Label of every image.
+     */
+    private final int[] labels;
+
+    /**
+     * Number of rows in each image.
+     */
+    private final int rows;
+
+    /**
+     * Number of columns in each image.
+     */
+    private final int columns;
+
+    /**
+     * Constructor for {@code this} over already decoded storage. The arrays
+     * are used directly, not copied.
+     *
+     * @param pixels
+     *            pixels of every image as unsigned bytes, back to back in
+     *            row-major order
+     * @param labels
+     *            label of every image
+     * @param rows
+     *            number of rows in each image
+     * @param columns
+     *            number of columns in each image
+     *
+     * @requires <pre> pixels.length = labels.length * rows * columns </pre>
+     */
+    public LabeledDataset3(byte[] pixels, int[] labels, int rows,
+            int columns) {
+        assert pixels.length == labels.length * rows
+                * columns : "Violation of: pixels match labels";
+        this.rows = rows;
+        this.columns = columns;
+        this.labels = labels;
+        this.pixels = pixels;
+    }
+
+    @Override
+    public final int size() {
+        return this.labels.length;
+    }
+
+    @Override
+    public final int rows() {
+        return this.rows;
+    }
+
+    @Override
+    public final int columns() {
+        return this.columns;
+    }
+
+    @Override
+    public final int label(int i) {
+        assert 0 <= i && i < this.labels.length : ""
+                + "Violation of: 0 <= i < |this|";
+        return this.labels[i];
+    }
+
+    @Override
+    public final double[][] image(int i) {
+        assert 0 <= i && i < this.labels.length : ""
+                + "Violation of: 0 <= i < |this|";
+        double[][] m = new double[this.rows][this.columns];
+        int p = i * this.rows * this.columns;
+        for (int k = 0; k < this.rows; k++) {
+            for (int l = 0; l < this.columns; l++) {
+                m[k][l] = this.pixels[p] & UNSIGNED;
+                p++;
+            }
+        }
+        return m;
+    }
+
+    @Override
+    public final void copyImage(int i, double[] target, int offset,
+            double scale) {
+        assert 0 <= i && i < this.labels.length : ""
+                + "Violation of: 0 <= i < |this|";
+        int length = this.rows * this.columns;
+        int p = i * length;
+        for (int k = 0; k < length; k++) {
+            target[offset + k] = (this.pixels[p + k] & UNSIGNED) * scale;
+        }
+    }
+
+    @Override
+    public final void copyImage(int i, float[] target, int offset,
+            float scale) {
+        assert 0 <= i && i < this.labels.length : ""
+                + "Violation of: 0 <= i < |this|";
+        int length = this.rows * this.columns;
+        int p = i * length;
+        for (int k = 0; k < length; k++) {
+            target[offset + k] = (this.pixels[p + k] & UNSIGNED) * scale;
+        }
+    }
+
+}
@@ -0,0 +1,366 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * {@code LabeledDataset} that stores each image compressed as a bitmap of its
+ * non-zero pixels followed by the values of those pixels, one unsigned byte
+ * each. An MNIST image, about a fifth of whose pixels are non-zero, takes
+ * about 250 bytes instead of 784, and decodes straight into a dense input
+ * buffer.
+ *
+ * <p>
+ * The same layout is used in memory and on disk, so a file written by
+ * {@link #write(String)} is memory-mapped by {@link #map(String)} without any
+ * decoding, and processes that map the same file share one copy in the page
+ * cache. File layout, big-endian: magic, version, image count, rows, columns
+ * and encoded length as {@code int}s; then one byte per label; then
+ * {@code count + 1} {@code int} offsets into the encoded images; then the
+ * encoded images.
+ *
+ * @correspondence <pre>
+ * this = [image i has label $this.labels[i] and the pixels encoded in
+ *  $this.images[$this.offsets[i], $this.offsets[i + 1]), for 0 <= i < size]
+ * </pre>
+ *
+ * @author Sepehr Hooshiari
+ *
+ */
+public class LabeledDataset4 implements LabeledDataset {
+
+    /**
+     * Suffix of the name of a file in this format, which {@code analyze} maps.
+     */
+    public static final String SUFFIX = ".sparse";
+
+    /**
+     * Magic number that starts every file in this format.
+     */
+    private static final int MAGIC = 0x434E4E53;
+
+    /**
+     * Version of the file layout.
+     */
+    private static final int VERSION = 1;
+
+    /**
+     * Length of the file header in bytes.
+     */
+    private static final int HEADER = 6 * Integer.BYTES;
+
+    /**
+     * Mask that reads a {@code byte} as an unsigned value.
+     */
+    private static final int UNSIGNED = 0xFF;
+
+    /**
+     * Number of pixels described by one byte of a bitmap.
+     */
+    private static final int BITS = 8;
+
+    /**
+     * Label of every image as an unsigned byte.
+     */
+    private final ByteBuffer labels;
+
+    /**
+     * Start of every encoded image, plus the end of the last one.
+     */
+    private final IntBuffer offsets;
+
+    /**
+     * Every encoded image, back to back.
+     */
+    private final ByteBuffer images;
+
+    /**
+     * Number of images.
+     */
+    private final int size;
+
+    /**
+     * Number of rows in each image.
+     */
+    private final int rows;
+
+    /**
+     * Number of columns in each image.
+     */
+    private final int columns;
+
+    /**
+     * Number of bytes in the bitmap of each image.
+     */
+    private final int bitmap;
+
+    /**
+     * Constructor for {@code this} over the whole contents of a file in this
+     * format, already in memory or mapped. Nothing is copied.
+     *
+     * @param file
+     *            the contents of the file
+     */
+    public LabeledDataset4(ByteBuffer file) {
+        final int countAt = 8;
+        final int rowsAt = 12;
+        final int columnsAt = 16;
+        final int lengthAt = 20;
+        if (file.getInt(0) != MAGIC || file.getInt(4) != VERSION) {
+            throw new AssertionError(
+                    "Violation of: file is a compressed dataset");
+        }
+        this.size = file.getInt(countAt);
+        this.rows = file.getInt(rowsAt);
+        this.columns = file.getInt(columnsAt);
+        int encoded = file.getInt(lengthAt);
+        this.bitmap = (this.rows * this.columns + BITS - 1) / BITS;
+
+        int at = HEADER;
+        this.labels = region(file, at, this.size);
+        at += this.size;
+        this.offsets = region(file, at, (this.size + 1) * Integer.BYTES)
+                .asIntBuffer();
+        at += (this.size + 1) * Integer.BYTES;
+        this.images = region(file, at, encoded);
+    }
+
+    /**
+     * Returns the region of {@code buffer} starting at {@code offset} and
+     * holding {@code length} bytes.
+     *
+     * @param buffer
+     *            the whole buffer
+     * @param offset
+     *            where the region starts
+     * @param length
+     *            number of bytes in the region
+     *
+     * @return a read-only view of the region
+     */
+    private static ByteBuffer region(ByteBuffer buffer, int offset,
+            int length) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.limit(offset + length);
+        return view.slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Returns {@code data} compressed in this format, in memory.
+     *
+     * @param data
+     *            the dataset to compress
+     *
+     * @requires <pre> every label and pixel of data is a whole number in
+     * [0, 255] </pre>
+     *
+     * @return the compressed dataset
+     */
+    public static LabeledDataset4 encode(LabeledDataset data) {
+        final int max = UNSIGNED;
+        int count = data.size();
+        int length = data.rows() * data.columns();
+        int bitmap = (length + BITS - 1) / BITS;
+        double[] image = new double[length];
+
+        /*
+         * First pass sizes the encoding, second pass fills it in.
+         */
+        int encoded = 0;
+        for (int i = 0; i < count; i++) {
+            data.copyImage(i, image, 0, 1);
+            encoded += bitmap;
+            for (int p = 0; p < length; p++) {
+                if (image[p] != 0) {
+                    encoded++;
+                }
+            }
+        }
+        ByteBuffer file = ByteBuffer.allocate(
+                HEADER + count + (count + 1) * Integer.BYTES + encoded);
+        file.putInt(MAGIC).putInt(VERSION).putInt(count).putInt(data.rows())
+                .putInt(data.columns()).putInt(encoded);
+        for (int i = 0; i < count; i++) {
+            int label = data.label(i);
+            if (label < 0 || label > max) {
+                throw new AssertionError(
+                        "Violation of: labels are in [0, 255]");
+            }
+            file.put((byte) label);
+        }
+        int offsetsAt = file.position();
+        int imagesAt = offsetsAt + (count + 1) * Integer.BYTES;
+        int at = 0;
+        for (int i = 0; i < count; i++) {
+            file.putInt(offsetsAt + i * Integer.BYTES, at);
+            data.copyImage(i, image, 0, 1);
+            int values = imagesAt + at + bitmap;
+            for (int b = 0; b < bitmap; b++) {
+                int bits = 0;
+                for (int t = 0; t < BITS && b * BITS + t < length; t++) {
+                    double v = image[b * BITS + t];
+                    if (v != 0) {
+                        if (v != (int) v || v < 0 || v > max) {
+                            throw new AssertionError(
+                                    "Violation of: pixels are in [0, 255]");
+                        }
+                        bits |= 1 << t;
+                        file.put(values, (byte) v);
+                        values++;
+                    }
+                }
+                file.put(imagesAt + at + b, (byte) bits);
+            }
+            at = values - imagesAt;
+        }
+        file.putInt(offsetsAt + count * Integer.BYTES, at);
+        file.clear();
+        return new LabeledDataset4(file);
+    }
+
+    /**
+     * Maps the file {@code name}, written by {@link #write(String)}.
+     *
+     * @param name
+     *            the name of the file
+     *
+     * @return the mapped dataset
+     */
+    public static LabeledDataset4 map(String name) {
+        try (FileChannel channel = FileChannel.open(Paths.get(name),
+                StandardOpenOption.READ)) {
+            return new LabeledDataset4(channel
+                    .map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } catch (IOException e) {
+            throw new AssertionError("Violation of: can read from file");
+        }
+    }
+
+    /**
+     * Writes {@code this} to the file {@code name}, replacing it atomically.
+     *
+     * @param name
+     *            the name of the file
+     */
+    public final void write(String name) {
+        Path target = Paths.get(name).toAbsolutePath();
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        header.putInt(MAGIC).putInt(VERSION).putInt(this.size)
+                .putInt(this.rows).putInt(this.columns)
+                .putInt(this.images.limit());
+        header.flip();
+        ByteBuffer offsetBytes = ByteBuffer
+                .allocate((this.size + 1) * Integer.BYTES);
+        offsetBytes.asIntBuffer().put(this.offsets.duplicate());
+        ByteBuffer[] parts = { header, this.labels.duplicate(), offsetBytes,
+                this.images.duplicate() };
+        try {
+            Path temporary = Files.createTempFile(target.getParent(),
+                    target.getFileName().toString(), ".tmp");
+            try (FileChannel out = FileChannel.open(temporary,
+                    StandardOpenOption.WRITE)) {
+                for (ByteBuffer part : parts) {
+                    while (part.hasRemaining()) {
+                        out.write(part);
+                    }
+                }
+            }
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new AssertionError("Violation of: can write to file");
+        }
+    }
+
+    /**
+     * Returns the number of bytes taken by the encoded images.
+     *
+     * @return the encoded length
+     */
+    public final int encodedLength() {
+        return this.images.limit();
+    }
+
+    @Override
+    public final int size() {
+        return this.size;
+    }
+
+    @Override
+    public final int rows() {
+        return this.rows;
+    }
+
+    @Override
+    public final int columns() {
+        return this.columns;
+    }
+
+    @Override
+    public final int label(int i) {
+        assert 0 <= i && i < this.size : "Violation of: 0 <= i < |this|";
+        return this.labels.get(i) & UNSIGNED;
+    }
+
+    @Override
+    public final double[][] image(int i) {
+        double[] flat = new double[this.rows * this.columns];
+        this.copyImage(i, flat, 0, 1);
+        double[][] m = new double[this.rows][this.columns];
+        for (int k = 0; k < this.rows; k++) {
+            System.arraycopy(flat, k * this.columns, m[k], 0, this.columns);
+        }
+        return m;
+    }
+
+    @Override
+    public final void copyImage(int i, float[] target, int offset,
+            float scale) {
+        assert 0 <= i && i < this.size : "Violation of: 0 <= i < |this|";
+        int length = this.rows * this.columns;
+        for (int p = 0; p < length; p++) {
+            target[offset + p] = 0;
+        }
+        int base = this.offsets.get(i);
+        int values = base + this.bitmap;
+        for (int b = 0; b < this.bitmap; b++) {
+            int bits = this.images.get(base + b) & UNSIGNED;
+            while (bits != 0) {
+                int t = Integer.numberOfTrailingZeros(bits);
+                target[offset + b * BITS + t] = (this.images.get(values)
+                        & UNSIGNED) * scale;
+                values++;
+                bits &= bits - 1;
+            }
+        }
+    }
+
+    @Override
+    public final void copyImage(int i, double[] target, int offset,
+            double scale) {
+        assert 0 <= i && i < this.size : "Violation of: 0 <= i < |this|";
+        int length = this.rows * this.columns;
+        for (int p = 0; p < length; p++) {
+            target[offset + p] = 0;
+        }
+        int base = this.offsets.get(i);
+        int values = base + this.bitmap;
+        for (int b = 0; b < this.bitmap; b++) {
+            int bits = this.images.get(base + b) & UNSIGNED;
+            while (bits != 0) {
+                int t = Integer.numberOfTrailingZeros(bits);
+                target[offset + b * BITS + t] = (this.images.get(values)
+                        & UNSIGNED) * scale;
+                values++;
+                bits &= bits - 1;
+            }
+        }
+    }
+
+}
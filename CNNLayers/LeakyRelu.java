@@ -0,0 +1,88 @@
+/**
+ * The leaky rectifier, {@code z} for positive sums and {@code slope * z}
+ * otherwise, so that neurons with negative sums still pass on a gradient.
+ *
+ * @author Sepehr Hooshiari
+ *
+ */
+public class LeakyRelu implements Activation {
+
+    /**
+     * Slope used when none is given.
+     */
+    private static final double DEFAULT_SLOPE = 0.01;
+
+    /**
+     * Slope for negative sums.
+     */
+    private final double slope;
+
+    /**
+     * No-argument constructor for {@code this}, with a slope of 0.01.
+     */
+    public LeakyRelu() {
+        this(DEFAULT_SLOPE);
+    }
+
+    /**
+     * Constructor for {@code this}.
+     *
+     * @param slope
+     *            the slope for negative sums
+     *
+     * @requires <pre> 0 <= slope < 1 </pre>
+     */
+    public LeakyRelu(double slope) {
+        assert 0 <= slope && slope < 1 : "Violation of: 0 <= slope < 1";
+        this.slope = slope;
+    }
+
+    @Override
+    public final void apply(double[] z, double[] a, int offset, int length) {
+        for (int k = offset; k < offset + length; k++) {
+            double v = z[k];
+            if (v <= 0) {
+                v *= this.slope;
+            }
+            a[k] = v;
+        }
+    }
+
+    @Override
+    public final void derivative(double[] z, double[] a, double[] out,
+            int offset, int length) {
+        for (int k = offset; k < offset + length; k++) {
+            double d = this.slope;
+            if (z[k] > 0) {
+                d = 1;
+            }
+            out[k] = d;
+        }
+    }
+
+    @Override
+    public final void apply(float[] z, float[] a, int offset, int length) {
+        float s = (float) this.slope;
+        for (int k = offset; k < offset + length; k++) {
+            float v = z[k];
+            if (v <= 0) {
+                v *= s;
+            }
+            a[k] = v;
+        }
+    }
+
+    @Override
+    public final void derivative(float[] z, float[] a, float[] out,
+            int offset, int length) {
+        float s = (float) this.slope;
+        for (int k = offset; k < offset + length; k++) {
+            float d = s;
+            if (z[k] > 0) {
+                d = 1;
+            }
+            out[k] = d;
+        }
+    }
+
+}
@@ -0,0 +1,135 @@
+/**
+ * Static placement of tensors in one arena, so that tensors alive at the same
+ * time never share memory and tensors that are not may. Tensor {@code t} is
+ * {@code sizes[t]} entries long and lives from step {@code first[t]}, which
+ * writes it, to step {@code last[t]}, the last to read it, inclusive.
+ *
+ * <p>
+ * Tensors are placed largest first, each at the lowest offset clear of every
+ * tensor already placed whose lifetime overlaps its own. For the activations
+ * of a chain of layers, where each one is only alive alongside its neighbours,
+ * this keeps the arena at about two layer widths however deep the chain is.
+ *
+ * @author Sepehr Hooshiari
+ *
+ */
+public final class MemoryPlan {
+
+    /**
+     * Offset of each tensor in the arena.
+     */
+    private final int[] offsets;
+
+    /**
+     * Length of the arena.
+     */
+    private final int length;
+
+    /**
+     * Constructor for {@code this}, planning the placement of every tensor.
+     *
+     * @param sizes
+     *            the length of each tensor
+     * @param first
+     *            the step that writes each tensor
+     * @param last
+     *            the last step that reads each tensor
+     *
+     * @requires <pre> |sizes| = |first| = |last| and
+     * for all t: sizes[t] >= 0 and first[t] <= last[t] </pre>
+     */
+    public MemoryPlan(int[] sizes, int[] first, int[] last) {
+        assert sizes.length == first.length && first.length == last.length : ""
+                + "Violation of: |sizes| = |first| = |last|";
+        int n = sizes.length;
+        this.offsets = new int[n];
+
+        // largest first, so small tensors fill the gaps between large ones
+        int[] order = new int[n];
+        int[] bySize = new int[n];
+        for (int t = 0; t < n; t++) {
+            assert first[t] <= last[t] : "Violation of: first[t] <= last[t]";
+            order[t] = t;
+            bySize[t] = -sizes[t];
+        }
+        sort(order, n, bySize);
+
+        int[] placed = new int[n];
+        int count = 0;
+        int end = 0;
+        int[] live = new int[n];
+        for (int p = 0; p < n; p++) {
+            int t = order[p];
+            int alive = 0;
+            for (int q = 0; q < count; q++) {
+                int u = placed[q];
+                if (first[t] <= last[u] && first[u] <= last[t]) {
+                    live[alive] = u;
+                    alive++;
+                }
+            }
+            sort(live, alive, this.offsets);
+            int offset = 0;
+            for (int q = 0; q < alive; q++) {
+                int u = live[q];
+                if (offset + sizes[t] <= this.offsets[u]) {
+                    break;
+                }
+                offset = Math.max(offset, this.offsets[u] + sizes[u]);
+            }
+            this.offsets[t] = offset;
+            end = Math.max(end, offset + sizes[t]);
+            placed[count] = t;
+            count++;
+        }
+        this.length = end;
+    }
+
+    /**
+     * Sorts {@code ids[0, n)} into increasing order of {@code key[id]}, keeping
+     * ties in their current order.
+     *
+     * @param ids
+     *            the tensors to sort
+     * @param n
+     *            how many of {@code ids} to sort
+     * @param key
+     *            the key of each tensor
+     * @updates ids
+     */
+    private static void sort(int[] ids, int n, int[] key) {
+        for (int i = 1; i < n; i++) {
+            int id = ids[i];
+            int j = i - 1;
+            while (j >= 0 && key[ids[j]] > key[id]) {
+                ids[j + 1] = ids[j];
+                j--;
+            }
+            ids[j + 1] = id;
+        }
+    }
+
+    /**
+     * Returns the offset of tensor {@code t} in the arena.
+     *
+     * @param t
+     *            the tensor
+     *
+     * @requires <pre> 0 <= t < number of tensors </pre>
+     *
+     * @return the offset
+     */
+    public int offset(int t) {
+        return this.offsets[t];
+    }
+
+    /**
+     * Returns the length of the arena that holds every tensor.
+     *
+     * @return the arena length
+     */
+    public int length() {
+        return this.length;
+    }
+
+}
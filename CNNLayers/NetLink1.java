@@ -1,7 +1,4 @@
-import static java.util.Collections.shuffle;
-
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Iterator;
 
 import components.simplereader.SimpleReader;
 import components.simplereader.SimpleReader1L;
@@ -27,6 +24,21 @@ public class NetLink1 {
      */
     private double scalar;
 
+    /**
+     * Reusable buffer holding the scaled pixels of the current image.
+     */
+    private double[] input;
+
+    /**
+     * Reusable buffer holding the loss with respect to each output.
+     */
+    private double[] loss;
+
+    /**
+     * Whether the layers run in workspace mode.
+     */
+    private boolean workspace;
+
     /**
      * Constructor for {@code this}.
      *
@@ -35,8 +47,38 @@ public class NetLink1 {
      * @param scalar
      */
     public NetLink1(CNNLayers layers, double scalar) {
+        this(layers, scalar, false);
+    }
+
+    /**
+     * Constructor for {@code this} that can put the layers in workspace mode,
+     * where their buffers are sized once and reused by every image, so that
+     * training one image at a time allocates nothing once under way.
+     *
+     * @param layers
+     *
+     * @param scalar
+     *
+     * @param workspace
+     *            whether the layers reuse their buffers
+     */
+    public NetLink1(CNNLayers layers, double scalar, boolean workspace) {
         this.layers = layers;
         this.scalar = scalar;
+        this.input = new double[0];
+        this.loss = new double[0];
+        this.workspace = workspace;
+        this.reserve();
+    }
+
+    /**
+     * Puts the layers in or out of workspace mode, sizing their buffers.
+     */
+    private void reserve() {
+        this.layers.setWorkspace(this.workspace);
+        for (CNNLayers layer : this.layers.getLayers()) {
+            layer.setWorkspace(this.workspace);
+        }
     }
 
     /**
@@ -49,6 +91,7 @@ public class NetLink1 {
             this.layers.addLayer(new CNNLayers1());
             i++;
         }
+        this.reserve();
     }
 
     /**
@@ -63,9 +106,7 @@ public class NetLink1 {
      */
     public double[] addVector(double[] x, double[] y) {
         double[] output = new double[x.length];
-        for (int i = 0; i < x.length; i++) {
-            output[i] = x[i] + y[i];
-        }
+        Simd.OPS.add(x, y, output, x.length);
         return output;
     }
 
@@ -81,9 +122,7 @@ public class NetLink1 {
      */
     public double[] multiplyVector(double[] x, double scalar) {
         double[] output = new double[x.length];
-        for (int i = 0; i < x.length; i++) {
-            output[i] = x[i] * scalar;
-        }
+        Simd.OPS.scale(scalar, x, 0, output, 0, x.length);
         return output;
     }
 
@@ -103,6 +142,26 @@ public class NetLink1 {
         return this.addVector(outputs, this.multiplyVector(expected, -1));
     }
 
+    /**
+     * Stores the error list corresponding to the given data in the reusable
+     * loss buffer and returns the buffer. The values are those of
+     * {@code errorList}.
+     *
+     * @param outputs
+     *
+     * @param answer
+     *
+     * @return the error list
+     */
+    private double[] lossFor(double[] outputs, int answer) {
+        if (this.loss.length != outputs.length) {
+            this.loss = new double[outputs.length];
+        }
+        System.arraycopy(outputs, 0, this.loss, 0, outputs.length);
+        this.loss[answer] -= 1;
+        return this.loss;
+    }
+
     /**
      * Gets the maximum value which corresponds to the guess of the label.
      *
@@ -127,17 +186,103 @@ public class NetLink1 {
      *
      * @param images
      *
-     * @return the initial margin of error
+     * @return the initial margin of error, or 0 if there are no images
+     */
+    public float test(LabeledDataset images) {
+        float accuracy = 0;
+        if (images.size() > 0) {
+            accuracy = (float) this.correct(images) / images.size();
+        }
+        return accuracy;
+    }
+
+    /**
+     * Uses the {@code CNNLayers} guess function to test the data, one chunk
+     * at a time, so that only one chunk is ever held in memory.
+     *
+     * @param chunks
+     *            the images, in chunks
+     *
+     * @return the initial margin of error, or 0 if there are no images
+     */
+    public float test(Iterator<LabeledDataset> chunks) {
+        int correct = 0;
+        int size = 0;
+        while (chunks.hasNext()) {
+            LabeledDataset images = chunks.next();
+            correct += this.correct(images);
+            size += images.size();
+        }
+        float accuracy = 0;
+        if (size > 0) {
+            accuracy = (float) correct / size;
+        }
+        return accuracy;
+    }
+
+    /**
+     * Uses the {@code NetworkPlan} guess function to test the data.
+     *
+     * @param plan
+     *            the layers to test
+     * @param images
+     *
+     * @return the initial margin of error, or 0 if there are no images
      */
-    public float test(List<double[][]> images) {
+    public float test(NetworkPlan plan, LabeledDataset images) {
+        double[] output = new double[plan.outputLength()];
+        double[] arena = new double[plan.arenaLength()];
         int correct = 0;
-        for (double[][] sig : images) {
-            int guess = this.layers.guess(this.layers.getNext());
-            if (guess == this.layers.getLabel()) {
+        for (int i = 0; i < images.size(); i++) {
+            double[] scaled = this.scaledImage(images, i);
+            if (plan.guess(scaled, output, arena) == images.label(i)) {
                 correct++;
             }
         }
-        return ((float) correct / images.size());
+        float accuracy = 0;
+        if (images.size() > 0) {
+            accuracy = (float) correct / images.size();
+        }
+        return accuracy;
+    }
+
+    /**
+     * Scales image {@code i} of {@code images} straight into the reusable
+     * input buffer and returns the buffer.
+     *
+     * @param images
+     *
+     * @param i
+     *            the index of the image
+     *
+     * @return the scaled, flattened image
+     */
+    private double[] scaledImage(LabeledDataset images, int i) {
+        int length = images.rows() * images.columns();
+        if (this.input.length != length) {
+            this.input = new double[length];
+        }
+        images.copyImage(i, this.input, 0, 1.0 / this.scalar);
+        return this.input;
+    }
+
+    /**
+     * Returns how many of {@code images} the CNN labels correctly.
+     *
+     * @param images
+     *
+     * @return the number of correct guesses
+     */
+    private int correct(LabeledDataset images) {
+        int correct = 0;
+        for (int i = 0; i < images.size(); i++) {
+            double[] scaled = this.scaledImage(images, i);
+            int guess = this.layers.guess(scaled);
+            if (guess == images.label(i)) {
+                correct++;
+            }
+        }
+        return correct;
     }
 
     /**
@@ -146,19 +291,141 @@ public class NetLink1 {
      * @param images
      *
      */
-    public void train(List<double[][]> images) {
-        for (double[][] sig : images) {
-            List<double[][]> inputs = new ArrayList<>();
-            inputs.add(this.layers.multiplyMatrix(this.layers.getData(),
-                    (1.0 / this.scalar)));
-            double[] out = this.layers.outputFromList(inputs);
-            double[] lossPerOut = this.errorList(out, this.layers.getLabel());
+    public void train(LabeledDataset images) {
+        int[] order = new int[images.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        this.train(images, order);
+    }
+
+    /**
+     * Trains the CNN to reduce margin of error, visiting the images in the
+     * given order.
+     *
+     * @param images
+     *
+     * @param order
+     *            indices into {@code images}
+     *
+     */
+    public void train(LabeledDataset images, int[] order) {
+        for (int i : order) {
+            double[] scaled = this.scaledImage(images, i);
+            double[] out = this.layers.outputFromArray(scaled);
+            double[] lossPerOut = this.lossFor(out, images.label(i));
             if (this.layers.getNext() != null) {
                 this.layers.getNext().backPropArray(lossPerOut);
             }
         }
     }
 
+    /**
+     * Trains the layers of {@code plan} to reduce margin of error on one
+     * thread, visiting the images in the given order and updating the weights
+     * after each image.
+     *
+     * @param plan
+     *            the layers to train
+     * @param images
+     *
+     * @param order
+     *            indices into {@code images}
+     *
+     */
+    public void train(NetworkPlan plan, LabeledDataset images, int[] order) {
+        for (int i : order) {
+            double[] scaled = this.scaledImage(images, i);
+            double[] out = plan.forward(scaled);
+            plan.backward(this.lossFor(out, images.label(i)));
+        }
+    }
+
+    /**
+     * Trains the CNN to reduce margin of error, visiting the images in the
+     * given order, while a background thread scales and flattens up to
+     * {@code prefetch} images ahead of the one being trained on.
+     *
+     * @param images
+     *
+     * @param order
+     *            indices into {@code images}
+     * @param prefetch
+     *            how many images may be prepared ahead
+     *
+     * @requires <pre> prefetch > 0 </pre>
+     */
+    public void train(LabeledDataset images, int[] order, int prefetch) {
+        try (InputPipeline pipeline = new InputPipeline(images, order,
+                1.0 / this.scalar, prefetch, 1)) {
+            InputPipeline.Slot slot = pipeline.take();
+            while (slot != null) {
+                double[] out = this.layers.outputFromArray(slot.inputs());
+                double[] lossPerOut = this.lossFor(out, slot.label(0));
+                if (this.layers.getNext() != null) {
+                    this.layers.getNext().backPropArray(lossPerOut);
+                }
+                // the layers keep a reference to the input until backprop
+                pipeline.release(slot);
+                slot = pipeline.take();
+            }
+        }
+    }
+
+    /**
+     * Trains the CNN to reduce margin of error, visiting the images in the
+     * given order {@code batch} at a time, and updating the weights once per
+     * batch by the mean of the batch's gradients. A background thread prepares
+     * up to {@code prefetch} batches ahead of the one being trained on.
+     *
+     * @param images
+     *
+     * @param order
+     *            indices into {@code images}
+     * @param prefetch
+     *            how many batches may be prepared ahead
+     * @param batch
+     *            the number of images per weight update
+     *
+     * @requires <pre> prefetch > 0 and batch > 0 </pre>
+     */
+    public void train(LabeledDataset images, int[] order, int prefetch,
+            int batch) {
+        try (InputPipeline pipeline = new InputPipeline(images, order,
+                1.0 / this.scalar, prefetch, batch)) {
+            InputPipeline.Slot slot = pipeline.take();
+            while (slot != null) {
+                int n = slot.size();
+                double[] lossPerOut = this.layers
+                        .outputFromBatch(slot.inputs(), n);
+                int classes = lossPerOut.length / n;
+                for (int k = 0; k < n; k++) {
+                    // same as errorList, for every image of the batch
+                    lossPerOut[k * classes + slot.label(k)] -= 1;
+                }
+                if (this.layers.getNext() != null) {
+                    this.layers.getNext().backPropBatch(lossPerOut, n);
+                }
+                pipeline.release(slot);
+                slot = pipeline.take();
+            }
+        }
+    }
+
+    /**
+     * Trains the CNN to reduce margin of error, one chunk at a time, so that
+     * only one chunk is ever held in memory.
+     *
+     * @param chunks
+     *            the images, in chunks
+     *
+     */
+    public void train(Iterator<LabeledDataset> chunks) {
+        while (chunks.hasNext()) {
+            this.train(chunks.next());
+        }
+    }
+
     /**
      * Main method.
      *
@@ -170,8 +437,10 @@ public class NetLink1 {
         final double sFactor = 200 * 100;
         CNNLayers layers = new CNNLayers1();
         NetLink1 builder = new NetLink1(layers, sFactor);
-        List<double[][]> images = layers.analyze("data/mnist_test.csv");
-        List<double[][]> trainedImages = layers.analyze("data/mnist_train.csv");
+        layers.analyze("data/mnist_test.csv");
+        LabeledDataset images = layers.getDataset();
+        layers.analyze("data/mnist_train.csv");
+        LabeledDataset trainedImages = layers.getDataset();
 
         out.println("Testing images size: " + images.size());
         out.println("Training images size: " + trainedImages.size());
@@ -185,9 +454,12 @@ public class NetLink1 {
 
         int epochs = 2;
 
+        final int prefetch = 64;
+        final long seed = 123;
+        EpochSampler sampler = new EpochSampler(trainedImages, seed);
+
         for (int i = 0; i < epochs; i++) {
-            shuffle(trainedImages);
-            builder.train(trainedImages);
+            builder.train(trainedImages, sampler.uniform(i), prefetch);
             sr = builder.test(images);
             out.println("Success rate after epoch " + i + ": " + sr);
         }
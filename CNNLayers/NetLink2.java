@@ -1,7 +1,3 @@
-import static java.util.Collections.shuffle;
-
-import java.util.List;
-
 import components.simplereader.SimpleReader;
 import components.simplereader.SimpleReader1L;
 import components.simplewriter.SimpleWriter;
@@ -33,8 +29,10 @@ public final class NetLink2 {
         final double sFactor = 300 * 100;
         CNNLayers layers = new CNNLayers1();
         NetLink1 builder = new NetLink1(layers, sFactor);
-        List<double[][]> images = layers.analyze("data/mnist_test.csv");
-        List<double[][]> trainedImages = layers.analyze("data/mnist_train.csv");
+        layers.analyze("data/mnist_test.csv");
+        LabeledDataset images = layers.getDataset();
+        layers.analyze("data/mnist_train.csv");
+        LabeledDataset trainedImages = layers.getDataset();
 
         out.println("Testing images size: " + images.size());
         out.println("Training images size: " + trainedImages.size());
@@ -48,9 +46,12 @@ public final class NetLink2 {
 
         final int epochs = 5;
 
+        final int prefetch = 64;
+        final long seed = 123;
+        EpochSampler sampler = new EpochSampler(trainedImages, seed);
+
         for (int i = 0; i < epochs; i++) {
-            shuffle(trainedImages);
-            builder.train(trainedImages);
+            builder.train(trainedImages, sampler.uniform(i), prefetch);
             sr = builder.test(images);
             out.println("Success rate after epoch " + i + ": " + sr);
         }
@@ -0,0 +1,535 @@
+import java.util.List;
+
+/**
+ * An immutable execution plan compiled from the {@code getLayers()} list of a
+ * CNN. The plan holds the layers themselves, not the copies that
+ * {@code setNext} and {@code setPrevious} link together, and the width of
+ * every activation, checked once when the plan is compiled. Forward and
+ * backward passes are then plain loops over the layers: nothing is
+ * constructed per call, and the call depth does not grow with the number of
+ * layers.
+ *
+ * <p>
+ * Weight updates made through the plan are seen by the linked copies as well,
+ * since a copy shares the weights of the layer it was copied from.
+ *
+ * <p>
+ * For inference, {@code infer} keeps nothing for back propagation, and the
+ * intermediate activations are placed in one arena by a {@code MemoryPlan}:
+ * activations that are never alive at the same time share memory, so the
+ * arena is about two layer widths rather than the sum of them. The arena is
+ * supplied by the caller, so one plan may serve several threads, each with
+ * its own arena. Training through {@code forward} and {@code backward} still
+ * keeps every activation the layers need.
+ *
+ * <p>
+ * The trainers run mini-batches through {@code forwardBatch},
+ * {@code errorBatch} and {@code backwardBatch}, which work on any run of
+ * consecutive layers and keep every activation, derivative and gradient sum
+ * in arrays owned by the caller, so several threads may train through one
+ * plan at once, each with its own arrays.
+ *
+ * @author Sepehr Hooshiari
+ *
+ */
+public final class NetworkPlan {
+
+    /**
+     * Listener for callers that wait for the whole pass.
+     */
+    private static final Listener IGNORE = k -> {
+    };
+
+    /**
+     * Told by {@code backwardBatch} as soon as the gradient sums of each layer
+     * are complete, before the layers below it are passed through.
+     */
+    public interface Listener {
+
+        /**
+         * Called once the gradient sums of layer {@code k} are complete.
+         *
+         * @param k
+         *            the position of the layer in the plan
+         */
+        void gradientDone(int k);
+
+    }
+
+    /**
+     * The layers, in order from input to output.
+     */
+    private final CNNLayers[] layers;
+
+    /**
+     * The width of each activation: {@code widths[0]} is the input length and
+     * {@code widths[k + 1]} the output length of layer {@code k}.
+     */
+    private final int[] widths;
+
+    /**
+     * Placement of the intermediate activations for {@code infer}: tensor
+     * {@code k} is the output of layer {@code k}, written by step {@code k}
+     * and read by step {@code k + 1}.
+     */
+    private final MemoryPlan memory;
+
+    /**
+     * Constructor for {@code this}.
+     *
+     * @param layers
+     *            the layers, in order from input to output
+     */
+    private NetworkPlan(CNNLayers[] layers) {
+        this.layers = layers;
+        this.widths = new int[layers.length + 1];
+        if (layers.length > 0) {
+            this.widths[0] = layers[0].inputLength();
+        }
+        for (int k = 0; k < layers.length; k++) {
+            assert layers[k].inputLength() == this.widths[k] : ""
+                    + "Violation of: consecutive layers agree in length";
+            this.widths[k + 1] = layers[k].outputLength();
+        }
+        // the last layer writes straight into the caller's output
+        int tensors = Math.max(layers.length - 1, 0);
+        int[] sizes = new int[tensors];
+        int[] first = new int[tensors];
+        int[] last = new int[tensors];
+        for (int k = 0; k < tensors; k++) {
+            sizes[k] = this.widths[k + 1];
+            first[k] = k;
+            last[k] = k + 1;
+        }
+        this.memory = new MemoryPlan(sizes, first, last);
+    }
+
+    /**
+     * Compiles the layers of {@code network} into a plan.
+     *
+     * @param network
+     *            the CNN whose {@code getLayers()} are run
+     *
+     * @requires <pre> the output length of each layer of network is the input
+     * length of the layer after it </pre>
+     *
+     * @return the plan
+     */
+    public static NetworkPlan compile(CNNLayers network) {
+        List<CNNLayers> list = network.getLayers();
+        return new NetworkPlan(list.toArray(new CNNLayers[list.size()]));
+    }
+
+    /**
+     * Returns the number of layers in {@code this}.
+     *
+     * @return the number of layers
+     */
+    public int size() {
+        return this.layers.length;
+    }
+
+    /**
+     * Returns layer {@code k} of {@code this}.
+     *
+     * @param k
+     *            the position of the layer
+     *
+     * @requires <pre> 0 <= k < size() </pre>
+     *
+     * @return the layer
+     */
+    public CNNLayers layer(int k) {
+        assert 0 <= k && k < this.layers.length : ""
+                + "Violation of: 0 <= k < size()";
+        return this.layers[k];
+    }
+
+    /**
+     * Returns the width of activation {@code k}: the input length when
+     * {@code k} is 0, and otherwise the output length of layer {@code k - 1}.
+     *
+     * @param k
+     *            the position of the activation
+     *
+     * @requires <pre> 0 <= k <= size() </pre>
+     *
+     * @return the width
+     */
+    public int width(int k) {
+        assert 0 <= k && k <= this.layers.length : ""
+                + "Violation of: 0 <= k <= size()";
+        return this.widths[k];
+    }
+
+    /**
+     * Returns the widest of activations {@code lo} through {@code hi}.
+     *
+     * @param lo
+     *            the position of the first activation
+     * @param hi
+     *            the position of the last activation
+     *
+     * @requires <pre> 0 <= lo <= hi <= size() </pre>
+     *
+     * @return the largest width(k) for lo <= k <= hi
+     */
+    public int widest(int lo, int hi) {
+        assert 0 <= lo && lo <= hi && hi <= this.layers.length : ""
+                + "Violation of: 0 <= lo <= hi <= size()";
+        int widest = 0;
+        for (int k = lo; k <= hi; k++) {
+            widest = Math.max(widest, this.widths[k]);
+        }
+        return widest;
+    }
+
+    /**
+     * Returns the length of inputs to {@code this}.
+     *
+     * @return the input length
+     */
+    public int inputLength() {
+        return this.widths[0];
+    }
+
+    /**
+     * Returns the length of outputs from {@code this}.
+     *
+     * @return the output length
+     */
+    public int outputLength() {
+        return this.widths[this.layers.length];
+    }
+
+    /**
+     * Passes {@code input} through every layer in turn and returns the
+     * outputs of the last one.
+     *
+     * @param input
+     *            the input vector
+     *
+     * @requires <pre> |input| >= inputLength() </pre>
+     *
+     * @ensures <pre> input = #input </pre>
+     *
+     * @return the activated output vector
+     */
+    public double[] forward(double[] input) {
+        double[] pass = input;
+        for (int k = 0; k < this.layers.length; k++) {
+            pass = this.layers[k].forwardPass(pass);
+        }
+        return pass;
+    }
+
+    /**
+     * Updates the weights of every layer, last to first, for the input last
+     * passed to {@code forward}, given the loss with respect to each output.
+     *
+     * @param deriv
+     *            loss with respect to outputs
+     *
+     * @requires <pre> |deriv| >= outputLength() and forward has been called
+     * </pre>
+     *
+     * @ensures <pre> deriv = #deriv </pre>
+     */
+    public void backward(double[] deriv) {
+        double[] loss = deriv;
+        for (int k = this.layers.length - 1; k >= 0; k--) {
+            loss = this.layers[k].updateArray(loss, k > 0);
+        }
+    }
+
+    /**
+     * Passes the {@code n} inputs of {@code input} forward through layers
+     * {@code lo} to {@code hi - 1} for training, storing the activations of
+     * layer {@code lo + j} in {@code outputs[j]} and their derivatives in
+     * {@code slopes[j]}.
+     *
+     * @param lo
+     *            the position of the first layer
+     * @param hi
+     *            one past the position of the last layer
+     * @param input
+     *            the inputs to layer {@code lo}, back to back
+     * @param n
+     *            the number of inputs
+     * @param outputs
+     *            the activations of each layer
+     * @param slopes
+     *            the activation derivatives of each layer
+     * @replaces outputs, slopes
+     *
+     * @requires <pre> 0 <= lo < hi <= size() and |outputs[j]| >= n *
+     * width(lo + j + 1) and |slopes[j]| >= n * width(lo + j + 1) </pre>
+     *
+     * @ensures <pre> input = #input </pre>
+     */
+    public void forwardBatch(int lo, int hi, double[] input, int n,
+            double[][] outputs, double[][] slopes) {
+        assert 0 <= lo && lo < hi && hi <= this.layers.length : ""
+                + "Violation of: 0 <= lo < hi <= size()";
+        double[] pass = input;
+        for (int k = lo; k < hi; k++) {
+            this.layers[k].inferBatch(pass, n, outputs[k - lo],
+                    slopes[k - lo]);
+            pass = outputs[k - lo];
+        }
+    }
+
+    /**
+     * Turns the derivatives {@code delta} of the outputs {@code output} of
+     * the last layer over {@code n} images into the losses with respect to
+     * its weighted sums, for an error against the one-hot encoding of each
+     * image's label, the same as {@code errorList} for every image.
+     *
+     * @param output
+     *            the outputs of the last layer, back to back
+     * @param delta
+     *            the activation derivatives of the last layer
+     * @param labels
+     *            the label of each image
+     * @param n
+     *            the number of images
+     * @param scratch
+     *            space for the loss with respect to the outputs
+     * @updates delta
+     * @replaces scratch
+     *
+     * @requires <pre> size() > 0 and |labels| >= n and |output|, |delta| and
+     * |scratch| >= n * outputLength() </pre>
+     */
+    public void errorBatch(double[] output, double[] delta, int[] labels,
+            int n, double[] scratch) {
+        int classes = this.outputLength();
+        for (int b = 0; b < n; b++) {
+            for (int j = 0; j < classes; j++) {
+                double error = output[b * classes + j];
+                if (j == labels[b]) {
+                    error -= 1;
+                }
+                scratch[b * classes + j] = error;
+            }
+        }
+        this.layers[this.layers.length - 1].deltaBatch(output, delta, scratch,
+                n);
+    }
+
+    /**
+     * Passes {@code n} images back through layers {@code lo} to
+     * {@code hi - 1}, given in {@code deltas[hi - lo - 1]} the losses with
+     * respect to the weighted sums of the last of them. Adds the gradient
+     * sums of layer {@code lo + j} to {@code gradients[j]} and stores the
+     * losses with respect to the inputs of layer {@code lo} in {@code loss}
+     * unless it is empty.
+     *
+     * @param lo
+     *            the position of the first layer
+     * @param hi
+     *            one past the position of the last layer
+     * @param input
+     *            the inputs to layer {@code lo} passed to
+     *            {@code forwardBatch}
+     * @param n
+     *            the number of images
+     * @param outputs
+     *            the activations {@code forwardBatch} stored
+     * @param deltas
+     *            the activation derivatives {@code forwardBatch} stored,
+     *            turned into the losses with respect to the weighted sums
+     * @param gradients
+     *            the gradient sums of each layer
+     * @param scratch
+     *            space for the losses between two layers
+     * @param loss
+     *            the losses with respect to the inputs of layer {@code lo},
+     *            or an empty array if nothing needs them
+     * @updates deltas, gradients
+     * @replaces scratch, loss
+     *
+     * @requires <pre> 0 <= lo < hi <= size() and the arrays are the ones of
+     * the last forwardBatch over the same layers and |scratch| >= n *
+     * widest(lo, hi) </pre>
+     */
+    public void backwardBatch(int lo, int hi, double[] input, int n,
+            double[][] outputs, double[][] deltas, double[][] gradients,
+            double[] scratch, double[] loss) {
+        this.backwardBatch(lo, hi, input, n, outputs, deltas, gradients,
+                scratch, loss, IGNORE);
+    }
+
+    /**
+     * Same as {@code backwardBatch} without a listener, but tells
+     * {@code listener} as soon as the gradient sums of each layer are
+     * complete, last layer first.
+     *
+     * @param lo
+     *            the position of the first layer
+     * @param hi
+     *            one past the position of the last layer
+     * @param input
+     *            the inputs to layer {@code lo} passed to
+     *            {@code forwardBatch}
+     * @param n
+     *            the number of images
+     * @param outputs
+     *            the activations {@code forwardBatch} stored
+     * @param deltas
+     *            the activation derivatives {@code forwardBatch} stored,
+     *            turned into the losses with respect to the weighted sums
+     * @param gradients
+     *            the gradient sums of each layer
+     * @param scratch
+     *            space for the losses between two layers
+     * @param loss
+     *            the losses with respect to the inputs of layer {@code lo},
+     *            or an empty array if nothing needs them
+     * @param listener
+     *            told the position of each layer whose gradient sums are
+     *            complete
+     * @updates deltas, gradients
+     * @replaces scratch, loss
+     *
+     * @requires <pre> 0 <= lo < hi <= size() and the arrays are the ones of
+     * the last forwardBatch over the same layers and |scratch| >= n *
+     * widest(lo, hi) </pre>
+     */
+    public void backwardBatch(int lo, int hi, double[] input, int n,
+            double[][] outputs, double[][] deltas, double[][] gradients,
+            double[] scratch, double[] loss, Listener listener) {
+        assert 0 <= lo && lo < hi && hi <= this.layers.length : ""
+                + "Violation of: 0 <= lo < hi <= size()";
+        for (int j = hi - lo - 1; j > 0; j--) {
+            this.layers[lo + j].gradientBatch(outputs[j - 1], deltas[j], n,
+                    gradients[j], scratch);
+            listener.gradientDone(lo + j);
+            this.layers[lo + j - 1].deltaBatch(outputs[j - 1], deltas[j - 1],
+                    scratch, n);
+        }
+        this.layers[lo].gradientBatch(input, deltas[0], n, gradients[0], loss);
+        listener.gradientDone(lo);
+    }
+
+    /**
+     * Returns the length of the arena {@code infer} needs.
+     *
+     * @return the arena length
+     */
+    public int arenaLength() {
+        return this.memory.length();
+    }
+
+    /**
+     * Passes {@code input} through every layer in turn and stores the outputs
+     * of the last one in {@code output}, keeping the intermediate activations
+     * in {@code arena} and nothing for back propagation.
+     *
+     * @param input
+     *            the input vector
+     * @param output
+     *            the array to store the outputs in
+     * @param arena
+     *            scratch space for the intermediate activations
+     * @replaces output, arena
+     *
+     * @requires <pre> |input| >= inputLength() and
+     * |output| >= outputLength() and |arena| >= arenaLength() </pre>
+     *
+     * @ensures <pre> input = #input </pre>
+     */
+    public void infer(double[] input, double[] output, double[] arena) {
+        assert arena.length >= this.memory.length() : ""
+                + "Violation of: |arena| >= arenaLength()";
+        int last = this.layers.length - 1;
+        if (last < 0) {
+            System.arraycopy(input, 0, output, 0, this.widths[0]);
+        }
+        double[] in = input;
+        int inOffset = 0;
+        for (int k = 0; k <= last; k++) {
+            double[] out = output;
+            int outOffset = 0;
+            if (k < last) {
+                out = arena;
+                outOffset = this.memory.offset(k);
+            }
+            this.layers[k].infer(in, inOffset, out, outOffset);
+            in = out;
+            inOffset = outOffset;
+        }
+    }
+
+    /**
+     * Passes {@code input} through every layer in turn and returns the
+     * outputs of the last one, keeping nothing for back propagation.
+     *
+     * @param input
+     *            the input vector
+     *
+     * @requires <pre> |input| >= inputLength() </pre>
+     *
+     * @ensures <pre> input = #input </pre>
+     *
+     * @return the activated output vector
+     */
+    public double[] infer(double[] input) {
+        double[] output = new double[this.outputLength()];
+        this.infer(input, output, new double[this.memory.length()]);
+        return output;
+    }
+
+    /**
+     * Returns the guess of {@code this} for {@code input}: the position of
+     * the largest output. The outputs and the intermediate activations are
+     * kept in {@code output} and {@code arena}, so a caller guessing many
+     * inputs allocates them once.
+     *
+     * @param input
+     *            the input vector
+     * @param output
+     *            the array to store the outputs in
+     * @param arena
+     *            scratch space for the intermediate activations
+     * @replaces output, arena
+     *
+     * @requires <pre> |input| >= inputLength() and
+     * |output| >= outputLength() and |arena| >= arenaLength() </pre>
+     *
+     * @ensures <pre> input = #input </pre>
+     *
+     * @return the guess of the image's label
+     */
+    public int guess(double[] input, double[] output, double[] arena) {
+        this.infer(input, output, arena);
+        double max = 0;
+        int index = 0;
+        for (int i = 0; i < this.outputLength(); i++) {
+            if (output[i] >= max) {
+                max = output[i];
+                index = i;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Returns the guess of {@code this} for {@code input}: the position of
+     * the largest output. Allocates the outputs and the arena on every call.
+     *
+     * @param input
+     *            the input vector
+     *
+     * @requires <pre> |input| >= inputLength() </pre>
+     *
+     * @ensures <pre> input = #input </pre>
+     *
+     * @return the guess of the image's label
+     */
+    public int guess(double[] input) {
+        return this.guess(input, new double[this.outputLength()],
+                new double[this.memory.length()]);
+    }
+
+}
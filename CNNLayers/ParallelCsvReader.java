@@ -0,0 +1,511 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Reads CSV files of labeled images on the fork-join common pool. Each line
+ * holds a label followed by the pixels of one image. Every file is mapped and
+ * split into byte ranges that end on a newline; the ranges are parsed
+ * concurrently, straight from the bytes, into one contiguous store in file
+ * order. Pixels are kept as unsigned bytes in a {@code LabeledDataset3} when
+ * they are all whole numbers in [0, 255], as in MNIST, and as doubles in a
+ * {@code LabeledDataset1} otherwise.
+ *
+ * <p>
+ * Lines are parsed in two passes. The first counts the lines in each range so
+ * that every range knows where its images start; the second decodes each range
+ * directly into its place in the shared store, so nothing is merged or copied
+ * afterwards. A single file must be smaller than 2 GB; larger data sets should
+ * be split into shards and read with {@link #read(List, int, int)}.
+ *
+ * @author Sepehr Hooshiari
+ *
+ */
+public final class ParallelCsvReader {
+
+    /**
+     * Smallest number of bytes worth handing to a worker of its own.
+     */
+    private static final int MIN_RANGE = 1 << 20;
+
+    /**
+     * Number of ranges per worker, so that uneven ranges still balance.
+     */
+    private static final int RANGES_PER_WORKER = 4;
+
+    /**
+     * Largest pixel value that can be stored in one unsigned byte.
+     */
+    private static final int MAX_NARROW = 255;
+
+    /**
+     * No argument constructor--private to prevent instantiation.
+     */
+    private ParallelCsvReader() {
+    }
+
+    /**
+     * Byte range of a mapped file holding whole lines.
+     */
+    private static final class Range {
+
+        /**
+         * The mapped file.
+         */
+        private final ByteBuffer bytes;
+
+        /**
+         * Position of the first byte of the range.
+         */
+        private final int start;
+
+        /**
+         * Position one past the last byte of the range.
+         */
+        private final int end;
+
+        /**
+         * Number of lines in the range, set by the counting pass.
+         */
+        private int lines;
+
+        /**
+         * Index in the store of the first image of the range.
+         */
+        private int first;
+
+        /**
+         * Constructor for {@code this}.
+         *
+         * @param bytes
+         *            the mapped file
+         * @param start
+         *            position of the first byte
+         * @param end
+         *            position one past the last byte
+         */
+        Range(ByteBuffer bytes, int start, int end) {
+            this.bytes = bytes;
+            this.start = start;
+            this.end = end;
+        }
+
+    }
+
+    /**
+     * Destination of the decoding pass. Pixels go to {@code narrow} while
+     * every pixel so far is a whole number in [0, 255], and otherwise to
+     * {@code wide} on a second attempt.
+     */
+    private static final class Store {
+
+        /**
+         * Pixels as unsigned bytes, or null when decoding to {@code wide}.
+         */
+        private final byte[] narrow;
+
+        /**
+         * Pixels as doubles, or null when decoding to {@code narrow}.
+         */
+        private final double[] wide;
+
+        /**
+         * Label of every image.
+         */
+        private final int[] labels;
+
+        /**
+         * Whether every pixel decoded so far fits in {@code narrow}.
+         */
+        private volatile boolean fits;
+
+        /**
+         * Constructor for {@code this}.
+         *
+         * @param narrow
+         *            byte pixels, or null
+         * @param wide
+         *            double pixels, or null
+         * @param labels
+         *            label of every image
+         */
+        Store(byte[] narrow, double[] wide, int[] labels) {
+            this.narrow = narrow;
+            this.wide = wide;
+            this.labels = labels;
+            this.fits = true;
+        }
+
+    }
+
+    /**
+     * Fork-join task that runs one pass over a run of ranges, splitting the
+     * run in half until a single range is left.
+     */
+    private static final class Pass extends RecursiveAction {
+
+        /**
+         * Generated serial version id.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Every range of the input.
+         */
+        private final List<Range> ranges;
+
+        /**
+         * Index of the first range of the run.
+         */
+        private final int lo;
+
+        /**
+         * Index one past the last range of the run.
+         */
+        private final int hi;
+
+        /**
+         * Store to decode into, or null for the counting pass.
+         */
+        private final Store store;
+
+        /**
+         * Number of pixels in each image.
+         */
+        private final int length;
+
+        /**
+         * Constructor for {@code this}.
+         *
+         * @param ranges
+         *            every range of the input
+         * @param lo
+         *            index of the first range of the run
+         * @param hi
+         *            index one past the last range of the run
+         * @param store
+         *            store to decode into, or null to count lines
+         * @param length
+         *            number of pixels in each image
+         */
+        Pass(List<Range> ranges, int lo, int hi, Store store, int length) {
+            this.ranges = ranges;
+            this.lo = lo;
+            this.hi = hi;
+            this.store = store;
+            this.length = length;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.hi - this.lo > 1) {
+                int mid = (this.lo + this.hi) >>> 1;
+                invokeAll(
+                        new Pass(this.ranges, this.lo, mid, this.store,
+                                this.length),
+                        new Pass(this.ranges, mid, this.hi, this.store,
+                                this.length));
+            } else if (this.hi > this.lo) {
+                Range r = this.ranges.get(this.lo);
+                if (this.store == null) {
+                    r.lines = countLines(r);
+                } else {
+                    decode(r, this.store, this.length);
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Maps the whole of {@code file} read-only.
+     *
+     * @param file
+     *            the name of the file
+     *
+     * @return the mapped contents of {@code file}
+     */
+    private static ByteBuffer map(String file) {
+        try (FileChannel channel = FileChannel.open(Paths.get(file),
+                StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+        } catch (IOException e) {
+            throw new AssertionError("Violation of: can read from file");
+        }
+    }
+
+    /**
+     * Splits {@code bytes} into about {@code parts} ranges that each end just
+     * after a newline (or at the end of the file) and adds them to
+     * {@code ranges}.
+     *
+     * @param bytes
+     *            the mapped file
+     * @param parts
+     *            the number of ranges wanted
+     * @param ranges
+     *            the ranges found so far
+     * @updates ranges
+     */
+    private static void split(ByteBuffer bytes, int parts, List<Range> ranges) {
+        int size = bytes.limit();
+        int start = 0;
+        for (int k = 1; k <= parts && start < size; k++) {
+            int end = Math.max(start + 1, (int) ((long) size * k / parts));
+            while (end < size && bytes.get(end - 1) != '\n') {
+                end++;
+            }
+            ranges.add(new Range(bytes, start, end));
+            start = end;
+        }
+    }
+
+    /**
+     * Returns the number of non-empty lines in {@code r}.
+     *
+     * @param r
+     *            the range
+     *
+     * @return the number of lines
+     */
+    private static int countLines(Range r) {
+        int lines = 0;
+        boolean content = false;
+        for (int p = r.start; p < r.end; p++) {
+            byte b = r.bytes.get(p);
+            if (b == '\n') {
+                if (content) {
+                    lines++;
+                }
+                content = false;
+            } else if (b != '\r') {
+                content = true;
+            }
+        }
+        if (content) {
+            lines++;
+        }
+        return lines;
+    }
+
+    /**
+     * Decodes every line of {@code r} into {@code store}, starting at image
+     * {@code r.first}.
+     *
+     * @param r
+     *            the range
+     * @param store
+     *            the store of pixels and labels
+     * @param length
+     *            number of pixels in each image
+     * @updates store
+     */
+    private static void decode(Range r, Store store, int length) {
+        ByteBuffer bytes = r.bytes;
+        int image = r.first;
+        int p = r.start;
+        while (p < r.end) {
+            byte b = bytes.get(p);
+            if (b == '\n' || b == '\r') {
+                p++;
+            } else {
+                /*
+                 * One line: the label then length pixels, each field a decimal
+                 * number parsed in place.
+                 */
+                int base = image * length;
+                int field = 0;
+                boolean endOfLine = false;
+                while (!endOfLine) {
+                    boolean negative = false;
+                    if (p < r.end && bytes.get(p) == '-') {
+                        negative = true;
+                        p++;
+                    }
+                    long whole = 0;
+                    long fraction = 0;
+                    long scale = 1;
+                    boolean point = false;
+                    boolean digits = false;
+                    boolean endOfField = false;
+                    while (!endOfField) {
+                        int c = -1;
+                        if (p < r.end) {
+                            c = bytes.get(p);
+                        }
+                        if (c >= '0' && c <= '9') {
+                            digits = true;
+                            if (point) {
+                                fraction = fraction * 10 + (c - '0');
+                                scale *= 10;
+                            } else {
+                                whole = whole * 10 + (c - '0');
+                            }
+                            p++;
+                        } else if (c == '.' && !point) {
+                            point = true;
+                            p++;
+                        } else if (c == ',') {
+                            endOfField = true;
+                            p++;
+                        } else if (c == '\r' || c == '\n' || c == -1) {
+                            endOfField = true;
+                            endOfLine = true;
+                        } else {
+                            throw new AssertionError(
+                                    "Violation of: fields are decimal numbers");
+                        }
+                    }
+                    if (!digits) {
+                        throw new AssertionError(
+                                "Violation of: fields are decimal numbers");
+                    }
+                    double value = whole + (double) fraction / scale;
+                    if (negative) {
+                        value = -value;
+                    }
+                    if (field == 0) {
+                        store.labels[image] = (int) value;
+                    } else if (field <= length) {
+                        if (store.wide != null) {
+                            store.wide[base + field - 1] = value;
+                        } else if (fraction == 0 && !negative
+                                && whole <= MAX_NARROW) {
+                            store.narrow[base + field - 1] = (byte) whole;
+                        } else {
+                            store.fits = false;
+                        }
+                    }
+                    field++;
+                }
+                if (field != length + 1) {
+                    throw new AssertionError(
+                            "Violation of: each line holds a label and "
+                                    + length + " pixels");
+                }
+                image++;
+            }
+        }
+    }
+
+    /**
+     * Reads the CSV file {@code file} of labeled images in parallel.
+     *
+     * @param file
+     *            the name of the input file
+     * @param rows
+     *            number of rows in each image
+     * @param columns
+     *            number of columns in each image
+     *
+     * @return the labeled images in the file
+     */
+    public static LabeledDataset read(String file, int rows, int columns) {
+        List<String> files = new ArrayList<>();
+        files.add(file);
+        return read(files, rows, columns);
+    }
+
+    /**
+     * Reads the CSV shards {@code files} of labeled images in parallel. The
+     * images of the first shard come first, then those of the second, and so
+     * on.
+     *
+     * @param files
+     *            the names of the input files
+     * @param rows
+     *            number of rows in each image
+     * @param columns
+     *            number of columns in each image
+     *
+     * @return the labeled images in the files
+     */
+    public static LabeledDataset read(List<String> files, int rows,
+            int columns) {
+        List<ByteBuffer> mapped = new ArrayList<>();
+        for (String file : files) {
+            mapped.add(map(file));
+        }
+        return parse(mapped, rows, columns);
+    }
+
+    /**
+     * Parses the CSV text held in {@code bytes}, from index 0 up to its limit,
+     * in parallel.
+     *
+     * @param bytes
+     *            whole lines of CSV text
+     * @param rows
+     *            number of rows in each image
+     * @param columns
+     *            number of columns in each image
+     *
+     * @return the labeled images in {@code bytes}
+     */
+    public static LabeledDataset read(ByteBuffer bytes, int rows,
+            int columns) {
+        List<ByteBuffer> texts = new ArrayList<>();
+        texts.add(bytes);
+        return parse(texts, rows, columns);
+    }
+
+    /**
+     * Parses each of {@code texts} in turn, in parallel, into one store.
+     *
+     * @param texts
+     *            whole lines of CSV text, indexed from 0 up to each limit
+     * @param rows
+     *            number of rows in each image
+     * @param columns
+     *            number of columns in each image
+     *
+     * @return the labeled images in {@code texts}
+     */
+    private static LabeledDataset parse(List<ByteBuffer> texts, int rows,
+            int columns) {
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        long total = 0;
+        for (ByteBuffer bytes : texts) {
+            total += bytes.limit();
+        }
+        int wanted = Math.max(1, (int) Math.min(
+                (long) RANGES_PER_WORKER * pool.getParallelism(),
+                total / MIN_RANGE));
+        List<Range> ranges = new ArrayList<>();
+        for (ByteBuffer bytes : texts) {
+            if (bytes.limit() > 0) {
+                long share = Math.max(1,
+                        wanted * (long) bytes.limit() / total);
+                split(bytes, (int) share, ranges);
+            }
+        }
+
+        final int length = rows * columns;
+        pool.invoke(new Pass(ranges, 0, ranges.size(), null, length));
+        int images = 0;
+        for (Range r : ranges) {
+            r.first = images;
+            images += r.lines;
+        }
+        int[] labels = new int[images];
+        Store store = new Store(new byte[images * length], null, labels);
+        pool.invoke(new Pass(ranges, 0, ranges.size(), store, length));
+        LabeledDataset result;
+        if (store.fits) {
+            result = new LabeledDataset3(store.narrow, labels, rows, columns);
+        } else {
+            store = new Store(null, new double[images * length], labels);
+            pool.invoke(new Pass(ranges, 0, ranges.size(), store, length));
+            result = new LabeledDataset1(store.wide, labels, rows, columns);
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,188 @@
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Splits a range of indices, such as the output neurons of a layer, into
+ * pieces run on the common fork-join pool, for single-input passes through
+ * layers wide enough that one core would dominate the latency. Ranges whose
+ * work is too small to repay handing pieces to other cores are run on the
+ * calling thread. Pieces start at multiples of a cache line's worth of
+ * elements of the array being written, so two pieces writing neighboring
+ * elements seldom share a cache line.
+ *
+ * @author Sepehr Hooshiari
+ *
+ */
+public final class ParallelRange {
+
+    /**
+     * Multiply-adds below which a range is run on the calling thread.
+     */
+    private static final long THRESHOLD = 1L << 17;
+
+    /**
+     * Multiply-adds below which a piece is not split further.
+     */
+    private static final long LEAF = 1L << 14;
+
+    /**
+     * Bytes per cache line, which pieces are aligned to.
+     */
+    private static final int CACHE_LINE = 64;
+
+    /**
+     * Runs over a piece {@code [lo, hi)} of a range.
+     */
+    public interface Body {
+
+        /**
+         * Runs over the indices {@code [lo, hi)}.
+         *
+         * @param lo
+         *            the first index
+         * @param hi
+         *            one past the last index
+         */
+        void run(int lo, int hi);
+
+    }
+
+    /**
+     * Runs {@code body} over {@code [lo, hi)}, splitting it in halves while
+     * the pieces stay big enough.
+     */
+    private static final class Piece extends RecursiveAction {
+
+        /**
+         * Generated serial version ID.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * First index of the piece.
+         */
+        private final int lo;
+
+        /**
+         * One past the last index of the piece.
+         */
+        private final int hi;
+
+        /**
+         * Multiply-adds per index.
+         */
+        private final long work;
+
+        /**
+         * Indices per cache line, which the halves are aligned to.
+         */
+        private final int align;
+
+        /**
+         * What to run over the piece.
+         */
+        private final transient Body body;
+
+        /**
+         * Constructor for {@code this}.
+         *
+         * @param lo
+         *            first index of the piece
+         * @param hi
+         *            one past the last index of the piece
+         * @param work
+         *            multiply-adds per index
+         * @param align
+         *            indices per cache line
+         * @param body
+         *            what to run over the piece
+         */
+        Piece(int lo, int hi, long work, int align, Body body) {
+            this.lo = lo;
+            this.hi = hi;
+            this.work = work;
+            this.align = align;
+            this.body = body;
+        }
+
+        @Override
+        protected void compute() {
+            int half = ((this.hi - this.lo) / 2) & -this.align;
+            if (half > 0 && half * this.work >= LEAF) {
+                int mid = this.lo + half;
+                invokeAll(
+                        new Piece(this.lo, mid, this.work, this.align,
+                                this.body),
+                        new Piece(mid, this.hi, this.work, this.align,
+                                this.body));
+            } else {
+                this.body.run(this.lo, this.hi);
+            }
+        }
+
+    }
+
+    /**
+     * No argument constructor--private to prevent instantiation.
+     */
+    private ParallelRange() {
+    }
+
+    /**
+     * Returns the number of indices per cache line of an array whose elements
+     * take {@code bytes} bytes.
+     *
+     * @param bytes
+     *            bytes per element, a power of 2 no larger than a cache line
+     *
+     * @return indices per cache line
+     */
+    private static int align(int bytes) {
+        assert bytes > 0 && bytes <= CACHE_LINE
+                && Integer.bitCount(bytes) == 1 : ""
+                + "Violation of: bytes is a power of 2 <= a cache line";
+        return CACHE_LINE / bytes;
+    }
+
+    /**
+     * Returns whether a range of {@code length} indices, each costing
+     * {@code work} multiply-adds and writing elements of {@code bytes} bytes,
+     * is worth splitting across cores.
+     *
+     * @param length
+     *            the number of indices
+     * @param work
+     *            multiply-adds per index
+     * @param bytes
+     *            bytes per element written, e.g. {@code Double.BYTES}
+     *
+     * @return whether {@code run} would split the range
+     */
+    public static boolean pays(int length, long work, int bytes) {
+        return length >= 2 * align(bytes) && length * work >= THRESHOLD;
+    }
+
+    /**
+     * Runs {@code body} over {@code [0, length)}, in pieces on the common
+     * fork-join pool if that pays, and in one piece on the calling thread
+     * otherwise. Returns once every piece has run.
+     *
+     * @param length
+     *            the number of indices
+     * @param work
+     *            multiply-adds per index
+     * @param bytes
+     *            bytes per element written, e.g. {@code Double.BYTES}
+     * @param body
+     *            what to run over each piece
+     *
+     * @requires <pre> pieces of [0, length) may run at the same time </pre>
+     */
+    public static void run(int length, long work, int bytes, Body body) {
+        if (pays(length, work, bytes)) {
+            new Piece(0, length, work, align(bytes), body).invoke();
+        } else {
+            body.run(0, length);
+        }
+    }
+
+}
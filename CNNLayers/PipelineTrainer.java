@@ -0,0 +1,504 @@
+import java.util.Arrays;
+
+/**
+ * Trains the layers of a {@code NetworkPlan} with each run of consecutive
+ * layers, a stage, on its own thread. Each mini-batch is split into
+ * micro-batches that flow forward from stage to stage and their losses back,
+ * through bounded single-producer single-consumer queues, so while one stage
+ * works on a micro-batch the stage before it is already on the next. The
+ * schedule is GPipe's: a stage passes every micro-batch of the mini-batch
+ * forward before it takes any back, sums the gradients of all of them, and
+ * updates its layers once by the mean, as {@code updateBatch} would for the
+ * whole mini-batch. The last stage takes each micro-batch back as soon as it
+ * has passed it forward.
+ *
+ * <p>
+ * Stages hand each other their own arrays rather than copies. A stage only
+ * reuses an array for the next mini-batch after the stage it went to has
+ * passed back every micro-batch, so nothing is overwritten while it is still
+ * read. Stages are split so that each holds about the same number of weights.
+ *
+ * @author Sepehr Hooshiari
+ *
+ */
+public final class PipelineTrainer {
+
+    /**
+     * Passed as the loss with respect to the inputs of the first layer, which
+     * nothing needs.
+     */
+    private static final double[] NO_LOSS = {};
+
+    /**
+     * Number of spins before the trainer waiting on the stages starts
+     * yielding.
+     */
+    private static final int SPINS = 100;
+
+    /**
+     * Milliseconds between checks for a failed stage while waiting for the
+     * stages to end.
+     */
+    private static final long JOIN_MILLIS = 10;
+
+    /**
+     * The layers being trained.
+     */
+    private final NetworkPlan plan;
+
+    /**
+     * In case input values become too large.
+     */
+    private final double scalar;
+
+    /**
+     * Stage {@code s} holds layers {@code [bounds[s], bounds[s + 1])}.
+     */
+    private final int[] bounds;
+
+    /**
+     * Number of micro-batches per mini-batch.
+     */
+    private final int micros;
+
+    /**
+     * Number of images in each micro-batch of the current mini-batch.
+     */
+    private int[] sizes;
+
+    /**
+     * Label of each image of each micro-batch of the current mini-batch.
+     */
+    private int[][] labels;
+
+    /**
+     * What a stage failed with, or null while none has.
+     */
+    private volatile Throwable failure;
+
+    /**
+     * The layers of one stage, with its activations, derivatives, losses and
+     * gradient sums for every micro-batch of a mini-batch.
+     */
+    private final class Stage implements Runnable {
+
+        /**
+         * First layer of the stage.
+         */
+        private final int lo;
+
+        /**
+         * One past the last layer of the stage.
+         */
+        private final int hi;
+
+        /**
+         * Number of mini-batches to train on.
+         */
+        private final int batches;
+
+        /**
+         * Micro-batch inputs from the stage before, or from the trainer.
+         */
+        private final SpscQueue<double[]> forwardIn;
+
+        /**
+         * Micro-batch outputs to the stage after, or null for the last stage.
+         */
+        private final SpscQueue<double[]> forwardOut;
+
+        /**
+         * Losses with respect to the outputs from the stage after, or null
+         * for the last stage.
+         */
+        private final SpscQueue<double[]> backwardIn;
+
+        /**
+         * Losses with respect to the inputs to the stage before, or, for the
+         * first stage, a token to the trainer once each update is done.
+         */
+        private final SpscQueue<double[]> backwardOut;
+
+        /**
+         * The input of each micro-batch, as received.
+         */
+        private final double[][] inputs;
+
+        /**
+         * Activations of each layer for each micro-batch.
+         */
+        private final double[][][] outputs;
+
+        /**
+         * Activation derivatives of each layer for each micro-batch, turned
+         * into the losses with respect to the weighted sums on the way back.
+         */
+        private final double[][][] deltas;
+
+        /**
+         * Losses with respect to the stage's inputs for each micro-batch.
+         */
+        private final double[][] losses;
+
+        /**
+         * Losses with respect to the inputs of a layer inside the stage.
+         */
+        private final double[] scratch;
+
+        /**
+         * Gradient sums of each layer.
+         */
+        private final double[][] gradients;
+
+        /**
+         * Constructor for {@code this}.
+         *
+         * @param s
+         *            the position of the stage
+         * @param batches
+         *            the number of mini-batches to train on
+         * @param capacity
+         *            the most images in a micro-batch
+         * @param forward
+         *            the forward queues into each stage
+         * @param backward
+         *            the backward queues out of each stage
+         */
+        Stage(int s, int batches, int capacity, SpscQueue<double[]>[] forward,
+                SpscQueue<double[]>[] backward) {
+            NetworkPlan layers = PipelineTrainer.this.plan;
+            int last = forward.length - 1;
+            this.lo = PipelineTrainer.this.bounds[s];
+            this.hi = PipelineTrainer.this.bounds[s + 1];
+            this.batches = batches;
+            this.forwardIn = forward[s];
+            this.backwardOut = backward[s];
+            SpscQueue<double[]> out = null;
+            SpscQueue<double[]> in = null;
+            if (s < last) {
+                out = forward[s + 1];
+                in = backward[s + 1];
+            }
+            this.forwardOut = out;
+            this.backwardIn = in;
+
+            int count = this.hi - this.lo;
+            int micros = PipelineTrainer.this.micros;
+            this.inputs = new double[micros][];
+            this.outputs = new double[micros][count][];
+            this.deltas = new double[micros][count][];
+            this.losses = new double[micros][];
+            for (int m = 0; m < micros; m++) {
+                for (int k = 0; k < count; k++) {
+                    int width = capacity * layers.width(this.lo + k + 1);
+                    this.outputs[m][k] = new double[width];
+                    this.deltas[m][k] = new double[width];
+                }
+                this.losses[m] = NO_LOSS;
+                if (s > 0) {
+                    this.losses[m] = new double[capacity
+                            * layers.width(this.lo)];
+                }
+            }
+            this.gradients = new double[count][];
+            for (int k = 0; k < count; k++) {
+                this.gradients[k] = new double[layers.width(this.lo + k)
+                        * layers.width(this.lo + k + 1)];
+            }
+            this.scratch = new double[capacity
+                    * layers.widest(this.lo, this.hi)];
+        }
+
+        @Override
+        public void run() {
+            NetworkPlan layers = PipelineTrainer.this.plan;
+            int micros = PipelineTrainer.this.micros;
+            int last = this.hi - this.lo - 1;
+            for (int t = 0; t < this.batches; t++) {
+                for (double[] gradient : this.gradients) {
+                    Arrays.fill(gradient, 0);
+                }
+                int count = 0;
+                for (int m = 0; m < micros; m++) {
+                    this.inputs[m] = this.forwardIn.take();
+                    int n = PipelineTrainer.this.sizes[m];
+                    count += n;
+                    this.forward(m, n);
+                    if (this.forwardOut == null) {
+                        this.error(m, n);
+                        this.backward(m, n);
+                    } else {
+                        this.forwardOut.put(this.outputs[m][last]);
+                    }
+                }
+                for (int m = 0; this.backwardIn != null && m < micros; m++) {
+                    double[] loss = this.backwardIn.take();
+                    int n = PipelineTrainer.this.sizes[m];
+                    layers.layer(this.hi - 1).deltaBatch(this.outputs[m][last],
+                            this.deltas[m][last], loss, n);
+                    this.backward(m, n);
+                }
+                for (int k = 0; k <= last; k++) {
+                    layers.layer(this.lo + k).applyGradient(this.gradients[k],
+                            count);
+                }
+                if (this.lo == 0) {
+                    this.backwardOut.put(NO_LOSS);
+                }
+            }
+        }
+
+        /**
+         * Passes micro-batch {@code m} forward through the stage's layers.
+         *
+         * @param m
+         *            the micro-batch
+         * @param n
+         *            the number of images in it
+         */
+        private void forward(int m, int n) {
+            PipelineTrainer.this.plan.forwardBatch(this.lo, this.hi,
+                    this.inputs[m], n, this.outputs[m], this.deltas[m]);
+        }
+
+        /**
+         * Turns the derivatives of the network's outputs for micro-batch
+         * {@code m} into the losses with respect to its weighted sums.
+         *
+         * @param m
+         *            the micro-batch
+         * @param n
+         *            the number of images in it
+         */
+        private void error(int m, int n) {
+            int last = this.hi - this.lo - 1;
+            PipelineTrainer.this.plan.errorBatch(this.outputs[m][last],
+                    this.deltas[m][last], PipelineTrainer.this.labels[m], n,
+                    this.scratch);
+        }
+
+        /**
+         * Passes micro-batch {@code m} back through the stage's layers,
+         * adding to their gradient sums, and sends the loss with respect to
+         * the stage's inputs to the stage before.
+         *
+         * @param m
+         *            the micro-batch
+         * @param n
+         *            the number of images in it
+         */
+        private void backward(int m, int n) {
+            PipelineTrainer.this.plan.backwardBatch(this.lo, this.hi,
+                    this.inputs[m], n, this.outputs[m], this.deltas[m],
+                    this.gradients, this.scratch, this.losses[m]);
+            if (this.lo > 0) {
+                this.backwardOut.put(this.losses[m]);
+            }
+        }
+
+    }
+
+    /**
+     * Constructor for {@code this}.
+     *
+     * @param plan
+     *            the layers to train
+     * @param scalar
+     *            the factor the pixels are divided by
+     * @param stages
+     *            the number of stages, each on its own thread
+     * @param micros
+     *            the number of micro-batches per mini-batch
+     *
+     * @requires <pre> 0 < stages <= plan.size() and micros > 0 </pre>
+     */
+    public PipelineTrainer(NetworkPlan plan, double scalar, int stages,
+            int micros) {
+        assert 0 < stages && stages <= plan.size() : ""
+                + "Violation of: 0 < stages <= plan.size()";
+        assert micros > 0 : "Violation of: micros > 0";
+        this.plan = plan;
+        this.scalar = scalar;
+        this.micros = micros;
+        this.bounds = new int[stages + 1];
+
+        // cut wherever the running count of weights passes the next share
+        long total = 0;
+        for (int k = 0; k < plan.size(); k++) {
+            total += (long) plan.width(k) * plan.width(k + 1);
+        }
+        long sum = 0;
+        int k = 0;
+        for (int s = 1; s < stages; s++) {
+            long share = total * s / stages;
+            do {
+                sum += (long) plan.width(k) * plan.width(k + 1);
+                k++;
+            } while (sum < share && k < plan.size() - (stages - s));
+            this.bounds[s] = k;
+        }
+        this.bounds[stages] = plan.size();
+    }
+
+    /**
+     * Returns the number of stages of {@code this}.
+     *
+     * @return the number of stages
+     */
+    public int stages() {
+        return this.bounds.length - 1;
+    }
+
+    /**
+     * Returns the position in the plan of the first layer of stage {@code s}.
+     *
+     * @param s
+     *            the stage
+     *
+     * @requires <pre> 0 <= s < stages() </pre>
+     *
+     * @return the position of the stage's first layer
+     */
+    public int firstLayer(int s) {
+        assert 0 <= s && s < this.stages() : ""
+                + "Violation of: 0 <= s < stages()";
+        return this.bounds[s];
+    }
+
+    /**
+     * Trains the layers to reduce margin of error, visiting the images in the
+     * given order {@code batch} at a time, and updating the weights once per
+     * batch by the mean of the batch's gradients.
+     *
+     * @param images
+     *            the training images
+     * @param order
+     *            indices into {@code images}
+     * @param batch
+     *            the number of images per weight update
+     *
+     * @requires <pre> batch > 0 and the image size of images is the input
+     * length of the plan </pre>
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public void train(LabeledDataset images, int[] order, int batch) {
+        assert batch > 0 : "Violation of: batch > 0";
+        assert images.rows() * images.columns() == this.plan.inputLength() : ""
+                + "Violation of: images fit the first layer";
+        int stages = this.stages();
+        int batches = (order.length + batch - 1) / batch;
+        int capacity = (batch + this.micros - 1) / this.micros;
+        int in = this.plan.inputLength();
+        this.sizes = new int[this.micros];
+        this.labels = new int[this.micros][capacity];
+        this.failure = null;
+        double[][] inputs = new double[this.micros][capacity * in];
+
+        SpscQueue<double[]>[] forward = new SpscQueue[stages];
+        SpscQueue<double[]>[] backward = new SpscQueue[stages];
+        for (int s = 0; s < stages; s++) {
+            forward[s] = new SpscQueue<>(this.micros);
+            backward[s] = new SpscQueue<>(this.micros);
+        }
+        Thread[] threads = new Thread[stages];
+        for (int s = 0; s < stages; s++) {
+            threads[s] = new Thread(
+                    new Stage(s, batches, capacity, forward, backward),
+                    "pipeline stage " + s);
+            threads[s].setDaemon(true);
+            threads[s].setUncaughtExceptionHandler((thread, e) -> {
+                // the stages stopped after a failure fail too; keep the first
+                if (this.failure == null) {
+                    this.failure = e;
+                }
+            });
+            threads[s].start();
+        }
+
+        for (int start = 0; start < order.length; start += batch) {
+            int count = Math.min(batch, order.length - start);
+            for (int m = 0; m < this.micros; m++) {
+                int from = start + (int) ((long) count * m / this.micros);
+                int to = start + (int) ((long) count * (m + 1) / this.micros);
+                this.sizes[m] = to - from;
+                for (int b = 0; b < to - from; b++) {
+                    images.copyImage(order[from + b], inputs[m], b * in,
+                            1.0 / this.scalar);
+                    this.labels[m][b] = images.label(order[from + b]);
+                }
+                forward[0].put(inputs[m]);
+            }
+            // the inputs are only refilled once the first stage is done
+            this.await(backward[0], threads);
+        }
+        for (Thread thread : threads) {
+            try {
+                while (thread.isAlive() && this.failure == null) {
+                    thread.join(JOIN_MILLIS);
+                }
+            } catch (InterruptedException e) {
+                stop(threads);
+                Thread.currentThread().interrupt();
+                throw new AssertionError("Violation of: not interrupted", e);
+            }
+        }
+        if (this.failure != null) {
+            stop(threads);
+            throw new AssertionError("Violation of: no stage fails",
+                    this.failure);
+        }
+    }
+
+    /**
+     * Interrupts every stage, so that any still waiting on a queue give up,
+     * and waits for all of them to end.
+     *
+     * @param threads
+     *            the threads the stages run on
+     */
+    private static void stop(Thread[] threads) {
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+        boolean interrupted = Thread.interrupted();
+        for (Thread thread : threads) {
+            while (thread.isAlive()) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Waits for the next item of {@code queue}, as long as no stage has
+     * failed. If one has, stops every stage first.
+     *
+     * @param queue
+     *            the queue to wait on
+     * @param threads
+     *            the threads the stages run on
+     */
+    private void await(SpscQueue<double[]> queue, Thread[] threads) {
+        int spins = 0;
+        while (queue.poll() == null) {
+            if (this.failure != null) {
+                stop(threads);
+                throw new AssertionError("Violation of: no stage fails",
+                        this.failure);
+            }
+            if (spins < SPINS) {
+                Thread.onSpinWait();
+            } else {
+                Thread.yield();
+            }
+            spins++;
+        }
+    }
+
+}
@@ -0,0 +1,48 @@
+/**
+ * The rectifier {@code max(0, z)}, whose derivative is 1 for positive sums
+ * and 0 otherwise.
+ *
+ * @author Sepehr Hooshiari
+ *
+ */
+public class Relu implements Activation {
+
+    @Override
+    public final void apply(double[] z, double[] a, int offset, int length) {
+        for (int k = offset; k < offset + length; k++) {
+            a[k] = Math.max(0, z[k]);
+        }
+    }
+
+    @Override
+    public final void derivative(double[] z, double[] a, double[] out,
+            int offset, int length) {
+        for (int k = offset; k < offset + length; k++) {
+            double d = 0;
+            if (z[k] > 0) {
+                d = 1;
+            }
+            out[k] = d;
+        }
+    }
+
+    @Override
+    public final void apply(float[] z, float[] a, int offset, int length) {
+        for (int k = offset; k < offset + length; k++) {
+            a[k] = Math.max(0, z[k]);
+        }
+    }
+
+    @Override
+    public final void derivative(float[] z, float[] a, float[] out,
+            int offset, int length) {
+        for (int k = offset; k < offset + length; k++) {
+            float d = 0;
+            if (z[k] > 0) {
+                d = 1;
+            }
+            out[k] = d;
+        }
+    }
+
+}
@@ -0,0 +1,53 @@
+/**
+ * The logistic function {@code 1 / (1 + e^-z)}, computed with
+ * {@code Math.exp} or, when enabled, the Vector API. Its derivative is
+ * {@code a * (1 - a)}, except that a derivative that rounds to exactly zero
+ * (a saturated neuron) is replaced by a small leak, as
+ * {@code CNNLayersKernel.sigmoidPrime} does, so that saturated neurons still
+ * learn.
+ *
+ * @author Sepehr Hooshiari
+ *
+ */
+public class Sigmoid implements Activation {
+
+    /**
+     * Derivative used in place of an exact zero.
+     */
+    private static final double LEAK = 0.01;
+
+    @Override
+    public final void apply(double[] z, double[] a, int offset, int length) {
+        Simd.OPS.sigmoid(z, a, offset, length);
+    }
+
+    @Override
+    public final void derivative(double[] z, double[] a, double[] out,
+            int offset, int length) {
+        for (int k = offset; k < offset + length; k++) {
+            double d = a[k] * (1 - a[k]);
+            if (d == 0) {
+                d = LEAK;
+            }
+            out[k] = d;
+        }
+    }
+
+    @Override
+    public final void apply(float[] z, float[] a, int offset, int length) {
+        Simd.OPS.sigmoid(z, a, offset, length);
+    }
+
+    @Override
+    public final void derivative(float[] z, float[] a, float[] out,
+            int offset, int length) {
+        for (int k = offset; k < offset + length; k++) {
+            float d = a[k] * (1 - a[k]);
+            if (d == 0) {
+                d = (float) LEAK;
+            }
+            out[k] = d;
+        }
+    }
+
+}
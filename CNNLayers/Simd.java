@@ -0,0 +1,77 @@
+/**
+ * Chooses the {@code VectorOps} used by the dense layers. The Vector API
+ * implementation is used when the {@code jdk.incubator.vector} module is
+ * enabled (run with {@code --add-modules jdk.incubator.vector}) and the system
+ * property {@code cnn.simd} is not {@code false}; otherwise the scalar one is.
+ *
+ * <p>
+ * The Vector API implementation lives in the separate source directory
+ * {@code CNNLayersVector}, so {@code CNNLayers} compiles without the module.
+ * To build it as well, compile it second, against the first:
+ *
+ * <pre>
+ * javac -d out CNNLayers/*.java
+ * javac --add-modules jdk.incubator.vector -cp out -d out CNNLayersVector/*.java
+ * </pre>
+ *
+ * If it was not built, or the module is not enabled at run time, the scalar
+ * implementation is used.
+ *
+ * @author Sepehr Hooshiari
+ *
+ */
+public final class Simd {
+
+    /**
+     * Name of the module holding the Vector API.
+     */
+    private static final String MODULE = "jdk.incubator.vector";
+
+    /**
+     * Name of the Vector API implementation, which is only loaded by name so
+     * that nothing else depends on the module.
+     */
+    private static final String VECTOR_OPS = "VectorOps2";
+
+    /**
+     * The chosen implementation.
+     */
+    public static final VectorOps OPS = select();
+
+    /**
+     * No argument constructor--private to prevent instantiation.
+     */
+    private Simd() {
+    }
+
+    /**
+     * Returns the Vector API implementation if it is wanted and can be
+     * loaded, and the scalar implementation otherwise.
+     *
+     * @return the implementation to use
+     */
+    private static VectorOps select() {
+        VectorOps ops = new VectorOps1();
+        boolean wanted = !"false".equals(System.getProperty("cnn.simd"));
+        if (wanted && ModuleLayer.boot().findModule(MODULE).isPresent()) {
+            try {
+                ops = (VectorOps) Class.forName(VECTOR_OPS).getConstructor()
+                        .newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // the scalar loops compute the same results, only slower
+                ops = new VectorOps1();
+            }
+        }
+        return ops;
+    }
+
+    /**
+     * Returns whether the Vector API implementation was chosen.
+     *
+     * @return true if {@code OPS} uses the Vector API
+     */
+    public static boolean isVectorized() {
+        return !(OPS instanceof VectorOps1);
+    }
+
+}
@@ -0,0 +1,86 @@
+/**
+ * The softmax over each run of weighted sums, {@code e^z[k] / sum e^z}, which
+ * turns a layer's outputs into probabilities. The largest sum is subtracted
+ * first so that no exponent overflows. Every output depends on every sum of
+ * the run, so {@code derivative} only gives the diagonal {@code a * (1 - a)}
+ * of the Jacobian, and {@code backward} multiplies by the whole of it:
+ * {@code delta[k] = a[k] * (g[k] - sum g[j] * a[j])}.
+ *
+ * @author Sepehr Hooshiari
+ *
+ */
+public class Softmax implements Activation {
+
+    @Override
+    public final void apply(double[] z, double[] a, int offset, int length) {
+        double max = Double.NEGATIVE_INFINITY;
+        for (int k = offset; k < offset + length; k++) {
+            max = Math.max(max, z[k]);
+        }
+        double sum = 0;
+        for (int k = offset; k < offset + length; k++) {
+            a[k] = Math.exp(z[k] - max);
+            sum += a[k];
+        }
+        for (int k = offset; k < offset + length; k++) {
+            a[k] /= sum;
+        }
+    }
+
+    @Override
+    public final void derivative(double[] z, double[] a, double[] out,
+            int offset, int length) {
+        for (int k = offset; k < offset + length; k++) {
+            out[k] = a[k] * (1 - a[k]);
+        }
+    }
+
+    @Override
+    public final void backward(double[] a, double[] slopes, double[] g,
+            double[] delta, int offset, int length) {
+        double dot = 0;
+        for (int j = offset; j < offset + length; j++) {
+            dot += g[j] * a[j];
+        }
+        for (int k = offset; k < offset + length; k++) {
+            delta[k] = a[k] * (g[k] - dot);
+        }
+    }
+
+    @Override
+    public final void apply(float[] z, float[] a, int offset, int length) {
+        float max = Float.NEGATIVE_INFINITY;
+        for (int k = offset; k < offset + length; k++) {
+            max = Math.max(max, z[k]);
+        }
+        float sum = 0;
+        for (int k = offset; k < offset + length; k++) {
+            a[k] = (float) Math.exp(z[k] - max);
+            sum += a[k];
+        }
+        for (int k = offset; k < offset + length; k++) {
+            a[k] /= sum;
+        }
+    }
+
+    @Override
+    public final void derivative(float[] z, float[] a, float[] out,
+            int offset, int length) {
+        for (int k = offset; k < offset + length; k++) {
+            out[k] = a[k] * (1 - a[k]);
+        }
+    }
+
+    @Override
+    public final void backward(float[] a, float[] slopes, float[] g,
+            float[] delta, int offset, int length) {
+        float dot = 0;
+        for (int j = offset; j < offset + length; j++) {
+            dot += g[j] * a[j];
+        }
+        for (int k = offset; k < offset + length; k++) {
+            delta[k] = a[k] * (g[k] - dot);
+        }
+    }
+
+}
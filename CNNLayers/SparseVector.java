@@ -0,0 +1,148 @@
+/**
+ * Reusable sparse view of a {@code double[]}: the positions and values of its
+ * non-zero entries, in increasing order of position. It is rebuilt in place
+ * from a dense array once per sample, so layers whose inputs are mostly zeros
+ * (MNIST images are about 80% background) can skip the zero rows of their
+ * weights.
+ *
+ * @correspondence <pre>
+ * this = [the dense array of length $this.length that is zero except at
+ *  $this.indices[k], where it is $this.values[k], for 0 <= k < $this.size]
+ * </pre>
+ * @convention {@code
+ * [$this.indices[0, $this.size) is strictly increasing and
+ *  $this.values[k] != 0 for 0 <= k < $this.size]
+ * }
+ *
+ * @author Sepehr Hooshiari
+ *
+ */
+public class SparseVector {
+
+    /**
+     * Positions of the non-zero entries.
+     */
+    private int[] indices;
+
+    /**
+     * Values of the non-zero entries.
+     */
+    private double[] values;
+
+    /**
+     * Number of non-zero entries.
+     */
+    private int size;
+
+    /**
+     * Length of the dense array.
+     */
+    private int length;
+
+    /**
+     * Constructor for {@code this}, sized for dense arrays of up to
+     * {@code capacity} entries.
+     *
+     * @param capacity
+     *            the expected dense length
+     */
+    public SparseVector(int capacity) {
+        this.indices = new int[capacity];
+        this.values = new double[capacity];
+        this.size = 0;
+        this.length = 0;
+    }
+
+    /**
+     * Rebuilds {@code this} from the first {@code length} entries of
+     * {@code dense}. Storage is only reallocated when {@code length} is larger
+     * than any length seen before.
+     *
+     * @param dense
+     *            the dense array
+     * @param length
+     *            the number of entries of {@code dense} to use
+     *
+     * @requires <pre> length <= dense.length </pre>
+     *
+     * @ensures <pre> this = dense[0, length) </pre>
+     */
+    public final void set(double[] dense, int length) {
+        assert length <= dense.length : "Violation of: length <= |dense|";
+        if (length > this.indices.length) {
+            this.indices = new int[length];
+            this.values = new double[length];
+        }
+        int n = 0;
+        for (int i = 0; i < length; i++) {
+            double v = dense[i];
+            if (v != 0) {
+                this.indices[n] = i;
+                this.values[n] = v;
+                n++;
+            }
+        }
+        this.size = n;
+        this.length = length;
+    }
+
+    /**
+     * Returns the number of non-zero entries.
+     *
+     * @return the number of non-zero entries
+     */
+    public final int size() {
+        return this.size;
+    }
+
+    /**
+     * Returns the length of the dense array.
+     *
+     * @return the dense length
+     */
+    public final int length() {
+        return this.length;
+    }
+
+    /**
+     * Returns the fraction of entries that are non-zero.
+     *
+     * @return the density, in [0, 1]
+     */
+    public final double density() {
+        double d = 0;
+        if (this.length > 0) {
+            d = (double) this.size / this.length;
+        }
+        return d;
+    }
+
+    /**
+     * Returns the position of the {@code k}-th non-zero entry.
+     *
+     * @param k
+     *            the rank of the entry
+     *
+     * @requires <pre> 0 <= k < this.size() </pre>
+     *
+     * @return the position in the dense array
+     */
+    public final int index(int k) {
+        return this.indices[k];
+    }
+
+    /**
+     * Returns the value of the {@code k}-th non-zero entry.
+     *
+     * @param k
+     *            the rank of the entry
+     *
+     * @requires <pre> 0 <= k < this.size() </pre>
+     *
+     * @return the value
+     */
+    public final double value(int k) {
+        return this.values[k];
+    }
+
+}
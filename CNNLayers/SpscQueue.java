@@ -0,0 +1,142 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded first-in first-out queue between exactly one producer thread and
+ * exactly one consumer thread, kept in a ring of slots without locks. The
+ * producer alone advances the tail and the consumer alone the head, each with
+ * a release write that the other side reads with an acquire, so a slot's
+ * contents are always seen by the consumer before the slot is. A side that
+ * must wait spins briefly and then yields its core, and gives up if its
+ * thread is interrupted, so a thread waiting on a side that will never come
+ * can still be stopped.
+ *
+ * @param <T>
+ *            type of the items
+ *
+ * @author Sepehr Hooshiari
+ *
+ */
+public final class SpscQueue<T> {
+
+    /**
+     * Number of spins before a waiting side starts yielding.
+     */
+    private static final int SPINS = 100;
+
+    /**
+     * The ring of slots.
+     */
+    private final Object[] slots;
+
+    /**
+     * Number of slots minus one, for wrapping positions into the ring.
+     */
+    private final int mask;
+
+    /**
+     * Position of the next item to take, written only by the consumer.
+     */
+    private final AtomicLong head;
+
+    /**
+     * Position of the next item to put, written only by the producer.
+     */
+    private final AtomicLong tail;
+
+    /**
+     * Constructor for {@code this}.
+     *
+     * @param capacity
+     *            the most items held at once, rounded up to a power of two
+     *
+     * @requires <pre> 0 < capacity <= 2^30 </pre>
+     */
+    public SpscQueue(int capacity) {
+        assert capacity > 0 : "Violation of: capacity > 0";
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.slots = new Object[size];
+        this.mask = size - 1;
+        this.head = new AtomicLong();
+        this.tail = new AtomicLong();
+    }
+
+    /**
+     * Waits for a moment, spinning for the first {@code SPINS} calls of a
+     * wait and yielding after that.
+     *
+     * @param spins
+     *            how many times the caller has waited so far
+     *
+     * @requires <pre> the calling thread is not interrupted </pre>
+     */
+    private static void backOff(int spins) {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new AssertionError("Violation of: not interrupted");
+        }
+        if (spins < SPINS) {
+            Thread.onSpinWait();
+        } else {
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Adds {@code item} at the tail of {@code this}, waiting while
+     * {@code this} is full. Only the producer may call it. Fails if the
+     * producer is interrupted while it waits.
+     *
+     * @param item
+     *            the item to add
+     */
+    public void put(T item) {
+        long t = this.tail.get();
+        int spins = 0;
+        while (t - this.head.get() == this.slots.length) {
+            backOff(spins);
+            spins++;
+        }
+        this.slots[(int) t & this.mask] = item;
+        this.tail.lazySet(t + 1);
+    }
+
+    /**
+     * Removes and returns the item at the head of {@code this}, or returns
+     * null at once if {@code this} is empty. Only the consumer may call it.
+     *
+     * @return the item at the head, or null
+     */
+    @SuppressWarnings("unchecked")
+    public T poll() {
+        T item = null;
+        long h = this.head.get();
+        if (h != this.tail.get()) {
+            int slot = (int) h & this.mask;
+            item = (T) this.slots[slot];
+            this.slots[slot] = null;
+            this.head.lazySet(h + 1);
+        }
+        return item;
+    }
+
+    /**
+     * Removes and returns the item at the head of {@code this}, waiting while
+     * {@code this} is empty. Only the consumer may call it. Fails if the
+     * consumer is interrupted while it waits.
+     *
+     * @return the item at the head
+     */
+    public T take() {
+        T item = this.poll();
+        int spins = 0;
+        while (item == null) {
+            backOff(spins);
+            spins++;
+            item = this.poll();
+        }
+        return item;
+    }
+
+}
@@ -0,0 +1,39 @@
+/**
+ * The hyperbolic tangent, whose derivative is {@code 1 - a^2}.
+ *
+ * @author Sepehr Hooshiari
+ *
+ */
+public class Tanh implements Activation {
+
+    @Override
+    public final void apply(double[] z, double[] a, int offset, int length) {
+        for (int k = offset; k < offset + length; k++) {
+            a[k] = Math.tanh(z[k]);
+        }
+    }
+
+    @Override
+    public final void derivative(double[] z, double[] a, double[] out,
+            int offset, int length) {
+        for (int k = offset; k < offset + length; k++) {
+            out[k] = 1 - a[k] * a[k];
+        }
+    }
+
+    @Override
+    public final void apply(float[] z, float[] a, int offset, int length) {
+        for (int k = offset; k < offset + length; k++) {
+            a[k] = (float) Math.tanh(z[k]);
+        }
+    }
+
+    @Override
+    public final void derivative(float[] z, float[] a, float[] out,
+            int offset, int length) {
+        for (int k = offset; k < offset + length; k++) {
+            out[k] = 1 - a[k] * a[k];
+        }
+    }
+
+}
@@ -0,0 +1,124 @@
+/**
+ * Record of the last forward step through one layer: its inputs, its weighted
+ * sums, their activations and the derivative of the activation at each sum.
+ * Back propagation reads the derivatives from the tape instead of evaluating
+ * the activation again, so each derivative is computed once per neuron per
+ * step. A step may cover one input or a batch of inputs stored back to back.
+ *
+ * @author Sepehr Hooshiari
+ *
+ */
+public class Tape {
+
+    /**
+     * Inputs of the step.
+     */
+    private double[] inputs;
+
+    /**
+     * Weighted sums of the step.
+     */
+    private double[] sums;
+
+    /**
+     * Activations of the weighted sums.
+     */
+    private double[] activations;
+
+    /**
+     * Derivative of the activation at each weighted sum.
+     */
+    private double[] slopes;
+
+    /**
+     * Number of inputs in the step.
+     */
+    private int batch;
+
+    /**
+     * No-argument constructor for {@code this}, recording no step.
+     */
+    public Tape() {
+        this.batch = 0;
+    }
+
+    /**
+     * Records a step, replacing the one recorded before.
+     *
+     * @param inputs
+     *            the inputs of the step
+     * @param sums
+     *            the weighted sums
+     * @param activations
+     *            the activations of the sums
+     * @param slopes
+     *            the derivative of the activation at each sum
+     * @param batch
+     *            the number of inputs in the step
+     */
+    public final void record(double[] inputs, double[] sums,
+            double[] activations, double[] slopes, int batch) {
+        this.inputs = inputs;
+        this.sums = sums;
+        this.activations = activations;
+        this.slopes = slopes;
+        this.batch = batch;
+    }
+
+    /**
+     * Returns whether a step has been recorded.
+     *
+     * @return true if a step has been recorded
+     */
+    public final boolean isRecorded() {
+        return this.batch > 0;
+    }
+
+    /**
+     * Returns the number of inputs in the recorded step.
+     *
+     * @return the number of inputs, or 0 if nothing has been recorded
+     */
+    public final int batch() {
+        return this.batch;
+    }
+
+    /**
+     * Returns the inputs of the recorded step.
+     *
+     * @return the inputs
+     */
+    public final double[] inputs() {
+        return this.inputs;
+    }
+
+    /**
+     * Returns the weighted sums of the recorded step.
+     *
+     * @return the weighted sums
+     */
+    public final double[] sums() {
+        return this.sums;
+    }
+
+    /**
+     * Returns the activations of the recorded step. These are the outputs
+     * handed to the caller, so they may since have been changed by it.
+     *
+     * @return the activations
+     */
+    public final double[] activations() {
+        return this.activations;
+    }
+
+    /**
+     * Returns the derivative of the activation at each weighted sum of the
+     * recorded step.
+     *
+     * @return the derivatives
+     */
+    public final double[] slopes() {
+        return this.slopes;
+    }
+
+}
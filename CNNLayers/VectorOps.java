@@ -0,0 +1,160 @@
+/**
+ * The element-wise and reduction loops of the dense layer math over runs of
+ * {@code double[]} arrays, and of {@code float[]} arrays for the
+ * single-precision layers. {@code VectorOps1} implements them with scalar
+ * loops and {@code VectorOps2} with the incubating Vector API; {@code Simd}
+ * picks one at startup.
+ *
+ * @author Sepehr Hooshiari
+ *
+ */
+public interface VectorOps {
+
+    /**
+     * Returns the dot product of {@code x[xOff, xOff + n)} and
+     * {@code y[yOff, yOff + n)}.
+     *
+     * @param x
+     *            the first array
+     * @param xOff
+     *            where the run of {@code x} starts
+     * @param y
+     *            the second array
+     * @param yOff
+     *            where the run of {@code y} starts
+     * @param n
+     *            the length of the runs
+     *
+     * @return the sum of the products of corresponding entries
+     */
+    double dot(double[] x, int xOff, double[] y, int yOff, int n);
+
+    /**
+     * Adds {@code alpha} times {@code x[xOff, xOff + n)} to
+     * {@code y[yOff, yOff + n)}.
+     *
+     * @param alpha
+     *            the factor applied to {@code x}
+     * @param x
+     *            the array added
+     * @param xOff
+     *            where the run of {@code x} starts
+     * @param y
+     *            the array added to
+     * @param yOff
+     *            where the run of {@code y} starts
+     * @param n
+     *            the length of the runs
+     * @updates y
+     */
+    void axpy(double alpha, double[] x, int xOff, double[] y, int yOff, int n);
+
+    /**
+     * Stores the sums of the first {@code n} entries of {@code x} and
+     * {@code y} in {@code out}.
+     *
+     * @param x
+     *            the first array
+     * @param y
+     *            the second array
+     * @param out
+     *            the array of sums
+     * @param n
+     *            the number of entries
+     * @replaces out
+     */
+    void add(double[] x, double[] y, double[] out, int n);
+
+    /**
+     * Stores {@code alpha} times {@code x[xOff, xOff + n)} in
+     * {@code out[outOff, outOff + n)}.
+     *
+     * @param alpha
+     *            the factor
+     * @param x
+     *            the array scaled
+     * @param xOff
+     *            where the run of {@code x} starts
+     * @param out
+     *            the array of products
+     * @param outOff
+     *            where the run of {@code out} starts
+     * @param n
+     *            the length of the runs
+     * @replaces out
+     */
+    void scale(double alpha, double[] x, int xOff, double[] out, int outOff,
+            int n);
+
+    /**
+     * Stores the Sigmoid of each of {@code z[offset, offset + n)} in
+     * {@code out[offset, offset + n)}.
+     *
+     * @param z
+     *            the weighted sums
+     * @param out
+     *            the activated sums
+     * @param offset
+     *            where the runs start
+     * @param n
+     *            the number of entries
+     * @replaces out
+     */
+    void sigmoid(double[] z, double[] out, int offset, int n);
+
+    /**
+     * Returns the dot product of {@code x[xOff, xOff + n)} and
+     * {@code y[yOff, yOff + n)} in single precision.
+     *
+     * @param x
+     *            the first array
+     * @param xOff
+     *            where the run of {@code x} starts
+     * @param y
+     *            the second array
+     * @param yOff
+     *            where the run of {@code y} starts
+     * @param n
+     *            the length of the runs
+     *
+     * @return the sum of the products of corresponding entries
+     */
+    float dot(float[] x, int xOff, float[] y, int yOff, int n);
+
+    /**
+     * Adds {@code alpha} times {@code x[xOff, xOff + n)} to
+     * {@code y[yOff, yOff + n)} in single precision.
+     *
+     * @param alpha
+     *            the factor applied to {@code x}
+     * @param x
+     *            the array added
+     * @param xOff
+     *            where the run of {@code x} starts
+     * @param y
+     *            the array added to
+     * @param yOff
+     *            where the run of {@code y} starts
+     * @param n
+     *            the length of the runs
+     * @updates y
+     */
+    void axpy(float alpha, float[] x, int xOff, float[] y, int yOff, int n);
+
+    /**
+     * Stores the Sigmoid of each of {@code z[offset, offset + n)} in
+     * {@code out[offset, offset + n)} in single precision.
+     *
+     * @param z
+     *            the weighted sums
+     * @param out
+     *            the activated sums
+     * @param offset
+     *            where the runs start
+     * @param n
+     *            the number of entries
+     * @replaces out
+     */
+    void sigmoid(float[] z, float[] out, int offset, int n);
+
+}
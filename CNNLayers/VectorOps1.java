@@ -0,0 +1,76 @@
+/**
+ * {@code VectorOps} implemented with scalar loops, used when the Vector API is
+ * not available.
+ *
+ * @author Sepehr Hooshiari
+ *
+ */
+public class VectorOps1 implements VectorOps {
+
+    @Override
+    public final double dot(double[] x, int xOff, double[] y, int yOff,
+            int n) {
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += x[xOff + i] * y[yOff + i];
+        }
+        return sum;
+    }
+
+    @Override
+    public final void axpy(double alpha, double[] x, int xOff, double[] y,
+            int yOff, int n) {
+        for (int i = 0; i < n; i++) {
+            y[yOff + i] += alpha * x[xOff + i];
+        }
+    }
+
+    @Override
+    public final void add(double[] x, double[] y, double[] out, int n) {
+        for (int i = 0; i < n; i++) {
+            out[i] = x[i] + y[i];
+        }
+    }
+
+    @Override
+    public final void scale(double alpha, double[] x, int xOff, double[] out,
+            int outOff, int n) {
+        for (int i = 0; i < n; i++) {
+            out[outOff + i] = alpha * x[xOff + i];
+        }
+    }
+
+    @Override
+    public final void sigmoid(double[] z, double[] out, int offset,
+            int n) {
+        for (int i = offset; i < offset + n; i++) {
+            out[i] = 1 / (1 + Math.exp(-z[i]));
+        }
+    }
+
+    @Override
+    public final float dot(float[] x, int xOff, float[] y, int yOff, int n) {
+        float sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += x[xOff + i] * y[yOff + i];
+        }
+        return sum;
+    }
+
+    @Override
+    public final void axpy(float alpha, float[] x, int xOff, float[] y,
+            int yOff, int n) {
+        for (int i = 0; i < n; i++) {
+            y[yOff + i] += alpha * x[xOff + i];
+        }
+    }
+
+    @Override
+    public final void sigmoid(float[] z, float[] out, int offset,
+            int n) {
+        for (int i = offset; i < offset + n; i++) {
+            out[i] = (float) (1 / (1 + Math.exp(-z[i])));
+        }
+    }
+
+}
@@ -0,0 +1,160 @@
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@code VectorOps} implemented with the incubating Vector API at the widest
+ * lane count the processor supports (eight {@code double}s or sixteen
+ * {@code float}s with AVX-512). The
+ * last few entries of each run, fewer than one vector, are handled by scalar
+ * loops. Compiling or loading this class needs
+ * {@code --add-modules jdk.incubator.vector}, so it is kept in a source
+ * directory of its own, compiled after {@code CNNLayers} and only where the
+ * module is available (see {@code Simd}).
+ *
+ * @author Sepehr Hooshiari
+ *
+ */
+public class VectorOps2 implements VectorOps {
+
+    /**
+     * The preferred vector shape of the processor.
+     */
+    private static final VectorSpecies<Double> SPECIES =
+            DoubleVector.SPECIES_PREFERRED;
+
+    /**
+     * The preferred vector shape of the processor for {@code float}s.
+     */
+    private static final VectorSpecies<Float> FLOATS =
+            FloatVector.SPECIES_PREFERRED;
+
+    @Override
+    public final double dot(double[] x, int xOff, double[] y, int yOff,
+            int n) {
+        int bound = SPECIES.loopBound(n);
+        DoubleVector sums = DoubleVector.zero(SPECIES);
+        int i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector a = DoubleVector.fromArray(SPECIES, x, xOff + i);
+            DoubleVector b = DoubleVector.fromArray(SPECIES, y, yOff + i);
+            sums = a.fma(b, sums);
+        }
+        double sum = sums.reduceLanes(VectorOperators.ADD);
+        for (; i < n; i++) {
+            sum += x[xOff + i] * y[yOff + i];
+        }
+        return sum;
+    }
+
+    @Override
+    public final void axpy(double alpha, double[] x, int xOff, double[] y,
+            int yOff, int n) {
+        int bound = SPECIES.loopBound(n);
+        DoubleVector a = DoubleVector.broadcast(SPECIES, alpha);
+        int i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector b = DoubleVector.fromArray(SPECIES, x, xOff + i);
+            DoubleVector c = DoubleVector.fromArray(SPECIES, y, yOff + i);
+            b.fma(a, c).intoArray(y, yOff + i);
+        }
+        for (; i < n; i++) {
+            y[yOff + i] += alpha * x[xOff + i];
+        }
+    }
+
+    @Override
+    public final void add(double[] x, double[] y, double[] out, int n) {
+        int bound = SPECIES.loopBound(n);
+        int i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector a = DoubleVector.fromArray(SPECIES, x, i);
+            DoubleVector b = DoubleVector.fromArray(SPECIES, y, i);
+            a.add(b).intoArray(out, i);
+        }
+        for (; i < n; i++) {
+            out[i] = x[i] + y[i];
+        }
+    }
+
+    @Override
+    public final void scale(double alpha, double[] x, int xOff, double[] out,
+            int outOff, int n) {
+        int bound = SPECIES.loopBound(n);
+        int i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, x, xOff + i).mul(alpha)
+                    .intoArray(out, outOff + i);
+        }
+        for (; i < n; i++) {
+            out[outOff + i] = alpha * x[xOff + i];
+        }
+    }
+
+    @Override
+    public final void sigmoid(double[] z, double[] out, int offset,
+            int n) {
+        int bound = offset + SPECIES.loopBound(n);
+        DoubleVector one = DoubleVector.broadcast(SPECIES, 1);
+        int i = offset;
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector e = DoubleVector.fromArray(SPECIES, z, i).neg()
+                    .lanewise(VectorOperators.EXP);
+            one.div(e.add(one)).intoArray(out, i);
+        }
+        for (; i < offset + n; i++) {
+            out[i] = 1 / (1 + Math.exp(-z[i]));
+        }
+    }
+
+    @Override
+    public final float dot(float[] x, int xOff, float[] y, int yOff, int n) {
+        int bound = FLOATS.loopBound(n);
+        FloatVector sums = FloatVector.zero(FLOATS);
+        int i = 0;
+        for (; i < bound; i += FLOATS.length()) {
+            FloatVector a = FloatVector.fromArray(FLOATS, x, xOff + i);
+            FloatVector b = FloatVector.fromArray(FLOATS, y, yOff + i);
+            sums = a.fma(b, sums);
+        }
+        float sum = sums.reduceLanes(VectorOperators.ADD);
+        for (; i < n; i++) {
+            sum += x[xOff + i] * y[yOff + i];
+        }
+        return sum;
+    }
+
+    @Override
+    public final void axpy(float alpha, float[] x, int xOff, float[] y,
+            int yOff, int n) {
+        int bound = FLOATS.loopBound(n);
+        FloatVector a = FloatVector.broadcast(FLOATS, alpha);
+        int i = 0;
+        for (; i < bound; i += FLOATS.length()) {
+            FloatVector b = FloatVector.fromArray(FLOATS, x, xOff + i);
+            FloatVector c = FloatVector.fromArray(FLOATS, y, yOff + i);
+            b.fma(a, c).intoArray(y, yOff + i);
+        }
+        for (; i < n; i++) {
+            y[yOff + i] += alpha * x[xOff + i];
+        }
+    }
+
+    @Override
+    public final void sigmoid(float[] z, float[] out, int offset,
+            int n) {
+        int bound = offset + FLOATS.loopBound(n);
+        FloatVector one = FloatVector.broadcast(FLOATS, 1);
+        int i = offset;
+        for (; i < bound; i += FLOATS.length()) {
+            FloatVector e = FloatVector.fromArray(FLOATS, z, i).neg()
+                    .lanewise(VectorOperators.EXP);
+            one.div(e.add(one)).intoArray(out, i);
+        }
+        for (; i < offset + n; i++) {
+            out[i] = (float) (1 / (1 + Math.exp(-z[i])));
+        }
+    }
+
+}
@@ -0,0 +1,281 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ *
+ * @author Sepehr Hooshiari
+ *
+ */
+public class ActivationTest {
+
+    /**
+     * Weighted sums every activation is tested on.
+     */
+    private static final double[] SUMS = { -3, -0.5, 0.25, 1, 4 };
+
+    /**
+     * Loss with respect to each activated sum, the weights of the scalar loss
+     * {@code backward} is tested on.
+     */
+    private static final double[] LOSS = { 0.5, -1, 2, 0.25, -0.75 };
+
+    /**
+     * Returns the scalar loss {@code sum LOSS[k] * a[k]} of the activation
+     * of {@code z} by {@code f}, over the run starting at {@code offset}.
+     *
+     * @param f
+     *            the activation function
+     * @param z
+     *            the weighted sums
+     * @param offset
+     *            where the run starts
+     *
+     * @return the loss
+     */
+    private static double loss(Activation f, double[] z, int offset) {
+        double[] a = new double[z.length];
+        f.apply(z, a, offset, LOSS.length);
+        double sum = 0;
+        for (int k = 0; k < LOSS.length; k++) {
+            sum += LOSS[k] * a[offset + k];
+        }
+        return sum;
+    }
+
+    /**
+     * Checks that {@code backward} of {@code f} gives the gradient of the
+     * scalar loss {@code sum LOSS[k] * a[k]} with respect to the weighted
+     * sums, matching a central difference of the loss, in both precisions.
+     *
+     * @param f
+     *            the activation function
+     */
+    private static void checkBackward(Activation f) {
+        final double h = 1e-6;
+        final double delta = 1e-5;
+        final double floatDelta = 1e-3;
+        final int offset = 1;
+        int n = SUMS.length;
+        double[] z = new double[n + offset];
+        System.arraycopy(SUMS, 0, z, offset, n);
+        double[] g = new double[n + offset];
+        System.arraycopy(LOSS, 0, g, offset, n);
+        double[] a = new double[n + offset];
+        double[] d = new double[n + offset];
+        f.apply(z, a, offset, n);
+        f.derivative(z, a, d, offset, n);
+        double[] grad = new double[n + offset];
+        f.backward(a, d, g, grad, offset, n);
+        for (int k = offset; k < offset + n; k++) {
+            double[] lo = z.clone();
+            double[] hi = z.clone();
+            lo[k] -= h;
+            hi[k] += h;
+            double exp = (loss(f, hi, offset) - loss(f, lo, offset)) / (2 * h);
+            assertEquals(exp, grad[k], delta);
+        }
+
+        float[] af = new float[z.length];
+        float[] df = new float[z.length];
+        float[] gf = new float[z.length];
+        float[] zf = new float[z.length];
+        for (int k = 0; k < z.length; k++) {
+            zf[k] = (float) z[k];
+            gf[k] = (float) g[k];
+        }
+        f.apply(zf, af, offset, n);
+        f.derivative(zf, af, df, offset, n);
+        // in place, as the layers call it
+        f.backward(af, df, gf, gf, offset, n);
+        for (int k = offset; k < offset + n; k++) {
+            assertEquals(grad[k], gf[k], floatDelta);
+        }
+    }
+
+    /**
+     * Checks that the derivative of {@code f} matches a central difference of
+     * {@code apply} at every sum, in both precisions, that only the run asked
+     * for is written, and that {@code backward} gives the gradient of a
+     * scalar loss.
+     *
+     * @param f
+     *            the activation function
+     */
+    private static void checkDerivative(Activation f) {
+        final double h = 1e-6;
+        final double delta = 1e-5;
+        final double floatDelta = 1e-3;
+        final int offset = 1;
+        int n = SUMS.length;
+        double[] z = new double[n + offset];
+        System.arraycopy(SUMS, 0, z, offset, n);
+        double[] a = new double[n + offset];
+        double[] d = new double[n + offset];
+        f.apply(z, a, offset, n);
+        f.derivative(z, a, d, offset, n);
+        assertEquals(0, a[0], 0);
+        assertEquals(0, d[0], 0);
+        for (int k = offset; k < offset + n; k++) {
+            double[] lo = z.clone();
+            double[] hi = z.clone();
+            lo[k] -= h;
+            hi[k] += h;
+            double[] aLo = new double[z.length];
+            double[] aHi = new double[z.length];
+            f.apply(lo, aLo, offset, n);
+            f.apply(hi, aHi, offset, n);
+            assertEquals((aHi[k] - aLo[k]) / (2 * h), d[k], delta);
+        }
+
+        float[] zf = new float[z.length];
+        for (int k = 0; k < z.length; k++) {
+            zf[k] = (float) z[k];
+        }
+        float[] af = new float[z.length];
+        float[] df = new float[z.length];
+        f.apply(zf, af, offset, n);
+        f.derivative(zf, af, df, offset, n);
+        for (int k = offset; k < offset + n; k++) {
+            assertEquals(a[k], af[k], floatDelta);
+            assertEquals(d[k], df[k], floatDelta);
+        }
+        checkBackward(f);
+    }
+
+    /**
+     * Test Sigmoid values and derivative.
+     */
+    @Test
+    public void testSigmoid() {
+        final double delta = 1e-12;
+        double[] a = new double[SUMS.length];
+        new Sigmoid().apply(SUMS, a, 0, SUMS.length);
+        for (int k = 0; k < SUMS.length; k++) {
+            assertEquals(1 / (1 + Math.exp(-SUMS[k])), a[k], delta);
+        }
+        checkDerivative(new Sigmoid());
+    }
+
+    /**
+     * Test that Sigmoid leaks instead of returning an exactly zero
+     * derivative, as sigmoidPrime does.
+     */
+    @Test
+    public void testSigmoidLeak() {
+        final double big = 50;
+        final double leak = 0.01;
+        double[] z = { big };
+        double[] a = new double[1];
+        double[] d = new double[1];
+        new Sigmoid().apply(z, a, 0, 1);
+        new Sigmoid().derivative(z, a, d, 0, 1);
+        assertEquals(leak, d[0], 0);
+    }
+
+    /**
+     * Test that the approximate exp stays within its error bound.
+     */
+    @Test
+    public void testFastExp() {
+        final double bound = 2e-7;
+        final double step = 0.01;
+        final double range = 50;
+        for (double x = -range; x <= range; x += step) {
+            double exact = Math.exp(x);
+            assertTrue(Math.abs(FastSigmoid.exp(x) - exact) <= bound * exact);
+        }
+    }
+
+    /**
+     * Test FastSigmoid values and derivative.
+     */
+    @Test
+    public void testFastSigmoid() {
+        final double delta = 1e-7;
+        double[] a = new double[SUMS.length];
+        new FastSigmoid().apply(SUMS, a, 0, SUMS.length);
+        for (int k = 0; k < SUMS.length; k++) {
+            assertEquals(1 / (1 + Math.exp(-SUMS[k])), a[k], delta);
+        }
+        checkDerivative(new FastSigmoid());
+    }
+
+    /**
+     * Test Tanh derivative.
+     */
+    @Test
+    public void testTanh() {
+        checkDerivative(new Tanh());
+    }
+
+    /**
+     * Test Relu values and derivative.
+     */
+    @Test
+    public void testRelu() {
+        final double[] exp = { 0, 0, 0.25, 1, 4 };
+        double[] a = new double[SUMS.length];
+        new Relu().apply(SUMS, a, 0, SUMS.length);
+        for (int k = 0; k < SUMS.length; k++) {
+            assertEquals(exp[k], a[k], 0);
+        }
+        checkDerivative(new Relu());
+    }
+
+    /**
+     * Test LeakyRelu values and derivative.
+     */
+    @Test
+    public void testLeakyRelu() {
+        final double slope = 0.1;
+        final double[] exp = { -0.3, -0.05, 0.25, 1, 4 };
+        final double delta = 1e-12;
+        double[] a = new double[SUMS.length];
+        new LeakyRelu(slope).apply(SUMS, a, 0, SUMS.length);
+        for (int k = 0; k < SUMS.length; k++) {
+            assertEquals(exp[k], a[k], delta);
+        }
+        checkDerivative(new LeakyRelu(slope));
+    }
+
+    /**
+     * Test that Softmax outputs are positive, sum to one and keep the order
+     * of the sums, that its derivative is the diagonal of its Jacobian, and
+     * that backward multiplies by the whole Jacobian.
+     */
+    @Test
+    public void testSoftmax() {
+        final double delta = 1e-12;
+        double[] a = new double[SUMS.length];
+        new Softmax().apply(SUMS, a, 0, SUMS.length);
+        double sum = 0;
+        for (int k = 0; k < SUMS.length; k++) {
+            assertTrue(a[k] > 0);
+            if (k > 0) {
+                assertTrue(a[k] > a[k - 1]);
+            }
+            sum += a[k];
+        }
+        assertEquals(1, sum, delta);
+        checkDerivative(new Softmax());
+    }
+
+    /**
+     * Test that a layer uses the activation it was constructed with.
+     */
+    @Test
+    public void testLayerActivation() {
+        final int in = 3;
+        final int out = 4;
+        final double[] input = { 1, -2, 0.5 };
+        CNNLayers layer = new CNNLayers1(in, out, 123, 0.1, new Relu());
+        double[] a = layer.forwardPass(input);
+        double[] z = layer.getOutputs();
+        for (int j = 0; j < out; j++) {
+            assertEquals(Math.max(0, z[j]), a[j], 0);
+        }
+    }
+
+}
@@ -149,6 +149,50 @@ public class CNNLayers1Test {
         assertTrue(ins.getLabel() >= 0 || ins.getLabel() <= n);
     }
 
+    /**
+     * Test if getDataset keeps every image and label of the analyzed file.
+     */
+    @Test
+    public void testGetDataset() {
+        final CNNLayers ins = new CNNLayers1(10, 10, 123, 0.1);
+        List<double[][]> images = ins.analyze("data/mnist_test.csv");
+        LabeledDataset data = ins.getDataset();
+        final int last = images.size() - 1;
+        assertEquals(images.size(), data.size());
+        assertEquals(ins.getLabel(), data.label(last));
+        assertTrue(Arrays.deepEquals(images.get(0), data.image(0)));
+        assertTrue(Arrays.deepEquals(ins.getData(), data.image(last)));
+    }
+
+    /**
+     * Test if analyze returns a read-only view of the dataset's images.
+     */
+    @Test
+    public void testAnalyzeIsView() {
+        final CNNLayers ins = new CNNLayers1(10, 10, 123, 0.1);
+        List<double[][]> images = ins.analyze("data/mnist_test.csv");
+        assertTrue(Arrays.deepEquals(images.get(1),
+                ins.getDataset().image(1)));
+        boolean readOnly = false;
+        try {
+            images.add(images.get(0));
+        } catch (UnsupportedOperationException e) {
+            readOnly = true;
+        }
+        assertTrue(readOnly);
+    }
+
+    /**
+     * Test if toArray flattens a view of the dataset as it does a copy of it.
+     */
+    @Test
+    public void testToArrayView() {
+        final CNNLayers ins = new CNNLayers1(10, 10, 123, 0.1);
+        List<double[][]> images = ins.analyze("data/mnist_test.csv");
+        assertTrue(Arrays.equals(ins.toArray(new ArrayList<>(images)),
+                ins.toArray(images)));
+    }
+
     /**
      * Test if inputLength returns the proper input length.
      */
@@ -348,6 +392,155 @@ public class CNNLayers1Test {
         assertEquals(ins2, ins1);
     }
 
+    /**
+     * Test if forwardBatch returns the outputs forwardPass gives for each
+     * input of the batch.
+     */
+    @Test
+    public void testForwardBatch() {
+        final CNNLayers ins1 = new CNNLayers1(300, 10, 123, 0.1);
+        final CNNLayers ins2 = new CNNLayers1(300, 10, 123, 0.1);
+        final int batch = 3;
+        final int in = 300;
+        final int out = 10;
+        final double delta = 1e-12;
+        double[] inputs = ins1.toArray(ins1.analyze("data/mnist_test.csv"));
+        double[] block = Arrays.copyOf(inputs, batch * in);
+        double[] actual = ins1.forwardBatch(block, batch);
+        assertEquals(batch * out, actual.length);
+        for (int b = 0; b < batch; b++) {
+            double[] exp = ins2.forwardPass(
+                    Arrays.copyOfRange(block, b * in, (b + 1) * in));
+            for (int j = 0; j < out; j++) {
+                assertEquals(exp[j], actual[b * out + j], delta);
+            }
+        }
+        assertEquals(ins2, ins1);
+    }
+
+    /**
+     * Test if updateBatch with a batch of one changes the weights the same
+     * way backPropArray does.
+     */
+    @Test
+    public void testUpdateBatchOfOne() {
+        final CNNLayers ins1 = new CNNLayers1(300, 10, 123, 0.1);
+        final CNNLayers ins2 = new CNNLayers1(300, 10, 123, 0.1);
+        final int in = 300;
+        final double delta = 1e-12;
+        double[] inputs = ins1.toArray(ins1.analyze("data/mnist_test.csv"));
+        double[] input = Arrays.copyOf(inputs, in);
+        double[] deriv = ins1.forwardBatch(input, 1);
+        ins1.updateBatch(deriv, 1);
+        ins2.forwardPass(input);
+        ins2.backPropArray(deriv);
+        double[][] exp = ins2.getWeights();
+        double[][] actual = ins1.getWeights();
+        for (int i = 0; i < exp.length; i++) {
+            for (int j = 0; j < exp[0].length; j++) {
+                assertEquals(exp[i][j], actual[i][j], delta);
+            }
+        }
+        assertEquals(ins2, ins1);
+    }
+
+    /**
+     * Test if a layer wide enough to be split across cores computes the same
+     * outputs, losses and weight updates as forwardBatch and updateBatch.
+     */
+    @Test
+    public void testWideLayer() {
+        final int in = 784;
+        final int out = 1024;
+        final double scalar = 255;
+        final double delta = 1e-9;
+        final CNNLayers ins1 = new CNNLayers1(in, out, 123, 0.1);
+        final CNNLayers ins2 = new CNNLayers1(in, out, 123, 0.1);
+        // updateBatch only returns the losses when there is a layer before
+        ins2.setPrevious(new CNNLayers1(1, in, 1, 0.1));
+        LabeledDataset images = ins1.getDataset();
+        double[] input = new double[in];
+        images.copyImage(0, input, 0, 1.0 / scalar);
+        double[] actual = ins1.forwardPass(input);
+        double[] exp = ins2.forwardBatch(input, 1);
+        for (int j = 0; j < out; j++) {
+            assertEquals(exp[j], actual[j], delta);
+        }
+        double[] actualLoss = ins1.updateArray(actual.clone(), true);
+        double[] expLoss = ins2.updateBatch(exp.clone(), 1);
+        for (int i = 0; i < in; i++) {
+            assertEquals(expLoss[i], actualLoss[i], delta);
+        }
+        double[][] expWeights = ins2.getWeights();
+        double[][] actualWeights = ins1.getWeights();
+        for (int i = 0; i < in; i++) {
+            for (int j = 0; j < out; j++) {
+                assertEquals(expWeights[i][j], actualWeights[i][j], delta);
+            }
+        }
+    }
+
+    /**
+     * Test if backPropArray applies the derivatives recorded by the forward
+     * pass, even after the caller overwrites the returned outputs.
+     */
+    @Test
+    public void testBackPropArrayUsesTape() {
+        final CNNLayers ins1 = new CNNLayers1(300, 10, 123, 0.1);
+        final int in = 300;
+        final double rate = 0.1;
+        final double delta = 1e-12;
+        double[] inputs = ins1.toArray(ins1.analyze("data/mnist_test.csv"));
+        double[] input = Arrays.copyOf(inputs, in);
+        double[][] before = ins1.getWeights();
+        double[] out = ins1.forwardPass(input);
+        double[] deriv = out.clone();
+        double[] sums = ins1.getOutputs();
+        Arrays.fill(out, 0);
+        ins1.backPropArray(deriv);
+        double[][] actual = ins1.getWeights();
+        for (int i = 0; i < before.length; i++) {
+            for (int j = 0; j < before[0].length; j++) {
+                double exp = before[i][j] - rate * input[i] * deriv[j]
+                        * ins1.sigmoidPrime(sums[j]);
+                assertEquals(exp, actual[i][j], delta);
+            }
+        }
+    }
+
+    /**
+     * Test if workspace mode computes the same outputs and weight updates as
+     * the default mode.
+     */
+    @Test
+    public void testWorkspace() {
+        final CNNLayers ins1 = new CNNLayers1(300, 10, 123, 0.1);
+        final CNNLayers ins2 = new CNNLayers1(300, 10, 123, 0.1);
+        final int in = 300;
+        final int passes = 3;
+        final double delta = 1e-12;
+        double[] inputs = ins1.toArray(ins1.analyze("data/mnist_test.csv"));
+        ins1.setWorkspace(true);
+        for (int p = 0; p < passes; p++) {
+            double[] input = Arrays.copyOfRange(inputs, p * in, (p + 1) * in);
+            double[] actual = ins1.forwardPass(input);
+            double[] exp = ins2.forwardPass(input);
+            for (int j = 0; j < exp.length; j++) {
+                assertEquals(exp[j], actual[j], delta);
+            }
+            ins1.backPropArray(actual);
+            ins2.backPropArray(exp);
+        }
+        double[][] exp = ins2.getWeights();
+        double[][] actual = ins1.getWeights();
+        for (int i = 0; i < exp.length; i++) {
+            for (int j = 0; j < exp[0].length; j++) {
+                assertEquals(exp[i][j], actual[i][j], delta);
+            }
+        }
+        assertEquals(ins2, ins1);
+    }
+
     /**
      * Test if sigmoidPrime returns the proper derivative of the Sigmoid
      * function.
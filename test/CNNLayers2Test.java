@@ -0,0 +1,223 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.Test;
+
+import com.sun.management.ThreadMXBean;
+
+/**
+ *
+ * @author Sepehr Hooshiari
+ *
+ */
+public class CNNLayers2Test {
+
+    /**
+     * Factor the pixels are divided by before entering the network.
+     */
+    private static final double SCALAR = 255;
+
+    /**
+     * Trains {@code layer} for one pass over {@code images}, one image at a
+     * time.
+     *
+     * @param layer
+     *            the layer to train
+     * @param images
+     *            the training images
+     */
+    private static void train(CNNLayers layer, LabeledDataset images) {
+        int length = images.rows() * images.columns();
+        double[] input = new double[length];
+        for (int i = 0; i < images.size(); i++) {
+            images.copyImage(i, input, 0, 1 / SCALAR);
+            double[] loss = layer.forwardPass(input);
+            loss[images.label(i)] -= 1;
+            layer.backPropArray(loss);
+        }
+    }
+
+    /**
+     * Returns the index of the largest entry of {@code x}.
+     *
+     * @param x
+     *            the array
+     *
+     * @return the index of the largest entry
+     */
+    private static int argmax(double[] x) {
+        int max = 0;
+        for (int k = 1; k < x.length; k++) {
+            if (x[k] > x[max]) {
+                max = k;
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Test constructor with arguments.
+     */
+    @Test
+    public void testConstructor() {
+        final CNNLayers ins1 = new CNNLayers2(10, 10, 123, 0.1);
+        final CNNLayers ins2 = new CNNLayers2(10, 10, 123, 0.1);
+        assertTrue(ins1.isValid());
+        assertEquals(ins2, ins1);
+    }
+
+    /**
+     * Test that the initial weights are those of {@code CNNLayers1}, rounded
+     * to single precision.
+     */
+    @Test
+    public void testWeightsMatchDouble() {
+        final CNNLayers ins1 = new CNNLayers2(20, 10, 123, 0.1);
+        final CNNLayers ins2 = new CNNLayers1(20, 10, 123, 0.1);
+        double[][] actual = ins1.getWeights();
+        double[][] exp = ins2.getWeights();
+        for (int i = 0; i < exp.length; i++) {
+            for (int j = 0; j < exp[0].length; j++) {
+                assertEquals((float) exp[i][j], actual[i][j], 0);
+            }
+        }
+    }
+
+    /**
+     * Test that the float and double overloads of forwardPass agree with
+     * each other and with {@code CNNLayers1}.
+     */
+    @Test
+    public void testForwardPass() {
+        final int in = 784;
+        final int out = 10;
+        final double delta = 1e-4;
+        final CNNLayers2 ins1 = new CNNLayers2(in, out, 123, 0.1);
+        final CNNLayers ins2 = new CNNLayers1(in, out, 123, 0.1);
+        LabeledDataset images = ins1.getDataset();
+        double[] input = new double[in];
+        float[] floats = new float[in];
+        images.copyImage(0, input, 0, 1 / SCALAR);
+        images.copyImage(0, floats, 0, (float) (1 / SCALAR));
+        double[] exp = ins2.forwardPass(input);
+        double[] actual = ins1.forwardPass(input);
+        float[] single = ins1.forwardPass(floats);
+        for (int j = 0; j < out; j++) {
+            assertEquals(exp[j], actual[j], delta);
+            assertEquals(exp[j], single[j], delta);
+        }
+    }
+
+    /**
+     * Test if a layer wide enough to be split across cores computes the same
+     * outputs, losses and weight updates as forwardBatch and updateBatch.
+     */
+    @Test
+    public void testWideLayer() {
+        final int in = 784;
+        final int out = 1024;
+        final double scalar = 255;
+        final double delta = 1e-4;
+        final CNNLayers ins1 = new CNNLayers2(in, out, 123, 0.1);
+        final CNNLayers ins2 = new CNNLayers2(in, out, 123, 0.1);
+        // updateBatch only returns the losses when there is a layer before
+        ins2.setPrevious(new CNNLayers2(1, in, 1, 0.1));
+        LabeledDataset images = ins1.getDataset();
+        double[] input = new double[in];
+        images.copyImage(0, input, 0, 1.0 / scalar);
+        double[] actual = ins1.forwardPass(input);
+        double[] exp = ins2.forwardBatch(input, 1);
+        for (int j = 0; j < out; j++) {
+            assertEquals(exp[j], actual[j], delta);
+        }
+        double[] actualLoss = ins1.updateArray(actual.clone(), true);
+        double[] expLoss = ins2.updateBatch(exp.clone(), 1);
+        for (int i = 0; i < in; i++) {
+            assertEquals(expLoss[i], actualLoss[i], delta);
+        }
+        double[][] expWeights = ins2.getWeights();
+        double[][] actualWeights = ins1.getWeights();
+        for (int i = 0; i < in; i++) {
+            for (int j = 0; j < out; j++) {
+                assertEquals(expWeights[i][j], actualWeights[i][j], delta);
+            }
+        }
+    }
+
+    /**
+     * Test if a single-precision forward pass in workspace mode allocates
+     * nothing once under way.
+     */
+    @Test
+    public void testForwardWorkspaceAllocatesNothing() {
+        final int in = 784;
+        final int out = 16;
+        final int warmUp = 50000;
+        final int passes = 1000;
+        final int rounds = 5;
+        final CNNLayers2 layer = new CNNLayers2(in, out, 123, 0.1);
+        layer.setWorkspace(true);
+        float[] input = new float[in];
+        layer.getDataset().copyImage(0, input, 0, (float) (1 / SCALAR));
+        for (int p = 0; p < warmUp; p++) {
+            layer.forwardPass(input);
+        }
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory
+                .getThreadMXBean();
+        long least = Long.MAX_VALUE;
+        for (int r = 0; r < rounds; r++) {
+            long before = threads.getCurrentThreadAllocatedBytes();
+            for (int p = 0; p < passes; p++) {
+                layer.forwardPass(input);
+            }
+            long after = threads.getCurrentThreadAllocatedBytes();
+            least = Math.min(least, after - before);
+        }
+        assertEquals(0, least);
+    }
+
+    /**
+     * Test that training in single precision reaches the accuracy of
+     * training in double precision on the MNIST test split.
+     */
+    @Test
+    public void testAccuracyParity() {
+        final int in = 784;
+        final int out = 10;
+        final double rate = 0.05;
+        final double tolerance = 0.02;
+        final CNNLayers2 single = new CNNLayers2(in, out, 123, rate);
+        final CNNLayers dbl = new CNNLayers1(in, out, 123, rate);
+        single.analyze("data/mnist_train.csv");
+        train(single, single.getDataset());
+        train(dbl, single.getDataset());
+
+        single.analyze("data/mnist_test.csv");
+        LabeledDataset test = single.getDataset();
+        double[] input = new double[in];
+        float[] floats = new float[in];
+        int correctSingle = 0;
+        int correctDouble = 0;
+        for (int i = 0; i < test.size(); i++) {
+            test.copyImage(i, input, 0, 1 / SCALAR);
+            test.copyImage(i, floats, 0, (float) (1 / SCALAR));
+            float[] guess = single.forwardPass(floats);
+            double[] widened = new double[out];
+            for (int j = 0; j < out; j++) {
+                widened[j] = guess[j];
+            }
+            if (argmax(widened) == test.label(i)) {
+                correctSingle++;
+            }
+            if (argmax(dbl.forwardPass(input)) == test.label(i)) {
+                correctDouble++;
+            }
+        }
+        double accSingle = (double) correctSingle / test.size();
+        double accDouble = (double) correctDouble / test.size();
+        assertEquals(accDouble, accSingle, tolerance);
+    }
+
+}
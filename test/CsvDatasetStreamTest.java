@@ -0,0 +1,90 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Test;
+
+/**
+ *
+ * @author Sepehr Hooshiari
+ *
+ */
+public class CsvDatasetStreamTest {
+
+    /**
+     * Writes {@code n} 2 by 2 images, image {@code i} labeled {@code i % 10}
+     * with every pixel {@code i}, to a new temporary file.
+     *
+     * @param n
+     *            the number of images
+     *
+     * @return the name of the file
+     */
+    private static String write(int n) {
+        final int classes = 10;
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            text.append(i % classes);
+            for (int p = 0; p < 2 * 2; p++) {
+                text.append(',').append(i);
+            }
+            text.append('\n');
+        }
+        try {
+            Path file = Files.createTempFile("images", ".csv");
+            file.toFile().deleteOnExit();
+            Files.write(file,
+                    text.toString().getBytes(StandardCharsets.US_ASCII));
+            return file.toString();
+        } catch (IOException e) {
+            throw new AssertionError("Violation of: can write to file");
+        }
+    }
+
+    /**
+     * Test that small chunks still yield every image once, in file order.
+     */
+    @Test
+    public void testChunksInOrder() {
+        final int n = 250;
+        final int chunkBytes = 64;
+        final int classes = 10;
+        int seen = 0;
+        int chunks = 0;
+        try (CsvDatasetStream stream = new CsvDatasetStream(write(n), 2, 2,
+                chunkBytes)) {
+            while (stream.hasNext()) {
+                LabeledDataset chunk = stream.next();
+                chunks++;
+                for (int i = 0; i < chunk.size(); i++) {
+                    assertEquals(seen % classes, chunk.label(i));
+                    assertEquals(seen, chunk.image(i)[1][0], 0);
+                    seen++;
+                }
+            }
+        }
+        assertEquals(n, seen);
+        assertTrue(chunks > 1);
+    }
+
+    /**
+     * Test that a line longer than a chunk is still read whole.
+     */
+    @Test
+    public void testLineLongerThanChunk() {
+        final int n = 3;
+        try (CsvDatasetStream stream = new CsvDatasetStream(write(n), 2, 2,
+                2)) {
+            int seen = 0;
+            while (stream.hasNext()) {
+                seen += stream.next().size();
+            }
+            assertEquals(n, seen);
+        }
+    }
+
+}
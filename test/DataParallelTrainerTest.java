@@ -0,0 +1,72 @@
+import org.junit.Test;
+
+/**
+ *
+ * @author Sepehr Hooshiari
+ *
+ */
+public class DataParallelTrainerTest {
+
+    /**
+     * Returns a network of two layers, 784 to 16 to 10.
+     *
+     * @return the network
+     */
+    private static CNNLayers network() {
+        final int in = 784;
+        final int hidden = 16;
+        final int out = 10;
+        return TrainerFixtures.network(in, hidden, out);
+    }
+
+    /**
+     * Test if training on several workers updates the weights as
+     * updateBatch does for the whole batch.
+     */
+    @Test
+    public void testMatchesUpdateBatch() {
+        final double scalar = 200 * 100;
+        final int batch = 7;
+        final int threads = 3;
+        final double delta = 1e-9;
+        CNNLayers network = network();
+        LabeledDataset images = network.getDataset();
+        int[] order = TrainerFixtures.order(images);
+        NetworkPlan plan = NetworkPlan.compile(network);
+        try (DataParallelTrainer trainer = new DataParallelTrainer(plan,
+                scalar, threads)) {
+            trainer.train(images, order, batch);
+        }
+
+        NetworkPlan exp = NetworkPlan.compile(network());
+        TrainerFixtures.train(exp, images, order, batch, scalar);
+        TrainerFixtures.assertWeights(exp, plan, delta);
+    }
+
+    /**
+     * Test if two runs with the same seeds and number of workers end with
+     * exactly the same weights.
+     */
+    @Test
+    public void testReproducible() {
+        final double scalar = 200 * 100;
+        final int batch = 16;
+        final int threads = 4;
+        CNNLayers first = network();
+        CNNLayers second = network();
+        LabeledDataset images = first.getDataset();
+        int[] order = TrainerFixtures.order(images);
+        NetworkPlan one = NetworkPlan.compile(first);
+        NetworkPlan two = NetworkPlan.compile(second);
+        try (DataParallelTrainer trainer = new DataParallelTrainer(one, scalar,
+                threads)) {
+            trainer.train(images, order, batch);
+        }
+        try (DataParallelTrainer trainer = new DataParallelTrainer(two, scalar,
+                threads)) {
+            trainer.train(images, order, batch);
+        }
+        TrainerFixtures.assertWeights(one, two, 0);
+    }
+
+}
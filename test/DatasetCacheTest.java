@@ -0,0 +1,137 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ *
+ * @author Sepehr Hooshiari
+ *
+ */
+public class DatasetCacheTest {
+
+    /**
+     * Writes {@code text} to {@code file}.
+     *
+     * @param file
+     *            the file
+     * @param text
+     *            the contents of the file
+     */
+    private static void write(Path file, String text) {
+        try {
+            Files.write(file, text.getBytes(StandardCharsets.US_ASCII));
+        } catch (IOException e) {
+            throw new AssertionError("Violation of: can write to file");
+        }
+    }
+
+    /**
+     * Returns a new temporary CSV file holding {@code text}.
+     *
+     * @param text
+     *            the contents of the file
+     *
+     * @return the file
+     */
+    private static Path csv(String text) {
+        try {
+            Path file = Files.createTempFile("images", ".csv");
+            file.toFile().deleteOnExit();
+            Paths.get(file + DatasetCache.SUFFIX).toFile().deleteOnExit();
+            write(file, text);
+            return file;
+        } catch (IOException e) {
+            throw new AssertionError("Violation of: can write to file");
+        }
+    }
+
+    /**
+     * Test that the first load parses and later loads map the sidecar.
+     */
+    @Test
+    public void testSidecarReused() {
+        Path file = csv("7,0,1,2,255\n3,4,5,6,7\n");
+        LabeledDataset first = DatasetCache.load(file.toString(), 2, 2);
+        LabeledDataset second = DatasetCache.load(file.toString(), 2, 2);
+        assertTrue(first instanceof LabeledDataset3);
+        assertTrue(second instanceof LabeledDataset2);
+        assertTrue(Files.exists(Paths.get(file + DatasetCache.SUFFIX)));
+        for (int i = 0; i < first.size(); i++) {
+            assertEquals(first.label(i), second.label(i));
+            assertTrue(Arrays.deepEquals(first.image(i), second.image(i)));
+        }
+    }
+
+    /**
+     * Test that analyze on a cache hit views the mapped sidecar rather than
+     * copying its images onto the heap.
+     */
+    @Test
+    public void testAnalyzeHitIsView() {
+        final int pixels = 28 * 28;
+        final int label = 5;
+        StringBuilder text = new StringBuilder();
+        for (int b = 0; b < 2; b++) {
+            text.append(label + b);
+            for (int p = 0; p < pixels; p++) {
+                text.append(',').append((p + b) % 256);
+            }
+            text.append('\n');
+        }
+        Path file = csv(text.toString());
+        CNNLayers layers = new CNNLayers1();
+        List<double[][]> parsed = layers.analyze(file.toString());
+        List<double[][]> mapped = layers.analyze(file.toString());
+        assertTrue(layers.getDataset() instanceof LabeledDataset2);
+        assertTrue(mapped instanceof DatasetImages);
+        assertEquals(2, mapped.size());
+        assertEquals(label + 1, layers.getLabel());
+        for (int i = 0; i < 2; i++) {
+            assertTrue(Arrays.deepEquals(parsed.get(i), mapped.get(i)));
+        }
+    }
+
+    /**
+     * Test that the sidecar is rebuilt once the CSV file changes.
+     */
+    @Test
+    public void testSidecarRebuilt() {
+        Path file = csv("7,0,1,2,255\n");
+        DatasetCache.load(file.toString(), 2, 2);
+        write(file, "7,0,1,2,255\n3,4,5,6,7\n");
+        try {
+            final long later = 2000;
+            Files.setLastModifiedTime(file, FileTime.fromMillis(
+                    Files.getLastModifiedTime(file).toMillis() + later));
+        } catch (IOException e) {
+            throw new AssertionError("Violation of: can write to file");
+        }
+        LabeledDataset data = DatasetCache.load(file.toString(), 2, 2);
+        assertTrue(data instanceof LabeledDataset3);
+        assertEquals(2, data.size());
+        assertEquals(2 + 1, data.label(1));
+    }
+
+    /**
+     * Test that data which does not fit in bytes is parsed but not cached.
+     */
+    @Test
+    public void testNoSidecarForDecimals() {
+        Path file = csv("7,0,1,2,0.5\n");
+        LabeledDataset data = DatasetCache.load(file.toString(), 2, 2);
+        final double half = 0.5;
+        assertEquals(half, data.image(0)[1][1], 0);
+        assertTrue(!Files.exists(Paths.get(file + DatasetCache.SUFFIX)));
+    }
+
+}
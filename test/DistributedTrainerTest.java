@@ -0,0 +1,152 @@
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Paths;
+
+import org.junit.Test;
+
+/**
+ *
+ * @author Sepehr Hooshiari
+ *
+ */
+public class DistributedTrainerTest {
+
+    /**
+     * Returns a network of two layers, 784 to 16 to 10.
+     *
+     * @return the network
+     */
+    private static CNNLayers network() {
+        final int in = 784;
+        final int hidden = 16;
+        final int out = 10;
+        return TrainerFixtures.network(in, hidden, out);
+    }
+
+    /**
+     * Returns {@code ranks} addresses on localhost whose ports were free a
+     * moment ago.
+     *
+     * @param ranks
+     *            the number of addresses
+     *
+     * @return the addresses
+     */
+    private static InetSocketAddress[] ring(int ranks) {
+        InetSocketAddress[] ring = new InetSocketAddress[ranks];
+        for (int r = 0; r < ranks; r++) {
+            try (ServerSocketChannel probe = ServerSocketChannel.open()) {
+                probe.bind(new InetSocketAddress("localhost", 0));
+                ring[r] = new InetSocketAddress("localhost",
+                        probe.socket().getLocalPort());
+            } catch (IOException e) {
+                throw new AssertionError("Violation of: can open a socket");
+            }
+        }
+        return ring;
+    }
+
+    /**
+     * Test if training three ranks on localhost updates the weights as
+     * updateBatch does for their batches together, and leaves every rank
+     * with the same weights.
+     */
+    @Test
+    public void testMatchesUpdateBatch() throws InterruptedException {
+        final double scalar = 200 * 100;
+        final int ranks = 3;
+        final int batch = 5;
+        final double delta = 1e-9;
+        InetSocketAddress[] ring = ring(ranks);
+        LabeledDataset images = network().getDataset();
+        int[][] shards = new int[ranks][images.size() / ranks];
+        for (int r = 0; r < ranks; r++) {
+            for (int i = 0; i < shards[r].length; i++) {
+                shards[r][i] = r + i * ranks;
+            }
+        }
+        NetworkPlan[] plans = new NetworkPlan[ranks];
+        Thread[] threads = new Thread[ranks];
+        Throwable[] failures = new Throwable[ranks];
+        for (int r = 0; r < ranks; r++) {
+            int rank = r;
+            threads[r] = new Thread(() -> {
+                try (DistributedTrainer trainer = new DistributedTrainer(
+                        network(), scalar, rank, ring)) {
+                    trainer.train(images, shards[rank], batch);
+                    plans[rank] = trainer.plan();
+                }
+            });
+            threads[r].setUncaughtExceptionHandler((thread, e) -> {
+                failures[rank] = e;
+            });
+            threads[r].start();
+        }
+        for (int r = 0; r < ranks; r++) {
+            threads[r].join();
+            if (failures[r] != null) {
+                throw new AssertionError("Violation of: rank " + r
+                        + " trains", failures[r]);
+            }
+        }
+
+        NetworkPlan exp = NetworkPlan.compile(network());
+        for (int start = 0; start < shards[0].length; start += batch) {
+            int each = Math.min(batch, shards[0].length - start);
+            int[] indices = new int[each * ranks];
+            for (int b = 0; b < indices.length; b++) {
+                indices[b] = shards[b / each][start + b % each];
+            }
+            TrainerFixtures.updateBatch(exp, images, indices, scalar);
+        }
+        for (int r = 0; r < ranks; r++) {
+            TrainerFixtures.assertWeights(exp, plans[r], delta);
+            TrainerFixtures.assertWeights(plans[0], plans[r], 0);
+        }
+    }
+
+    /**
+     * Test if two processes on localhost train in step, ending every epoch
+     * with the same accuracy.
+     */
+    @Test
+    public void testProcesses() throws IOException, InterruptedException {
+        final int ranks = 2;
+        final String epochs = "1";
+        InetSocketAddress[] ring = ring(ranks);
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java")
+                .toString();
+        Process[] processes = new Process[ranks];
+        for (int r = 0; r < ranks; r++) {
+            ProcessBuilder command = new ProcessBuilder(java, "-cp",
+                    System.getProperty("java.class.path"),
+                    "DistributedTraining", Integer.toString(r), epochs);
+            for (InetSocketAddress address : ring) {
+                command.command().add("localhost:" + address.getPort());
+            }
+            processes[r] = command.redirectErrorStream(true).start();
+        }
+        String[] accuracies = new String[ranks];
+        for (int r = 0; r < ranks; r++) {
+            try (BufferedReader output = new BufferedReader(
+                    new InputStreamReader(processes[r].getInputStream()))) {
+                String line = output.readLine();
+                while (line != null) {
+                    if (line.contains("accuracy")) {
+                        accuracies[r] = line
+                                .substring(line.indexOf("accuracy"));
+                    }
+                    line = output.readLine();
+                }
+            }
+            assertEquals(0, processes[r].waitFor());
+        }
+        assertEquals(accuracies[0], accuracies[1]);
+    }
+
+}
@@ -0,0 +1,102 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ *
+ * @author Sepehr Hooshiari
+ *
+ */
+public class EpochSamplerTest {
+
+    /**
+     * Number of images in the test dataset.
+     */
+    private static final int N = 100;
+
+    /**
+     * Returns {@code N} 1 by 1 images, image {@code i} labeled
+     * {@code i % 4}.
+     *
+     * @return the dataset
+     */
+    private static LabeledDataset images() {
+        final int classes = 4;
+        LabeledDataset1 data = new LabeledDataset1(1, 1);
+        for (int i = 0; i < N; i++) {
+            data.add(i % classes, new double[] { i });
+        }
+        return data;
+    }
+
+    /**
+     * Returns whether {@code order} holds every index below {@code N} once.
+     *
+     * @param order
+     *            the order to check
+     *
+     * @return true if {@code order} is a permutation
+     */
+    private static boolean isPermutation(int[] order) {
+        int[] sorted = order.clone();
+        Arrays.sort(sorted);
+        boolean ok = sorted.length == N;
+        for (int i = 0; i < sorted.length && ok; i++) {
+            ok = sorted[i] == i;
+        }
+        return ok;
+    }
+
+    /**
+     * Test that the same seed and epoch give the same order, and other epochs
+     * give other orders.
+     */
+    @Test
+    public void testUniformDeterministic() {
+        final long seed = 123;
+        EpochSampler a = new EpochSampler(images(), seed);
+        EpochSampler b = new EpochSampler(images(), seed);
+        assertTrue(isPermutation(a.uniform(0)));
+        assertTrue(Arrays.equals(a.uniform(2), b.uniform(2)));
+        assertTrue(!Arrays.equals(a.uniform(0), a.uniform(1)));
+    }
+
+    /**
+     * Test that every run of four images holds one of each label.
+     */
+    @Test
+    public void testStratified() {
+        final int classes = 4;
+        LabeledDataset data = images();
+        int[] order = new EpochSampler(data, 1).stratified(0);
+        assertTrue(isPermutation(order));
+        for (int t = 0; t < N; t += classes) {
+            boolean[] seen = new boolean[classes];
+            for (int k = 0; k < classes; k++) {
+                seen[data.label(order[t + k])] = true;
+            }
+            for (int c = 0; c < classes; c++) {
+                assertTrue(seen[c]);
+            }
+        }
+    }
+
+    /**
+     * Test that blocks are kept whole and in order.
+     */
+    @Test
+    public void testBlocks() {
+        final int block = 8;
+        int[] order = new EpochSampler(images(), 2).blocks(0, block);
+        assertTrue(isPermutation(order));
+        for (int t = 0; t < N; t++) {
+            if (order[t] % block != 0) {
+                assertEquals(order[t - 1] + 1, order[t]);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,120 @@
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ *
+ * @author Sepehr Hooshiari
+ *
+ */
+public class GemmTest {
+
+    /**
+     * Returns {@code length} Gaussian values drawn from {@code rand}.
+     *
+     * @param length
+     *            the number of values
+     * @param rand
+     *            the source of randomness
+     *
+     * @return the values
+     */
+    private static double[] random(int length, Random rand) {
+        double[] x = new double[length];
+        for (int i = 0; i < length; i++) {
+            x[i] = rand.nextGaussian();
+        }
+        return x;
+    }
+
+    /**
+     * Checks {@code Gemm} against the naive triple loop for one shape, for
+     * all three variants.
+     *
+     * @param m
+     *            rows of the product
+     * @param n
+     *            columns of the product
+     * @param k
+     *            the shared dimension
+     */
+    private static void check(int m, int n, int k) {
+        final long seed = 123;
+        final double alpha = -0.75;
+        final double delta = 1e-9;
+        Random rand = new Random(seed);
+        double[] a = random(m * k, rand);
+        double[] b = random(k * n, rand);
+        double[] c = random(m * n, rand);
+
+        // a is read as m by k or, transposed, as k by m; same for b
+        double[] nn = c.clone();
+        double[] tn = c.clone();
+        double[] nt = c.clone();
+        Gemm.multiply(m, n, k, alpha, a, b, nn);
+        Gemm.multiplyTN(m, n, k, alpha, a, b, tn);
+        Gemm.multiplyNT(m, n, k, alpha, a, b, nt);
+        for (int i = 0; i < m; i++) {
+            for (int j = 0; j < n; j++) {
+                double sumNN = 0;
+                double sumTN = 0;
+                double sumNT = 0;
+                for (int p = 0; p < k; p++) {
+                    sumNN += a[i * k + p] * b[p * n + j];
+                    sumTN += a[p * m + i] * b[p * n + j];
+                    sumNT += a[i * k + p] * b[j * k + p];
+                }
+                double expected = c[i * n + j];
+                assertEquals(expected + alpha * sumNN, nn[i * n + j], delta);
+                assertEquals(expected + alpha * sumTN, tn[i * n + j], delta);
+                assertEquals(expected + alpha * sumNT, nt[i * n + j], delta);
+            }
+        }
+    }
+
+    /**
+     * Test a product small enough to skip packing.
+     */
+    @Test
+    public void testSmall() {
+        final int n = 10;
+        final int k = 300;
+        check(1, n, k);
+    }
+
+    /**
+     * Test a product whose sides are multiples of the kernel tile.
+     */
+    @Test
+    public void testTiled() {
+        final int m = 32;
+        final int n = 16;
+        final int k = 64;
+        check(m, n, k);
+    }
+
+    /**
+     * Test a product with partial tiles on every edge.
+     */
+    @Test
+    public void testEdges() {
+        final int m = 7;
+        final int n = 13;
+        final int k = 61;
+        check(m, n, k);
+    }
+
+    /**
+     * Test a product that spans several cache blocks in every dimension.
+     */
+    @Test
+    public void testBlocks() {
+        final int m = 70;
+        final int n = 530;
+        final int k = 300;
+        check(m, n, k);
+    }
+
+}
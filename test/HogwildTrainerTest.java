@@ -0,0 +1,76 @@
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ *
+ * @author Sepehr Hooshiari
+ *
+ */
+public class HogwildTrainerTest {
+
+    /**
+     * Returns a network of two layers, 784 to 16 to 10, compiled into a plan.
+     *
+     * @return the plan
+     */
+    private static NetworkPlan network() {
+        final int in = 784;
+        final int hidden = 16;
+        final int out = 10;
+        return NetworkPlan.compile(TrainerFixtures.network(in, hidden, out));
+    }
+
+    /**
+     * Test if one worker updates the weights as NetLink1.train does on a
+     * plan, with plain and with opaque access.
+     */
+    @Test
+    public void testOneWorker() {
+        final double scalar = 255;
+        final double delta = 1e-9;
+        LabeledDataset images = new CNNLayers1().getDataset();
+        int[] order = TrainerFixtures.order(images);
+        NetworkPlan exp = network();
+        new NetLink1(new CNNLayers1(), scalar).train(exp, images, order);
+        for (boolean opaque : new boolean[] { false, true }) {
+            NetworkPlan actual = network();
+            try (HogwildTrainer trainer = new HogwildTrainer(actual, scalar, 1,
+                    opaque)) {
+                trainer.train(images, order);
+            }
+            TrainerFixtures.assertWeights(exp, actual, delta);
+        }
+    }
+
+    /**
+     * Test if several workers sharing the weights change them and keep them
+     * finite.
+     */
+    @Test
+    public void testWorkers() {
+        final double scalar = 255;
+        final int threads = 4;
+        final int epochs = 3;
+        LabeledDataset images = new CNNLayers1().getDataset();
+        int[] order = TrainerFixtures.order(images);
+        NetworkPlan plan = network();
+        double[][] before = plan.layer(1).getWeights();
+        try (HogwildTrainer trainer = new HogwildTrainer(plan, scalar, threads,
+                true)) {
+            for (int e = 0; e < epochs; e++) {
+                trainer.train(images, order);
+            }
+        }
+        double[][] after = plan.layer(1).getWeights();
+        double change = 0;
+        for (int i = 0; i < before.length; i++) {
+            for (int j = 0; j < before[0].length; j++) {
+                assertTrue(Double.isFinite(after[i][j]));
+                change += Math.abs(after[i][j] - before[i][j]);
+            }
+        }
+        assertTrue(change > 0);
+    }
+
+}
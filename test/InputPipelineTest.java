@@ -0,0 +1,115 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ *
+ * @author Sepehr Hooshiari
+ *
+ */
+public class InputPipelineTest {
+
+    /**
+     * Returns {@code n} 1 by 2 images where image {@code i} is labeled
+     * {@code i} and has pixels {@code i} and {@code 2 * i}.
+     *
+     * @param n
+     *            the number of images
+     *
+     * @return the dataset
+     */
+    private static LabeledDataset images(int n) {
+        LabeledDataset1 data = new LabeledDataset1(1, 2);
+        for (int i = 0; i < n; i++) {
+            data.add(i, new double[] { i, 2 * i });
+        }
+        return data;
+    }
+
+    /**
+     * Test that every image arrives once, scaled, in the given order.
+     */
+    @Test
+    public void testOrderAndScale() {
+        final int n = 100;
+        final double scale = 0.5;
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = n - 1 - i;
+        }
+        int seen = 0;
+        try (InputPipeline pipeline = new InputPipeline(images(n), order,
+                scale, 2 + 1, 1)) {
+            InputPipeline.Slot slot = pipeline.take();
+            while (slot != null) {
+                int i = order[seen];
+                assertEquals(1, slot.size());
+                assertEquals(i, slot.label(0));
+                assertEquals(i * scale, slot.inputs()[0], 0);
+                assertEquals(i, slot.inputs()[1], 0);
+                seen++;
+                pipeline.release(slot);
+                slot = pipeline.take();
+            }
+        }
+        assertEquals(n, seen);
+    }
+
+    /**
+     * Test that batches are filled up to their size and the last one holds
+     * the rest.
+     */
+    @Test
+    public void testBatches() {
+        final int n = 10;
+        final int batch = 4;
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        int batches = 0;
+        int seen = 0;
+        try (InputPipeline pipeline = new InputPipeline(images(n), order, 1,
+                2, batch)) {
+            InputPipeline.Slot slot = pipeline.take();
+            while (slot != null) {
+                assertTrue(slot.size() == batch || seen + slot.size() == n);
+                for (int k = 0; k < slot.size(); k++) {
+                    assertEquals(seen, slot.label(k));
+                    assertEquals(2 * seen, slot.inputs()[2 * k + 1], 0);
+                    seen++;
+                }
+                batches++;
+                pipeline.release(slot);
+                slot = pipeline.take();
+            }
+        }
+        assertEquals(2 + 1, batches);
+        assertEquals(n, seen);
+    }
+
+    /**
+     * Test that a producer failure reaches the consumer instead of ending
+     * the images early.
+     */
+    @Test
+    public void testProducerFailure() {
+        final int n = 4;
+        // the last index is out of range
+        int[] order = { 0, 1, n };
+        Throwable failure = null;
+        try (InputPipeline pipeline = new InputPipeline(images(n), order, 1,
+                2, 1)) {
+            InputPipeline.Slot slot = pipeline.take();
+            while (slot != null) {
+                pipeline.release(slot);
+                slot = pipeline.take();
+            }
+        } catch (AssertionError e) {
+            failure = e.getCause();
+        }
+        assertTrue(failure != null);
+    }
+
+}
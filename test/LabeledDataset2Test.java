@@ -0,0 +1,80 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ *
+ * @author Sepehr Hooshiari
+ *
+ */
+public class LabeledDataset2Test {
+
+    /**
+     * Returns IDX images and labels contents holding two 2 by 3 images.
+     *
+     * @return the images file followed by the labels file
+     */
+    private static ByteBuffer[] idx() {
+        final int imagesMagic = 0x00000803;
+        final int labelsMagic = 0x00000801;
+        final int rows = 2;
+        final int columns = 3;
+        final int header = 16;
+        ByteBuffer images = ByteBuffer.allocate(header + 2 * rows * columns);
+        images.putInt(imagesMagic).putInt(2).putInt(rows).putInt(columns);
+        final byte[] pixels = { 0, 1, 2, 3, 4, (byte) 255, 9, 8, 7, 6, 5,
+                (byte) 128 };
+        images.put(pixels);
+        final int labelsLength = 10;
+        ByteBuffer labels = ByteBuffer.allocate(labelsLength);
+        final byte seven = 7;
+        final byte three = 3;
+        labels.putInt(labelsMagic).putInt(2).put(seven).put(three);
+        return new ByteBuffer[] { images, labels };
+    }
+
+    /**
+     * Test that the header gives the shape of the dataset.
+     */
+    @Test
+    public void testShape() {
+        ByteBuffer[] files = idx();
+        LabeledDataset data = new LabeledDataset2(files[0], files[1]);
+        assertEquals(2, data.size());
+        assertEquals(2, data.rows());
+        assertEquals(2 + 1, data.columns());
+    }
+
+    /**
+     * Test that labels and pixels are read as unsigned bytes.
+     */
+    @Test
+    public void testImageAndLabel() {
+        ByteBuffer[] files = idx();
+        LabeledDataset data = new LabeledDataset2(files[0], files[1]);
+        final double[][] exp = { { 9, 8, 7 }, { 6, 5, 128 } };
+        final int seven = 7;
+        assertEquals(seven, data.label(0));
+        assertEquals(2 + 1, data.label(1));
+        assertTrue(Arrays.deepEquals(exp, data.image(1)));
+    }
+
+    /**
+     * Test that pixels are exposed without copying.
+     */
+    @Test
+    public void testPixels() {
+        ByteBuffer[] files = idx();
+        LabeledDataset2 data = new LabeledDataset2(files[0], files[1]);
+        final int last = 5;
+        final int max = 255;
+        assertEquals(2 * 2 * (2 + 1), data.pixels().remaining());
+        assertEquals(max, data.pixel(0, last));
+        assertTrue(data.pixels().isReadOnly());
+    }
+
+}
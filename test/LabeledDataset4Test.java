@@ -0,0 +1,95 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ *
+ * @author Sepehr Hooshiari
+ *
+ */
+public class LabeledDataset4Test {
+
+    /**
+     * Returns two 3 by 3 images, the first mostly zeros and the second with
+     * no zeros at all.
+     *
+     * @return the dataset
+     */
+    private static LabeledDataset source() {
+        final int side = 3;
+        final byte[] pixels = { 0, 0, 7, 0, (byte) 255, 0, 0, 0, 1, 1, 2, 3,
+                4, 5, 6, 7, 8, (byte) 200 };
+        final int[] labels = { 9, 0 };
+        return new LabeledDataset3(pixels, labels, side, side);
+    }
+
+    /**
+     * Test that encoding keeps the shape, labels and pixels.
+     */
+    @Test
+    public void testEncode() {
+        LabeledDataset expected = source();
+        LabeledDataset4 data = LabeledDataset4.encode(expected);
+        assertEquals(expected.size(), data.size());
+        assertEquals(expected.rows(), data.rows());
+        assertEquals(expected.columns(), data.columns());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.label(i), data.label(i));
+            assertTrue(Arrays.deepEquals(expected.image(i), data.image(i)));
+        }
+    }
+
+    /**
+     * Test that only non-zero pixels are stored beside the bitmaps.
+     */
+    @Test
+    public void testEncodedLength() {
+        final int bitmaps = 2 * 2;
+        final int nonZero = 3 + 9;
+        LabeledDataset4 data = LabeledDataset4.encode(source());
+        assertEquals(bitmaps + nonZero, data.encodedLength());
+    }
+
+    /**
+     * Test that decoding into a dense buffer scales and clears old values.
+     */
+    @Test
+    public void testCopyImage() {
+        final double half = 0.5;
+        final double[] exp = { -1, 0, 0, 3.5, 0, 127.5, 0, 0, 0, 0.5, -1 };
+        double[] target = new double[exp.length];
+        Arrays.fill(target, -1);
+        LabeledDataset4.encode(source()).copyImage(0, target, 1, half);
+        assertTrue(Arrays.equals(exp, target));
+    }
+
+    /**
+     * Test that a written file maps back to the same dataset.
+     */
+    @Test
+    public void testWriteAndMap() {
+        LabeledDataset4 expected = LabeledDataset4.encode(source());
+        Path file;
+        try {
+            file = Files.createTempFile("images", LabeledDataset4.SUFFIX);
+            file.toFile().deleteOnExit();
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        expected.write(file.toString());
+        LabeledDataset4 data = LabeledDataset4.map(file.toString());
+        assertEquals(expected.size(), data.size());
+        assertEquals(expected.encodedLength(), data.encodedLength());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.label(i), data.label(i));
+            assertTrue(Arrays.deepEquals(expected.image(i), data.image(i)));
+        }
+    }
+
+}
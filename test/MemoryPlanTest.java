@@ -0,0 +1,64 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ *
+ * @author Sepehr Hooshiari
+ *
+ */
+public class MemoryPlanTest {
+
+    /**
+     * Test if the activations of a chain share an arena of two widths.
+     */
+    @Test
+    public void testChain() {
+        final int[] sizes = { 100, 50, 100 };
+        final int[] first = { 0, 1, 2 };
+        final int[] last = { 1, 2, 3 };
+        final int length = 150;
+        MemoryPlan plan = new MemoryPlan(sizes, first, last);
+        assertEquals(length, plan.length());
+        assertEquals(0, plan.offset(0));
+        assertEquals(0, plan.offset(2));
+        assertEquals(sizes[0], plan.offset(1));
+    }
+
+    /**
+     * Test if tensors alive at the same time never overlap in the arena.
+     */
+    @Test
+    public void testNoOverlap() {
+        final int n = 40;
+        final int steps = 20;
+        final int maxSize = 64;
+        final long seed = 123;
+        Random rand = new Random(seed);
+        int[] sizes = new int[n];
+        int[] first = new int[n];
+        int[] last = new int[n];
+        int total = 0;
+        for (int t = 0; t < n; t++) {
+            sizes[t] = rand.nextInt(maxSize) + 1;
+            first[t] = rand.nextInt(steps);
+            last[t] = first[t] + rand.nextInt(steps - first[t]);
+            total += sizes[t];
+        }
+        MemoryPlan plan = new MemoryPlan(sizes, first, last);
+        assertTrue(plan.length() <= total);
+        for (int t = 0; t < n; t++) {
+            assertTrue(plan.offset(t) + sizes[t] <= plan.length());
+            for (int u = t + 1; u < n; u++) {
+                boolean alive = first[t] <= last[u] && first[u] <= last[t];
+                boolean apart = plan.offset(t) + sizes[t] <= plan.offset(u)
+                        || plan.offset(u) + sizes[u] <= plan.offset(t);
+                assertTrue(!alive || apart);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,89 @@
+import static org.junit.Assert.assertEquals;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import com.sun.management.ThreadMXBean;
+
+/**
+ *
+ * @author Sepehr Hooshiari
+ *
+ */
+public class NetLink1Test {
+
+    /**
+     * Test if training in workspace mode allocates nothing once under way.
+     */
+    @Test
+    public void testTrainWorkspaceAllocatesNothing() {
+        final int in = 784;
+        final int hidden = 16;
+        final int classes = 10;
+        final long seed = 123;
+        final double rate = 0.1;
+        final double scalar = 200 * 100;
+        final int rounds = 5;
+        final int warmUp = 50000;
+        CNNLayers layers = new CNNLayers1(in, hidden, seed, rate);
+        layers.setNext(new CNNLayers1(hidden, classes, seed, rate));
+        NetLink1 builder = new NetLink1(layers, scalar, true);
+        layers.analyze("data/mnist_test.csv");
+        LabeledDataset images = layers.getDataset();
+        int[] order = new int[images.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory
+                .getThreadMXBean();
+        /*
+         * The first epoch sizes the input and loss buffers; the rest let the
+         * compiler optimize the passes, which allocate until it has, however
+         * few images the dataset holds
+         */
+        int trained = 0;
+        while (trained < warmUp) {
+            builder.train(images, order);
+            trained += order.length;
+        }
+        long least = Long.MAX_VALUE;
+        for (int r = 0; r < rounds; r++) {
+            long before = threads.getCurrentThreadAllocatedBytes();
+            builder.train(images, order);
+            long after = threads.getCurrentThreadAllocatedBytes();
+            least = Math.min(least, after - before);
+        }
+        assertEquals(0, least);
+    }
+
+    /**
+     * Test if testing on a stream with no images gives 0 rather than NaN.
+     */
+    @Test
+    public void testEmptyStream() {
+        final double scalar = 255;
+        NetLink1 builder = new NetLink1(new CNNLayers1(), scalar);
+        assertEquals(0, builder.test(Collections.emptyIterator()), 0);
+    }
+
+    /**
+     * Test if testing on a dataset with no images gives 0 rather than NaN,
+     * through the network and through a plan.
+     */
+    @Test
+    public void testEmptyDataset() {
+        final double scalar = 255;
+        final int in = 784;
+        final int out = 10;
+        final int side = 28;
+        CNNLayers network = new CNNLayers1();
+        network.addLayer(new CNNLayers1(in, out, 1, 0.1));
+        NetLink1 builder = new NetLink1(network, scalar);
+        LabeledDataset empty = new LabeledDataset1(side, side);
+        assertEquals(0, builder.test(empty), 0);
+        assertEquals(0, builder.test(NetworkPlan.compile(network), empty), 0);
+    }
+
+}
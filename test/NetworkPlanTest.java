@@ -0,0 +1,175 @@
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ *
+ * @author Sepehr Hooshiari
+ *
+ */
+public class NetworkPlanTest {
+
+    /**
+     * Test if compile resolves the width of every activation.
+     */
+    @Test
+    public void testCompile() {
+        final CNNLayers network = new CNNLayers1();
+        final int in = 300;
+        final int hidden = 20;
+        final int out = 10;
+        network.addLayer(new CNNLayers1(in, hidden, 1, 0.1));
+        network.addLayer(new CNNLayers1(hidden, out, 2, 0.1));
+        NetworkPlan plan = NetworkPlan.compile(network);
+        assertEquals(2, plan.size());
+        assertEquals(in, plan.inputLength());
+        assertEquals(hidden, plan.width(1));
+        assertEquals(out, plan.outputLength());
+        assertEquals(network.getLayers().get(1), plan.layer(1));
+    }
+
+    /**
+     * Test if forward and backward match running the layers by hand.
+     */
+    @Test
+    public void testForwardBackward() {
+        final CNNLayers network = new CNNLayers1();
+        final int in = 300;
+        final int hidden = 20;
+        final int out = 10;
+        final double delta = 1e-12;
+        CNNLayers first = new CNNLayers1(in, hidden, 1, 0.1);
+        CNNLayers second = new CNNLayers1(hidden, out, 2, 0.1);
+        network.addLayer(new CNNLayers1(in, hidden, 1, 0.1));
+        network.addLayer(new CNNLayers1(hidden, out, 2, 0.1));
+        NetworkPlan plan = NetworkPlan.compile(network);
+        double[] inputs = first.toArray(first.analyze("data/mnist_test.csv"));
+        double[] input = Arrays.copyOf(inputs, in);
+
+        double[] exp = second.forwardPass(first.forwardPass(input));
+        double[] actual = plan.forward(input);
+        for (int j = 0; j < out; j++) {
+            assertEquals(exp[j], actual[j], delta);
+        }
+        first.updateArray(second.updateArray(exp, true), false);
+        plan.backward(actual);
+        double[][] expFirst = first.getWeights();
+        double[][] actualFirst = plan.layer(0).getWeights();
+        for (int i = 0; i < in; i++) {
+            for (int j = 0; j < hidden; j++) {
+                assertEquals(expFirst[i][j], actualFirst[i][j], delta);
+            }
+        }
+        double[][] expSecond = second.getWeights();
+        double[][] actualSecond = plan.layer(1).getWeights();
+        for (int i = 0; i < hidden; i++) {
+            for (int j = 0; j < out; j++) {
+                assertEquals(expSecond[i][j], actualSecond[i][j], delta);
+            }
+        }
+    }
+
+    /**
+     * Test if infer matches forward while keeping its activations in an arena
+     * of two layer widths.
+     */
+    @Test
+    public void testInfer() {
+        final CNNLayers network = new CNNLayers1();
+        final int in = 300;
+        final int[] widths = { 40, 20, 40, 10 };
+        final double delta = 1e-12;
+        int previous = in;
+        for (int k = 0; k < widths.length; k++) {
+            network.addLayer(new CNNLayers1(previous, widths[k], k, 0.1));
+            previous = widths[k];
+        }
+        NetworkPlan plan = NetworkPlan.compile(network);
+        assertEquals(widths[0] + widths[1], plan.arenaLength());
+        double[] inputs = network
+                .toArray(network.analyze("data/mnist_test.csv"));
+        double[] input = Arrays.copyOf(inputs, in);
+        double[] output = new double[plan.outputLength()];
+        plan.infer(input, output, new double[plan.arenaLength()]);
+        double[] exp = plan.forward(input);
+        for (int j = 0; j < exp.length; j++) {
+            assertEquals(exp[j], output[j], delta);
+        }
+    }
+
+    /**
+     * Test if guess recompiles its cached plan after addLayer.
+     */
+    @Test
+    public void testGuessAfterAddLayer() {
+        final CNNLayers network = new CNNLayers1();
+        final int in = 300;
+        final int hidden = 10;
+        final int out = 4;
+        network.addLayer(new CNNLayers1(in, hidden, 1, 0.1));
+        double[] inputs = network
+                .toArray(network.analyze("data/mnist_test.csv"));
+        double[] input = Arrays.copyOf(inputs, in);
+        assertEquals(NetworkPlan.compile(network).guess(input),
+                network.guess(input));
+        network.addLayer(new CNNLayers1(hidden, out, 2, 0.1));
+        assertEquals(NetworkPlan.compile(network).guess(input),
+                network.guess(input));
+    }
+
+    /**
+     * Test if forwardBatch, errorBatch and backwardBatch give the gradients
+     * of updateBatch, telling the listener about each layer last to first.
+     */
+    @Test
+    public void testBatchStep() {
+        final int in = 784;
+        final int first = 16;
+        final int second = 12;
+        final int out = 10;
+        final int n = 5;
+        final double scalar = 255;
+        final double delta = 1e-12;
+        NetworkPlan plan = NetworkPlan
+                .compile(TrainerFixtures.network(in, first, second, out));
+        NetworkPlan exp = NetworkPlan
+                .compile(TrainerFixtures.network(in, first, second, out));
+        LabeledDataset images = new CNNLayers1().getDataset();
+        int[] indices = Arrays.copyOf(TrainerFixtures.order(images), n);
+        TrainerFixtures.updateBatch(exp, images, indices, scalar);
+
+        double[] input = new double[n * in];
+        int[] labels = new int[n];
+        for (int b = 0; b < n; b++) {
+            images.copyImage(indices[b], input, b * in, 1.0 / scalar);
+            labels[b] = images.label(indices[b]);
+        }
+        double[][] outputs = new double[plan.size()][];
+        double[][] deltas = new double[plan.size()][];
+        double[][] gradients = new double[plan.size()][];
+        for (int k = 0; k < plan.size(); k++) {
+            outputs[k] = new double[n * plan.width(k + 1)];
+            deltas[k] = new double[n * plan.width(k + 1)];
+            gradients[k] = new double[plan.width(k) * plan.width(k + 1)];
+        }
+        double[] scratch = new double[n * plan.widest(0, plan.size())];
+        int last = plan.size() - 1;
+        int[] done = new int[plan.size()];
+        int[] count = new int[1];
+        plan.forwardBatch(0, plan.size(), input, n, outputs, deltas);
+        plan.errorBatch(outputs[last], deltas[last], labels, n, scratch);
+        plan.backwardBatch(0, plan.size(), input, n, outputs, deltas,
+                gradients, scratch, new double[0], k -> {
+                    done[count[0]] = k;
+                    count[0]++;
+                });
+        for (int k = 0; k < plan.size(); k++) {
+            assertEquals(last - k, done[k]);
+            plan.layer(k).applyGradient(gradients[k], n);
+        }
+        TrainerFixtures.assertWeights(exp, plan, delta);
+    }
+
+}
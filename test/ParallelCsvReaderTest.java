@@ -0,0 +1,90 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ *
+ * @author Sepehr Hooshiari
+ *
+ */
+public class ParallelCsvReaderTest {
+
+    /**
+     * Writes {@code text} to a new temporary file and returns its name.
+     *
+     * @param text
+     *            the contents of the file
+     *
+     * @return the name of the file
+     */
+    private static String write(String text) {
+        try {
+            Path file = Files.createTempFile("images", ".csv");
+            file.toFile().deleteOnExit();
+            Files.write(file, text.getBytes(StandardCharsets.US_ASCII));
+            return file.toString();
+        } catch (IOException e) {
+            throw new AssertionError("Violation of: can write to file");
+        }
+    }
+
+    /**
+     * Test reading one file with mixed line endings and a decimal pixel.
+     */
+    @Test
+    public void testReadFile() {
+        String name = write("7,0,1,2,255\r\n3,4,5.5,6,7\n\n9,0,0,0,0");
+        LabeledDataset data = ParallelCsvReader.read(name, 2, 2);
+        final double[][] exp = { { 4, 5.5 }, { 6, 7 } };
+        final int nine = 9;
+        assertEquals(2 + 1, data.size());
+        assertEquals(2 + 1, data.label(1));
+        assertEquals(nine, data.label(2));
+        assertTrue(Arrays.deepEquals(exp, data.image(1)));
+    }
+
+    /**
+     * Test that whole pixels in [0, 255] are stored one byte each and scaled
+     * while they are copied out.
+     */
+    @Test
+    public void testReadBytes() {
+        String name = write("7,0,1,2,255\n3,4,5,6,7\n");
+        LabeledDataset data = ParallelCsvReader.read(name, 2, 2);
+        final double[] exp = { 0, 0, 2, 2.5, 3, 3.5 };
+        final double[] actual = new double[exp.length];
+        final double half = 0.5;
+        final int max = 255;
+        assertTrue(data instanceof LabeledDataset3);
+        data.copyImage(1, actual, 2, half);
+        assertTrue(Arrays.equals(exp, actual));
+        assertEquals(max, data.image(0)[1][1], 0);
+    }
+
+    /**
+     * Test that shards are kept in the order given.
+     */
+    @Test
+    public void testReadShards() {
+        List<String> shards = new ArrayList<>();
+        shards.add(write("1,1,1,1,1\n"));
+        shards.add(write(""));
+        shards.add(write("2,2,2,2,2\n3,3,3,3,3\n"));
+        LabeledDataset data = ParallelCsvReader.read(shards, 2, 2);
+        assertEquals(2 + 1, data.size());
+        for (int i = 0; i < data.size(); i++) {
+            assertEquals(i + 1, data.label(i));
+            assertEquals(i + 1, data.image(i)[1][1], 0);
+        }
+    }
+
+}
@@ -0,0 +1,163 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ *
+ * @author Sepehr Hooshiari
+ *
+ */
+public class PipelineTrainerTest {
+
+    /**
+     * Returns a network of three layers, 784 to 16 to 12 to 10.
+     *
+     * @return the network
+     */
+    private static CNNLayers network() {
+        final int in = 784;
+        final int first = 16;
+        final int second = 12;
+        final int out = 10;
+        return TrainerFixtures.network(in, first, second, out);
+    }
+
+    /**
+     * Trains a fresh network on {@code stages} stages and checks its weights
+     * against updateBatch for the whole batch.
+     *
+     * @param stages
+     *            the number of stages
+     * @param micros
+     *            the number of micro-batches per mini-batch
+     * @param batch
+     *            the number of images per weight update
+     */
+    private static void check(int stages, int micros, int batch) {
+        final double scalar = 200 * 100;
+        final double delta = 1e-9;
+        CNNLayers network = network();
+        LabeledDataset images = network.getDataset();
+        int[] order = TrainerFixtures.order(images);
+        NetworkPlan plan = NetworkPlan.compile(network);
+        new PipelineTrainer(plan, scalar, stages, micros).train(images, order,
+                batch);
+
+        NetworkPlan exp = NetworkPlan.compile(network());
+        TrainerFixtures.train(exp, images, order, batch, scalar);
+        TrainerFixtures.assertWeights(exp, plan, delta);
+    }
+
+    /**
+     * Test if stages split the layers by their number of weights.
+     */
+    @Test
+    public void testStages() {
+        final double scalar = 255;
+        final int micros = 2;
+        NetworkPlan plan = NetworkPlan.compile(network());
+        PipelineTrainer two = new PipelineTrainer(plan, scalar, 2, micros);
+        assertEquals(2, two.stages());
+        assertEquals(0, two.firstLayer(0));
+        assertEquals(1, two.firstLayer(1));
+        PipelineTrainer three = new PipelineTrainer(plan, scalar, 3, micros);
+        assertEquals(3, three.stages());
+        assertEquals(1, three.firstLayer(1));
+        assertEquals(2, three.firstLayer(2));
+    }
+
+    /**
+     * Test if training on one stage updates the weights as updateBatch does.
+     */
+    @Test
+    public void testOneStage() {
+        final int micros = 3;
+        final int batch = 7;
+        check(1, micros, batch);
+    }
+
+    /**
+     * Test if training on one stage per layer, with more micro-batches than
+     * some batches have images, updates the weights as updateBatch does.
+     */
+    @Test
+    public void testThreeStages() {
+        final int stages = 3;
+        final int micros = 4;
+        final int batch = 9;
+        check(stages, micros, batch);
+    }
+
+    /**
+     * Test if training on two stages of uneven length updates the weights as
+     * updateBatch does.
+     */
+    @Test
+    public void testTwoStages() {
+        final int micros = 3;
+        final int batch = 16;
+        check(2, micros, batch);
+    }
+
+    /**
+     * Test if a stage that fails makes train fail, with every stage thread
+     * ended, instead of leaving the other stages waiting on their queues.
+     */
+    @Test
+    public void testStageFails() {
+        final int in = 784;
+        final int first = 16;
+        final int second = 12;
+        final int out = 10;
+        final double rate = 0.1;
+        final int stages = 3;
+        final int micros = 2;
+        final int batch = 8;
+        Activation broken = new Activation() {
+            @Override
+            public void apply(double[] z, double[] a, int offset,
+                    int length) {
+                throw new IllegalStateException("broken activation");
+            }
+
+            @Override
+            public void derivative(double[] z, double[] a, double[] slopes,
+                    int offset, int length) {
+                throw new IllegalStateException("broken activation");
+            }
+
+            @Override
+            public void apply(float[] z, float[] a, int offset, int length) {
+                throw new IllegalStateException("broken activation");
+            }
+
+            @Override
+            public void derivative(float[] z, float[] a, float[] slopes,
+                    int offset, int length) {
+                throw new IllegalStateException("broken activation");
+            }
+        };
+        CNNLayers network = new CNNLayers1();
+        network.addLayer(new CNNLayers1(in, first, 1, rate));
+        network.addLayer(new CNNLayers1(first, second, 2, rate));
+        network.addLayer(new CNNLayers1(second, out, 3, rate, broken));
+        LabeledDataset images = network.getDataset();
+        NetworkPlan plan = NetworkPlan.compile(network);
+        boolean failed = false;
+        try {
+            new PipelineTrainer(plan, 255, stages, micros).train(images,
+                    TrainerFixtures.order(images), batch);
+        } catch (AssertionError e) {
+            failed = true;
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        assertTrue(failed);
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            assertFalse(thread.getName().startsWith("pipeline stage")
+                    && thread.isAlive());
+        }
+    }
+
+}
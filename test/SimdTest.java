@@ -0,0 +1,104 @@
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ *
+ * @author Sepehr Hooshiari
+ *
+ */
+public class SimdTest {
+
+    /**
+     * Returns {@code length} Gaussian values drawn from {@code rand}.
+     *
+     * @param length
+     *            the number of values
+     * @param rand
+     *            the source of randomness
+     *
+     * @return the values
+     */
+    private static double[] random(int length, Random rand) {
+        double[] x = new double[length];
+        for (int i = 0; i < length; i++) {
+            x[i] = rand.nextGaussian();
+        }
+        return x;
+    }
+
+    /**
+     * Test that the chosen dot product matches the scalar one.
+     */
+    @Test
+    public void testDot() {
+        final long seed = 1;
+        final int n = 37;
+        final int off = 3;
+        final double delta = 1e-12;
+        Random rand = new Random(seed);
+        double[] x = random(n + off, rand);
+        double[] y = random(n, rand);
+        assertEquals(new VectorOps1().dot(x, off, y, 0, n),
+                Simd.OPS.dot(x, off, y, 0, n), delta);
+    }
+
+    /**
+     * Test that the chosen axpy, add and scale match the scalar ones.
+     */
+    @Test
+    public void testElementWise() {
+        final long seed = 2;
+        final int n = 37;
+        final int off = 5;
+        final double alpha = -0.3;
+        final double delta = 1e-12;
+        VectorOps scalar = new VectorOps1();
+        Random rand = new Random(seed);
+        double[] x = random(n + off, rand);
+        double[] y = random(n + off, rand);
+        double[] expected = y.clone();
+        double[] actual = y.clone();
+        scalar.axpy(alpha, x, off, expected, off, n);
+        Simd.OPS.axpy(alpha, x, off, actual, off, n);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], actual[i], delta);
+        }
+        scalar.add(x, y, expected, n);
+        Simd.OPS.add(x, y, actual, n);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], actual[i], delta);
+        }
+        scalar.scale(alpha, x, off, expected, 0, n);
+        Simd.OPS.scale(alpha, x, off, actual, 0, n);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], actual[i], delta);
+        }
+    }
+
+    /**
+     * Test that the chosen Sigmoid matches the scalar one.
+     */
+    @Test
+    public void testSigmoid() {
+        final long seed = 3;
+        final int n = 37;
+        final double spread = 10;
+        final double delta = 1e-12;
+        Random rand = new Random(seed);
+        double[] z = random(n, rand);
+        for (int i = 0; i < n; i++) {
+            z[i] *= spread;
+        }
+        double[] expected = new double[n];
+        double[] actual = new double[n];
+        new VectorOps1().sigmoid(z, expected, 0, n);
+        Simd.OPS.sigmoid(z, actual, 0, n);
+        for (int i = 0; i < n; i++) {
+            assertEquals(expected[i], actual[i], delta);
+        }
+    }
+
+}
@@ -0,0 +1,144 @@
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+/**
+ * Networks, orders and the reference weight updates shared by the tests of
+ * the trainers.
+ *
+ * @author Sepehr Hooshiari
+ *
+ */
+public final class TrainerFixtures {
+
+    /**
+     * Learning rate of every layer of {@code network}.
+     */
+    private static final double RATE = 0.1;
+
+    /**
+     * No argument constructor--private to prevent instantiation.
+     */
+    private TrainerFixtures() {
+    }
+
+    /**
+     * Returns a network whose layer {@code k} maps {@code widths[k]} inputs
+     * to {@code widths[k + 1]} outputs, with weights seeded by {@code k + 1}.
+     *
+     * @param widths
+     *            the width of every activation, from input to output
+     *
+     * @requires <pre> |widths| >= 2 </pre>
+     *
+     * @return the network
+     */
+    public static CNNLayers network(int... widths) {
+        CNNLayers network = new CNNLayers1();
+        for (int k = 0; k + 1 < widths.length; k++) {
+            network.addLayer(
+                    new CNNLayers1(widths[k], widths[k + 1], k + 1, RATE));
+        }
+        return network;
+    }
+
+    /**
+     * Returns the order that visits every image of {@code images} once.
+     *
+     * @param images
+     *            the images
+     *
+     * @return the order
+     */
+    public static int[] order(LabeledDataset images) {
+        int[] order = new int[images.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        return order;
+    }
+
+    /**
+     * Updates the weights of {@code plan} once with updateBatch for the
+     * images of {@code images} at {@code indices}, scaled by
+     * {@code 1 / scalar}.
+     *
+     * @param plan
+     *            the layers to update
+     * @param images
+     *            the images
+     * @param indices
+     *            indices into {@code images} of the batch
+     * @param scalar
+     *            the factor the pixels are divided by
+     */
+    public static void updateBatch(NetworkPlan plan, LabeledDataset images,
+            int[] indices, double scalar) {
+        int n = indices.length;
+        int in = plan.inputLength();
+        int classes = plan.outputLength();
+        double[] pass = new double[n * in];
+        for (int b = 0; b < n; b++) {
+            images.copyImage(indices[b], pass, b * in, 1.0 / scalar);
+        }
+        for (int k = 0; k < plan.size(); k++) {
+            pass = plan.layer(k).forwardBatch(pass, n);
+        }
+        for (int b = 0; b < n; b++) {
+            pass[b * classes + images.label(indices[b])] -= 1;
+        }
+        for (int k = plan.size() - 1; k >= 0; k--) {
+            pass = plan.layer(k).updateBatch(pass, n);
+        }
+    }
+
+    /**
+     * Updates the weights of {@code plan} with updateBatch for the images of
+     * {@code order}, {@code batch} at a time.
+     *
+     * @param plan
+     *            the layers to update
+     * @param images
+     *            the images
+     * @param order
+     *            indices into {@code images}
+     * @param batch
+     *            the number of images per weight update
+     * @param scalar
+     *            the factor the pixels are divided by
+     */
+    public static void train(NetworkPlan plan, LabeledDataset images,
+            int[] order, int batch, double scalar) {
+        for (int start = 0; start < order.length; start += batch) {
+            int end = Math.min(start + batch, order.length);
+            updateBatch(plan, images, Arrays.copyOfRange(order, start, end),
+                    scalar);
+        }
+    }
+
+    /**
+     * Checks that every weight of {@code actual} is within {@code delta} of
+     * the same weight of {@code exp}.
+     *
+     * @param exp
+     *            the expected layers
+     * @param actual
+     *            the layers to check
+     * @param delta
+     *            the largest difference allowed
+     */
+    public static void assertWeights(NetworkPlan exp, NetworkPlan actual,
+            double delta) {
+        assertEquals(exp.size(), actual.size());
+        for (int k = 0; k < exp.size(); k++) {
+            double[][] expWeights = exp.layer(k).getWeights();
+            double[][] weights = actual.layer(k).getWeights();
+            for (int i = 0; i < expWeights.length; i++) {
+                for (int j = 0; j < expWeights[0].length; j++) {
+                    assertEquals(expWeights[i][j], weights[i][j], delta);
+                }
+            }
+        }
+    }
+
+}